@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.DB;
+
+import java.util.*;
+
+/**
+ Classes changed in the DB table between two polls of
+ {@link JdbcClassLoader#startPolling(long)}.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public class ClassChangeEvent extends EventObject {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long fromRevision;
+    private final long toRevision;
+    private final Set<String> packages;
+    private final Set<String> classes;
+
+    /**
+     @param source the class loader
+     @param fromRevision last revision seen by the previous poll
+     @param toRevision highest revision seen by this poll
+     @param packages package names of the changed classes
+     @param classes full names of the changed classes
+     */
+    public ClassChangeEvent(JdbcClassLoader source, long fromRevision, long toRevision, Set<String> packages, Set<String> classes) {
+        super(source);
+        this.fromRevision = fromRevision;
+        this.toRevision = toRevision;
+        this.packages = Collections.unmodifiableSet(packages);
+        this.classes = Collections.unmodifiableSet(classes);
+    }
+
+    /**
+     @return last revision seen by the previous poll
+     */
+    public long getFromRevision() {
+        return fromRevision;
+    }
+
+    /**
+     @return highest revision seen by this poll
+     */
+    public long getToRevision() {
+        return toRevision;
+    }
+
+    /**
+     @return package names of the changed classes (ex.: cz.b2b.jcl.RAM.resource)
+     */
+    public Set<String> getPackages() {
+        return packages;
+    }
+
+    /**
+     @return full names of the changed classes (ex.:
+     cz.b2b.jcl.RAM.resource.Test)
+     */
+    public Set<String> getClasses() {
+        return classes;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + fromRevision + " -> " + toRevision + ", packages=" + packages + "]";
+    }
+}
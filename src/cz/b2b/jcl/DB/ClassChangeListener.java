@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.DB;
+
+import java.util.EventListener;
+
+/**
+ Listener of the classes changed in the DB table, see
+ {@link JdbcClassLoader#startPolling(long)}.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public interface ClassChangeListener extends EventListener {
+
+    /**
+     Called from the polling thread when classes have changed.
+
+     @param event changed packages and classes
+     */
+    void classesChanged(ClassChangeEvent event);
+}
@@ -22,10 +22,29 @@ import java.net.*;
 import java.util.*;
 import java.io.*;
 import org.slf4j.*;
+import cz.b2b.jcl.util.AsyncLoading;
 import cz.b2b.jcl.util.CONST;
+import cz.b2b.jcl.util.ClassFileIndex;
+import cz.b2b.jcl.util.JarIndex;
+import cz.b2b.jcl.util.JclEvents;
+import cz.b2b.jcl.util.JavaRTCompiler;
+import cz.b2b.jcl.util.RadixTreeMap;
+import cz.b2b.jcl.util.ResourceListing;
+import cz.b2b.jcl.util.TransformerChain;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import com.mchange.v2.c3p0.*;
 import java.beans.PropertyVetoException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 /**
  The JdbcClassLoader class implements a class loader that loads classes from a
@@ -42,6 +61,12 @@ import java.beans.PropertyVetoException;
  <p>
  The table name is arbitrary and is part of the configuration.
  <p>
+ The tables written by {@link JdbcPublisher} have two more columns, class_hash
+ [char(64)] (SHA-256 of the class code) and revision [bigint] (revision of the
+ last change), and a version table named table_version (see
+ jcl_db_jdbc.sql). These tables can be polled for changes (see
+ {@link #poll()}), the removed classes are kept as rows without class code.
+ <p>
  Example of the structure of the relevant table (mysql, mariadb):
  <p>
  {@code CREATE TABLE IF NOT EXISTS `jcl_db_jdbc` ( `package_name` varchar(512)
@@ -50,6 +75,40 @@ import java.beans.PropertyVetoException;
  (`package_name`,`class_name`) ) ENGINE=MyISAM DEFAULT CHARSET=utf8
  COLLATE=utf8_bin;}
  <p>
+ Whole jar files can be stored in a second table (see
+ {@link #setJarTable(String)}) that has two columns of these names:
+ <p>
+ - jar_name [varchar] (jar name, the jars are searched in the order of names),
+ <p>
+ - jar_code [blob] (content of the jar file).
+ <p>
+ Each jar is fetched once, indexed in memory and both classes and resources are
+ served from it. Signatures of the stored jars are not verified.
+ <p>
+ Java sources can be stored in a third table (see
+ {@link #setSourceTable(String, String[])} and
+ {@link #addJavaSources(Map)}) that has three columns of these names:
+ <p>
+ - package_name [varchar] (package name),
+ <p>
+ - class_name [varchar] (class name),
+ <p>
+ - class_source [text] (source code of the class).
+ <p>
+ The sources are compiled in memory together on the first lookup of a class
+ not found in the jars and the class table, the compiled classes are cached
+ until the sources change (see jcl_db_source.sql).
+ <p>
+ The classes fetched from the class table can be kept in a local snapshot file
+ (see {@link #setSnapshot(String)}), the next start then does not wait for the
+ DB.
+ <p>
+ Example of the structure of the jar table (mysql, mariadb):
+ <p>
+ {@code CREATE TABLE IF NOT EXISTS `jcl_db_jar` ( `jar_name` varchar(512)
+ CHARACTER SET ascii NOT NULL, `jar_code` longblob DEFAULT NULL, PRIMARY KEY
+ (`jar_name`) ) ENGINE=MyISAM DEFAULT CHARSET=utf8 COLLATE=utf8_bin;}
+ <p>
  Example of usage:
  <pre>
  String driver = "org.mariadb.jdbc.Driver";
@@ -73,15 +132,68 @@ import java.beans.PropertyVetoException;
 
  @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
  */
-public class JdbcClassLoader extends URLClassLoader {
+public class JdbcClassLoader extends URLClassLoader implements ResourceListing {
 
     private final static String protocol = "x-db-jdbc";
+    /**
+     Query of the URLs of an entry in the given jar of the jar table (see
+     findResources).
+     */
+    private final static String JAR_QUERY = "jar=";
     private final static Logger logger = LoggerFactory.getLogger(JdbcClassLoader.class);
-    private final static String package_name = "package_name";
-    private final static String class_name = "class_name";
-    private final static String class_code = "class_code";
+    final static String package_name = "package_name";
+    final static String class_name = "class_name";
+    final static String class_code = "class_code";
+    final static String class_hash = "class_hash";
+    final static String revision = "revision";
+    final static String jar_name = "jar_name";
+    final static String jar_code = "jar_code";
+    final static String class_source = "class_source";
+    final static String version_suffix = "_version";
 
     private String table = null;
+    private String jarTable = null;
+    private boolean useKeyIndex = false;
+    private volatile Map<String, Long> keyIndex = null;
+    private volatile List<JarIndex> jarIndexes = null;
+    /**
+     CRC32 of the names and the code of the fetched jars, -1 while they are
+     not fetched.
+     */
+    private volatile long jarChecksum = -1;
+    private String sourceTable = null;
+    private String[] sourceLib = null;
+    /**
+     Classes compiled from the source table by URL file name.
+     */
+    private volatile Map<String, byte[]> sourceClasses = null;
+    /**
+     Compilation of the source table in flight, concurrent lookups wait for it.
+     */
+    private FutureTask<Map<String, byte[]>> sourceTask = null;
+    /**
+     Incremented when the compiled sources are dropped, a compilation started
+     before is not cached.
+     */
+    private long sourceGeneration = 0;
+    private final Object lock = new Object();
+    private final List<ClassChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile long revisionSeen = -1;
+    /**
+     True if the class table has the revision column, null until it is
+     checked.
+     */
+    private volatile Boolean revisionColumn = null;
+    private ScheduledExecutorService poller = null;
+    private volatile JdbcSnapshot snapshot = null;
+    private Thread reconciler = null;
+    private volatile ClassFileIndex classIndex = null;
+    private volatile File classIndexFile = null;
+    private volatile TransformerChain transformer = null;
+    /**
+     Class code fetched by the async loading, taken by the class definition.
+     */
+    private final Map<String, byte[]> prefetched = new ConcurrentHashMap<>();
 
     private final URL jdbcURL = new URL(protocol, CONST.host, CONST.port, CONST.baseURI, new JdbcURLStreamHandler());
     private final ComboPooledDataSource cpds = new ComboPooledDataSource();
@@ -123,8 +235,19 @@ public class JdbcClassLoader extends URLClassLoader {
 
     @Override
     public void close() throws IOException {
-        cpds.close();
-        super.close();
+        stopPolling();
+        jarIndexes = null;
+        invalidate_sources();
+        keyIndex = null;
+        classIndex = null;
+        try {
+            stop_reconciler();
+            saveSnapshot();
+        } finally {
+            snapshot = null;
+            cpds.close();
+            super.close();
+        }
 
     }
 
@@ -158,9 +281,130 @@ public class JdbcClassLoader extends URLClassLoader {
      */
     public void setTable(String table) {
         this.table = table;
+        this.revisionColumn = null;
+
+    }
+
+    /**
+     Set the table with whole jar files. The classes and resources are looked
+     up in these jars first, then in the class table (if set).
+     @param jarTable jar table name (ex.: jcl_db_jar), null disables the jars
+     */
+    public void setJarTable(String jarTable) {
+        this.jarTable = jarTable;
+        this.jarIndexes = null;
+        this.classIndex = null;
 
     }
 
+    /**
+     Drop the jars fetched from the jar table, they are fetched again on the
+     next lookup.
+     */
+    public void refreshJars() {
+        this.jarIndexes = null;
+        this.classIndex = null;
+    }
+
+    /**
+     Set the table with java sources. The classes compiled from the sources are
+     looked up after the jars and the class table.
+     <p>
+     The sources are compiled once and cached, also when the table is empty.
+     The cache is dropped only by this class loader (addJavaSources,
+     refreshSources), the changes of the table made by other class loaders or
+     processes are not polled (see {@link #startPolling(long)}), call
+     refreshSources to see them.
+     @param sourceTable source table name (ex.: jcl_db_source), null disables
+     the sources
+     @param extraLib Fields of any additional resources (libraries) needed
+     during compilation, may be null
+     */
+    public void setSourceTable(String sourceTable, String[] extraLib) {
+        this.sourceTable = sourceTable;
+        this.sourceLib = extraLib;
+        invalidate_sources();
+    }
+
+    /**
+     Drop the classes compiled from the source table, the sources are fetched
+     and compiled again on the next lookup. The changes of the source table are
+     not detected otherwise, see {@link #setSourceTable(String, String[])}.
+     */
+    public void refreshSources() {
+        invalidate_sources();
+    }
+
+    /**
+     Store the java source in the source table (see
+     {@link #addJavaSources(Map)}).
+     @param className binary name of the class (ex.:
+     cz.b2b.jcl.RAM.resource.Test)
+     @param source source code of the class
+     @throws SQLException Thrown when the source is not stored
+     */
+    public void addJavaSource(String className, CharSequence source) throws SQLException {
+        addJavaSources(Collections.singletonMap(className, source));
+    }
+
+    /**
+     Store the java sources in the source table in one transaction, the
+     existing sources of the same classes are replaced. The sources are
+     compiled on the next lookup, classes already defined by this class loader
+     are not redefined.
+     @param sources source code by binary class name (ex.:
+     cz.b2b.jcl.RAM.resource.Test)
+     @throws SQLException Thrown when the sources are not stored, nothing is
+     stored then
+     */
+    public void addJavaSources(Map<String, ? extends CharSequence> sources) throws SQLException {
+        if (sourceTable == null) {
+            throw new SQLException("Source table name is empty.");
+        }
+        String updateSQL = "UPDATE " + sourceTable + " SET " + class_source + " = ? WHERE " + package_name + " = ? AND " + class_name + " = ?";
+        String insertSQL = "INSERT INTO " + sourceTable + " (" + package_name + ", " + class_name + ", " + class_source + ") VALUES (?, ?, ?)";
+        logger.debug(updateSQL);
+        Connection conn = cpds.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            try (PreparedStatement update = conn.prepareStatement(updateSQL);
+                    PreparedStatement insert = conn.prepareStatement(insertSQL)) {
+                for (Map.Entry<String, ? extends CharSequence> item : sources.entrySet()) {
+                    String name = item.getKey();
+                    int dot = name.lastIndexOf(CONST.DOT);
+                    String packageName = (dot < 0) ? CONST.EMPTY : name.substring(0, dot);
+                    String className = name.substring(dot + 1);
+                    update.setString(1, item.getValue().toString());
+                    update.setString(2, packageName);
+                    update.setString(3, className);
+                    if (update.executeUpdate() > 0) {
+                        continue;
+                    }
+                    insert.setString(1, packageName);
+                    insert.setString(2, className);
+                    insert.setString(3, item.getValue().toString());
+                    insert.executeUpdate();
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                logger.error(ex.toString());
+            }
+            throw e;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+                conn.close();
+            } catch (SQLException ex) {
+                logger.error(ex.toString());
+            }
+        }
+        invalidate_sources();
+    }
+
     /**
      Set url string for JDBC connection.
      @param dbUrl url connection (ex.: jdbc:mariadb://127.0.0.1:3306/test)
@@ -206,6 +450,936 @@ public class JdbcClassLoader extends URLClassLoader {
 
     }
 
+    /**
+     Enable the in-memory key index. The names and lengths of all classes of
+     the table are read by one query on the first lookup, the existence of a
+     class is then checked without a DB round trip. Only the class code is
+     fetched from the DB.
+     <p>
+     Classes added to the table later are not seen until
+     {@link #refreshKeyIndex()}.
+     @param keyIndex true to enable the key index
+     */
+    public void setKeyIndex(boolean keyIndex) {
+        this.useKeyIndex = keyIndex;
+        this.keyIndex = null;
+    }
+
+    /**
+     Drop the in-memory key index, it is read again on the next lookup.
+     */
+    public void refreshKeyIndex() {
+        this.keyIndex = null;
+    }
+
+    private Map<String, Long> keyIndex() {
+        if (useKeyIndex == false) {
+            return null;
+        }
+        Map<String, Long> index = keyIndex;
+        if (index != null) {
+            return index;
+        }
+        synchronized (lock) {
+            if (keyIndex != null) {
+                return keyIndex;
+            }
+            final Map<String, Long> keys = new RadixTreeMap<>();
+            String SQL = "SELECT " + package_name + ", " + class_name + ", OCTET_LENGTH(" + class_code + ") FROM " + table;
+            Boolean ok = select(SQL, rs -> {
+                do {
+                    long len = rs.getLong(3);
+                    if (rs.wasNull() == false) {
+                        keys.put(file_name(rs.getString(1), rs.getString(2)), len);
+                    }
+                } while (rs.next() == true);
+                return true;
+            });
+            if (ok == null) {
+                // query failed or empty table, the DB is probed directly
+                return null;
+            }
+            keyIndex = keys;
+            return keys;
+        }
+    }
+
+    /**
+     Lists the entries of the jar table and the classes of the class table.
+     The class table is listed from the key index if enabled (see
+     {@link #setKeyIndex(boolean)}), by one query otherwise.
+     @param prefix name prefix (ex.: cz/b2b/jcl/ or META-INF/services/), empty
+     string for all names
+     @return names of the classes and resources starting with the prefix
+     */
+    @Override
+    public List<String> listResources(String prefix) {
+        final String entry = prefix.startsWith(CONST.baseURI) == true ? prefix.substring(CONST.baseURI.length()) : prefix;
+        final Set<String> names = new TreeSet<>();
+        for (JarIndex index : jars()) {
+            names.addAll(index.getNamesWithPrefix(entry));
+        }
+        for (String name : sources().keySet()) {
+            if (name.startsWith(CONST.baseURI + entry) == true) {
+                names.add(name.substring(CONST.baseURI.length()));
+            }
+        }
+        if (table == null) {
+            return new ArrayList<>(names);
+        }
+
+        Map<String, Long> index = keyIndex();
+        if (index instanceof RadixTreeMap) {
+            ((RadixTreeMap<Long>) index).forEachWithPrefix(CONST.baseURI + entry, (name, len) -> names.add(name.substring(CONST.baseURI.length())));
+            return new ArrayList<>(names);
+        }
+
+        String SQL = "SELECT " + package_name + ", " + class_name + " FROM " + table;
+        int slash = entry.lastIndexOf(CONST.baseURI);
+        if (slash > 0) {
+            // the classes of the package and its subpackages, filtered below
+            String packageName = escape(entry.substring(0, slash).replace(CONST.baseURI, CONST.DOT));
+            SQL += " WHERE " + package_name + " = '" + packageName + "' OR " + package_name + " LIKE '" + packageName + ".%'";
+        }
+        select(SQL, rs -> {
+            do {
+                String name = file_name(rs.getString(1), rs.getString(2)).substring(CONST.baseURI.length());
+                if (name.startsWith(entry) == true) {
+                    names.add(name);
+                }
+            } while (rs.next() == true);
+            return true;
+        });
+        return new ArrayList<>(names);
+    }
+
+    /**
+     The entry found in more jars of the jar table has one URL for each of
+     them, the first URL is the one of getResource (ex.: META-INF/services
+     files of all jars for ServiceLoader).
+     */
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        Enumeration<URL> found = super.findResources(name);
+        List<URL> urls = new ArrayList<>();
+        while (found.hasMoreElements() == true) {
+            URL url = found.nextElement();
+            urls.add(url);
+            if (protocol.equals(url.getProtocol()) == false) {
+                continue;
+            }
+            String entry = name.startsWith(CONST.baseURI) == true ? name.substring(CONST.baseURI.length()) : name;
+            List<JarIndex> indexes = jars();
+            boolean first = true;
+            for (int i = 0; i < indexes.size(); i++) {
+                if (indexes.get(i).contains(entry) == false) {
+                    continue;
+                }
+                if (first == true) {
+                    // served by the plain URL
+                    first = false;
+                    continue;
+                }
+                urls.add(new URL(jdbcURL, CONST.baseURI + entry + "?" + JAR_QUERY + i));
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    /**
+     Returns a read-only view of the resource, found as by getResource.
+     <p>
+     The resource served by the JDBC stream protocol handler (of this or
+     another JdbcClassLoader) is not copied: the view shares the fetched class
+     code, an entry of the jar table stored uncompressed is a view of the
+     fetched jar. Both are heap arrays which are never modified, a new revision
+     is fetched into new arrays. The resource of any other URL is read into a
+     new buffer.
+     @param name resource name (ex.: cz/b2b/jcl/RAM/resource/Test.class)
+     @return read-only buffer of the content, null if the resource is not
+     found
+     @throws IOException Thrown when the resource can not be read
+     */
+    public ByteBuffer getResourceAsByteBuffer(String name) throws IOException {
+        URL url = getResource(name);
+        if (url == null) {
+            return null;
+        }
+        URLConnection connection = url.openConnection();
+        if (connection instanceof JdbcURLConnection) {
+            return ((JdbcURLConnection) connection).getBuffer();
+        }
+        return read_buffer(connection);
+    }
+
+    private static ByteBuffer read_buffer(URLConnection connection) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(connection.getContentLength(), CONST.BUFFER_SIZE));
+        byte[] b = new byte[CONST.BUFFER_SIZE];
+        int len;
+        InputStream in = connection.getInputStream();
+        try {
+            while ((len = in.read(b)) > 0) {
+                out.write(b, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+    }
+
+    /**
+     Load the class without blocking the caller. The class code is fetched on
+     the I/O executor of {@link AsyncLoading}, then the class is defined.
+     @param name binary name of the class (ex.: cz.b2b.jcl.RAM.resource.Test)
+     @return the future of the class, completed exceptionally with
+     ClassNotFoundException if the class is not found
+     */
+    public CompletableFuture<Class<?>> loadClassAsync(String name) {
+        return loadClassesAsync(Collections.singletonList(name)).thenApply(classes -> classes.get(name));
+    }
+
+    /**
+     Load the classes without blocking the caller. The class code of all
+     classes is fetched in parallel on the I/O executor of
+     {@link AsyncLoading}, then the classes are defined in one batch.
+     @param names binary names of the classes
+     @return the future of the classes by name
+     */
+    public CompletableFuture<Map<String, Class<?>>> loadClassesAsync(Collection<String> names) {
+        final List<String> copy = new ArrayList<>(names);
+        return AsyncLoading.loadClasses(this, copy, this::prefetch).whenComplete((classes, e) -> {
+            // drop the code of the classes defined elsewhere (ex.: by the parent)
+            for (String name : copy) {
+                prefetched.remove(class_file_name(name));
+            }
+        });
+    }
+
+    /**
+     Fetch the class code into the prefetched classes.
+     */
+    private void prefetch(String className) throws IOException {
+        String name = class_file_name(className);
+        URLConnection connection = new URL(jdbcURL, name.substring(CONST.baseURI.length())).openConnection();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = connection.getInputStream();
+        try {
+            byte[] b = new byte[CONST.BUFFER_SIZE];
+            int len;
+            while ((len = in.read(b)) > 0) {
+                out.write(b, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        prefetched.put(name, out.toByteArray());
+    }
+
+    /**
+     Use the local snapshot file of the class table. The classes found in the
+     snapshot are served from it without a DB round trip, the classes fetched
+     from the DB are added to it.
+     <p>
+     On the first lookup the snapshot is reconciled with the DB in the
+     background: the classes with a higher revision than the snapshot (see
+     {@link JdbcPublisher}) are dropped from it and fetched again on the next
+     lookup. Until then the classes of the previous run are served. Polling
+     (see {@link #poll()}) keeps the snapshot up to date too.
+     <p>
+     The snapshot is written by {@link #saveSnapshot()} and on close. The class
+     table must have the revision column, otherwise the snapshot is not written.
+     @param file snapshot file (ex.: /var/cache/app/jcl_db_jdbc.snapshot), null
+     disables the snapshot
+     */
+    public void setSnapshot(String file) {
+        synchronized (lock) {
+            stop_reconciler();
+            snapshot = (file == null) ? null : JdbcSnapshot.load(new File(file));
+        }
+    }
+
+    /**
+     Write the snapshot file if the snapshot has changed.
+     @throws IOException Thrown when the snapshot file can not be written
+     */
+    public void saveSnapshot() throws IOException {
+        JdbcSnapshot current = snapshot;
+        if (current != null) {
+            current.save();
+        }
+    }
+
+    /**
+     @return the snapshot, reconciliation is started on the first call
+     */
+    private JdbcSnapshot snapshot() {
+        JdbcSnapshot current = snapshot;
+        if (current == null || reconciler != null) {
+            return current;
+        }
+        synchronized (lock) {
+            if (current != snapshot || reconciler != null) {
+                return snapshot;
+            }
+            if (current.getRevision() < 0 && Boolean.TRUE.equals(has_revision()) == true) {
+                // new snapshot, its revision must be known before any class is added
+                Long max = select("SELECT MAX(" + revision + ") FROM " + table, rs -> rs.getLong(1));
+                if (max != null) {
+                    current.clear(max);
+                }
+            }
+            reconciler = new Thread(() -> reconcile(current), "JdbcClassLoader-snapshot-" + table);
+            reconciler.setDaemon(true);
+            reconciler.start();
+            return current;
+        }
+    }
+
+    /**
+     Set the transformers of the class code (see {@link TransformerChain}).
+     The snapshot and the prefetched code hold the original code, the classes
+     are defined from the transformed code, which is cached by the chain. The
+     .class resources (ex.: getResourceAsStream) are served transformed too.
+     @param transformer the transformer chain, null disables the
+     transformation
+     */
+    public void setTransformer(TransformerChain transformer) {
+        this.transformer = transformer;
+    }
+
+    /**
+     Set the file of the persisted class index (see {@link #getClassIndex()}).
+     The index is read from the file while its revision is the revision of the
+     class table, otherwise it is built and written again. The class table
+     must have the revision column, otherwise the index is not written.
+     <p>
+     The jar table has no revision. With the jar table set, the index is
+     stamped with the revision of the class table in the upper 32 bits and
+     the CRC32 of the fetched jars in the lower 32 bits, so a changed jar
+     table builds the index again.
+     @param file index file (ex.: /var/cache/app/jcl_db_jdbc.idx), null keeps
+     the index in memory only
+     */
+    public void setClassIndexFile(String file) {
+        this.classIndexFile = (file == null) ? null : new File(file);
+        this.classIndex = null;
+    }
+
+    /**
+     Returns the index of the annotations, superclasses and interfaces of the
+     classes of the jar table and the class table (see {@link ClassFileIndex}).
+     No class is defined, the class files are parsed only.
+     <p>
+     The index is built on the first call by one query over the class table.
+     It is dropped when a change of the table is seen (see {@link #poll()}) or
+     the jars are refreshed, and built again on the next call.
+     @return the class index
+     */
+    public ClassFileIndex getClassIndex() {
+        ClassFileIndex index = classIndex;
+        if (index != null) {
+            return index;
+        }
+        synchronized (lock) {
+            if (classIndex != null) {
+                return classIndex;
+            }
+            Long max = (table == null || Boolean.TRUE.equals(has_revision()) == false) ? null : select("SELECT MAX(" + revision + ") FROM " + table, rs -> rs.getLong(1));
+            long current = (max == null) ? -1 : max;
+            File file = classIndexFile;
+            List<JarIndex> jars = jars();
+            if (jarTable != null && current >= 0) {
+                long checksum = jarChecksum;
+                current = (checksum < 0) ? -1 : (current << 32) | checksum;
+            }
+            if (file != null && current >= 0) {
+                try {
+                    index = ClassFileIndex.load(file);
+                } catch (IOException e) {
+                    logger.error("Class index " + file + " ignored: " + e.toString());
+                }
+                if (index != null && index.getRevision() == current) {
+                    classIndex = index;
+                    return index;
+                }
+            }
+
+            index = new ClassFileIndex();
+            // the jars are searched before the class table
+            for (JarIndex jar : jars) {
+                ClassFileIndex entries = new ClassFileIndex();
+                try {
+                    for (String name : jar.getNames()) {
+                        if (name.endsWith(CONST.CLASS_SUFFIX) == true) {
+                            index_add(entries, jar.getBytes(name));
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.error(e.toString());
+                }
+                index.merge(entries);
+            }
+            if (table != null) {
+                final ClassFileIndex rows = new ClassFileIndex();
+                select("SELECT " + class_code + " FROM " + table, rs -> {
+                    do {
+                        index_add(rows, rs.getBytes(1));
+                    } while (rs.next() == true);
+                    return true;
+                });
+                index.merge(rows);
+            }
+            index.setRevision(current);
+            if (file != null && current >= 0) {
+                try {
+                    index.save(file);
+                } catch (IOException e) {
+                    logger.error("Class index " + file + " not written: " + e.toString());
+                }
+            }
+            logger.debug("Class index of " + table + " built, classes = " + index.size());
+            classIndex = index;
+            return index;
+        }
+    }
+
+    private static void index_add(ClassFileIndex index, byte[] code) {
+        if (code == null) {
+            return;
+        }
+        try {
+            index.add(code);
+        } catch (ClassFormatError e) {
+            logger.error(e.toString());
+        }
+    }
+
+    private void stop_reconciler() {
+        synchronized (lock) {
+            if (reconciler != null) {
+                reconciler.interrupt();
+                reconciler = null;
+            }
+        }
+    }
+
+    /**
+     Drop the classes changed in the class table since the revision of the
+     snapshot and the classes deleted from it. The DB is tried again with an
+     increasing delay until it is reachable.
+     */
+    private void reconcile(JdbcSnapshot current) {
+        long delay = 1000;
+        while (Thread.currentThread().isInterrupted() == false) {
+            Boolean hasRevision = has_revision();
+            if (hasRevision != null && hasRevision == false) {
+                // legacy table, the snapshot is served as is and not written
+                return;
+            }
+            final long from = current.getRevision();
+            Long to = (hasRevision == null) ? null : select("SELECT MAX(" + revision + ") FROM " + table, rs -> rs.getLong(1));
+            if (to != null && to < from) {
+                logger.info("Snapshot revision " + from + " is newer than the table revision " + to + ", snapshot dropped.");
+                current.clear(to);
+            } else if (to != null && to > from) {
+                final List<String> changed = new ArrayList<>();
+                String SQL = "SELECT " + package_name + ", " + class_name + " FROM " + table + " WHERE " + revision + " > " + from + " AND " + revision + " <= " + to;
+                select(SQL, rs -> {
+                    do {
+                        changed.add(file_name(rs.getString(1), rs.getString(2)));
+                    } while (rs.next() == true);
+                    return true;
+                });
+                // no row is not an error, the changed classes may be deleted
+                logger.debug("Snapshot reconciled from revision " + from + " to " + to + ", " + changed.size() + " classes dropped.");
+                current.update(changed, to);
+            }
+            if (to != null) {
+                // the deleted rows have no revision, the snapshot is rewritten from the full key set
+                final Set<String> names = new HashSet<>();
+                String SQL = "SELECT " + package_name + ", " + class_name + " FROM " + table + " WHERE " + class_code + " IS NOT NULL";
+                Boolean ok = select(SQL, rs -> {
+                    do {
+                        names.add(file_name(rs.getString(1), rs.getString(2)));
+                    } while (rs.next() == true);
+                    return true;
+                }, true);
+                if (ok != null) {
+                    int dropped = current.retain(names);
+                    if (dropped > 0) {
+                        logger.debug("Snapshot reconciled with the keys of " + table + ", " + dropped + " deleted classes dropped.");
+                    }
+                }
+                try {
+                    current.save();
+                } catch (IOException e) {
+                    logger.error(e.toString());
+                }
+                return;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+            delay = Math.min(delay * 2, 60000);
+        }
+    }
+
+    /**
+     Add the listener of the classes changed in the class table.
+     @param listener listener called by {@link #poll()}
+     */
+    public void addClassChangeListener(ClassChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     Remove the listener of the classes changed in the class table.
+     @param listener listener added by addClassChangeListener
+     */
+    public void removeClassChangeListener(ClassChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     Set the last seen revision, the next poll reports the classes with a
+     higher revision. By default the first poll only reads the current
+     revision.
+     @param revision revision (ex.: the one returned by
+     {@link JdbcPublisher#publish()})
+     */
+    public void setRevision(long revision) {
+        this.revisionSeen = revision;
+    }
+
+    /**
+     @return last revision seen by poll, -1 before the first poll
+     */
+    public long getRevision() {
+        return revisionSeen;
+    }
+
+    /**
+     Start polling the class table by a daemon thread. See {@link #poll()}.
+     The polling is not started if the class table has no revision column.
+     @param periodMillis delay between two polls in milliseconds
+     */
+    public void startPolling(long periodMillis) {
+        synchronized (lock) {
+            if (poller != null) {
+                return;
+            }
+            Boolean hasRevision = has_revision();
+            if (hasRevision != null && hasRevision == false) {
+                return;
+            }
+            if (revisionSeen < 0) {
+                poll();
+            }
+            poller = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "JdbcClassLoader-poller-" + table);
+                t.setDaemon(true);
+                return t;
+            });
+            poller.scheduleWithFixedDelay(() -> {
+                try {
+                    poll();
+                } catch (RuntimeException e) {
+                    logger.error(e.toString());
+                }
+            }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     Stop polling the class table.
+     */
+    public void stopPolling() {
+        synchronized (lock) {
+            if (poller != null) {
+                poller.shutdownNow();
+                poller = null;
+            }
+        }
+    }
+
+    /**
+     Read the classes of the class table changed since the last poll (with a
+     higher revision column, see {@link JdbcPublisher}). The key index is
+     updated for the changed classes only and the listeners are notified.
+     <p>
+     The first poll only reads the current revision, unless it is set by
+     {@link #setRevision(long)}.
+     <p>
+     A deleted row is not seen, it has no revision. A class is removed by a
+     tombstone: the row is kept with class_code NULL and a new revision (see
+     {@link JdbcPublisher#removeClass(String, String)}), the poll drops it from
+     the key index and the snapshot and the class is not found any more.
+     <p>
+     The class table without the revision column is detected by the first
+     poll, it is reported by one warning and the poll does nothing then.
+     @return the changed classes, null if there is no change or the query
+     failed
+     */
+    public ClassChangeEvent poll() {
+        if (table == null) {
+            return null;
+        }
+        Boolean hasRevision = has_revision();
+        if (hasRevision == null || hasRevision == false) {
+            return null;
+        }
+        final long from = revisionSeen;
+        if (from < 0) {
+            Long current = select("SELECT MAX(" + revision + ") FROM " + table, rs -> rs.getLong(1));
+            if (current != null) {
+                revisionSeen = current;
+            }
+            return null;
+        }
+
+        final Map<String, Long> changed = new HashMap<>();
+        final Set<String> packages = new TreeSet<>();
+        final Set<String> classes = new TreeSet<>();
+        String SQL = "SELECT " + package_name + ", " + class_name + ", OCTET_LENGTH(" + class_code + "), " + revision + " FROM " + table + " WHERE " + revision + " > " + from;
+        Long to = select(SQL, rs -> {
+            long max = from;
+            do {
+                String packageName = rs.getString(1);
+                String className = rs.getString(2);
+                long len = rs.getLong(3);
+                changed.put(file_name(packageName, className), rs.wasNull() == true ? null : len);
+                max = Math.max(max, rs.getLong(4));
+                packageName = (packageName == null) ? CONST.EMPTY : packageName;
+                packages.add(packageName);
+                classes.add(packageName.isEmpty() == true ? className : packageName + CONST.DOT + className);
+            } while (rs.next() == true);
+            return max;
+        });
+        if (to == null) {
+            return null;
+        }
+        revisionSeen = to;
+
+        invalidate(changed, from, to);
+
+        ClassChangeEvent event = new ClassChangeEvent(this, from, to, packages, classes);
+        logger.debug(event.toString());
+        for (ClassChangeListener listener : listeners) {
+            try {
+                listener.classesChanged(event);
+            } catch (RuntimeException e) {
+                logger.error(e.toString());
+            }
+        }
+        return event;
+    }
+
+    /**
+     @return true if the class table has the revision column, null if the DB
+     is not reachable. A missing column is detected once and reported by one
+     warning.
+     */
+    private Boolean has_revision() {
+        Boolean has = revisionColumn;
+        if (has != null) {
+            return has;
+        }
+        String SQL = "SELECT " + revision + " FROM " + table + " WHERE 1 = 0";
+        logger.debug(SQL);
+        Connection conn;
+        try {
+            conn = cpds.getConnection();
+        } catch (SQLException e) {
+            logger.error(e.toString());
+            return null;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeQuery(SQL).close();
+            has = true;
+        } catch (SQLException e) {
+            has = false;
+        } finally {
+            try {
+                conn.close();
+            } catch (SQLException ex) {
+                logger.error(ex.toString());
+            }
+        }
+        synchronized (lock) {
+            if (revisionColumn == null) {
+                revisionColumn = has;
+                if (has == false) {
+                    logger.warn("Table " + table + " has no " + revision + " column, polling and snapshot reconciliation are disabled.");
+                }
+            }
+            return revisionColumn;
+        }
+    }
+
+    /**
+     Update the local caches for the changed classes.
+     @param changed URL file names of the changed classes and the length of
+     their class code (null if there is no class code)
+     @param from revision before the change
+     @param to revision after the change
+     */
+    private void invalidate(Map<String, Long> changed, long from, long to) {
+        classIndex = null;
+        JdbcSnapshot current = snapshot;
+        if (current != null && current.getRevision() == from) {
+            current.update(changed.keySet(), to);
+        }
+
+        Map<String, Long> index = keyIndex;
+        if (index == null) {
+            return;
+        }
+        for (Map.Entry<String, Long> item : changed.entrySet()) {
+            if (item.getValue() == null) {
+                index.remove(item.getKey());
+            } else {
+                index.put(item.getKey(), item.getValue());
+            }
+        }
+    }
+
+    /**
+     @return indexes of the jars of the jar table, fetched on the first call
+     */
+    private List<JarIndex> jars() {
+        if (jarTable == null) {
+            return Collections.emptyList();
+        }
+        List<JarIndex> indexes = jarIndexes;
+        if (indexes != null) {
+            return indexes;
+        }
+        synchronized (lock) {
+            if (jarIndexes != null) {
+                return jarIndexes;
+            }
+            jarChecksum = -1;
+            final List<JarIndex> jars = new ArrayList<>();
+            final CRC32 checksum = new CRC32();
+            String SQL = "SELECT " + jar_name + ", " + jar_code + " FROM " + jarTable + " ORDER BY " + jar_name;
+            Boolean ok = select(SQL, rs -> {
+                do {
+                    String name = rs.getString(1);
+                    byte[] code = rs.getBytes(2);
+                    if (code == null) {
+                        continue;
+                    }
+                    checksum.update(name.getBytes(StandardCharsets.UTF_8));
+                    checksum.update(code);
+                    try {
+                        jars.add(new JarIndex(jarTable + CONST.baseURI + name, ByteBuffer.wrap(code)));
+                    } catch (IOException e) {
+                        logger.error(e.toString());
+                    }
+                } while (rs.next() == true);
+                return true;
+            });
+            if (ok == null) {
+                // query failed or empty table, try again on the next lookup
+                return Collections.emptyList();
+            }
+            jarChecksum = checksum.getValue();
+            jarIndexes = Collections.unmodifiableList(jars);
+            return jarIndexes;
+        }
+    }
+
+    /**
+     @return classes compiled from the source table by URL file name, the
+     sources are fetched and compiled on the first call. The compilation runs
+     outside the lock, concurrent callers wait for the same compilation.
+     */
+    private Map<String, byte[]> sources() {
+        if (sourceTable == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, byte[]> compiled = sourceClasses;
+        if (compiled != null) {
+            return compiled;
+        }
+        FutureTask<Map<String, byte[]>> task;
+        boolean owner = false;
+        synchronized (lock) {
+            if (sourceClasses != null) {
+                return sourceClasses;
+            }
+            task = sourceTask;
+            if (task == null) {
+                final long generation = sourceGeneration;
+                task = new FutureTask<>(() -> compile_sources(generation));
+                sourceTask = task;
+                owner = true;
+            }
+        }
+        if (owner == true) {
+            try {
+                task.run();
+            } finally {
+                synchronized (lock) {
+                    if (sourceTask == task) {
+                        sourceTask = null;
+                    }
+                }
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyMap();
+        } catch (ExecutionException e) {
+            logger.error("Sources of " + sourceTable + " not compiled: " + e.getCause());
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     Fetch and compile the sources, the result is cached unless the sources
+     have been dropped since the generation.
+     */
+    private Map<String, byte[]> compile_sources(long generation) {
+        final Map<String, String> sources = new HashMap<>();
+        String SQL = "SELECT " + package_name + ", " + class_name + ", " + class_source + " FROM " + sourceTable;
+        Boolean ok = select(SQL, rs -> {
+            do {
+                String packageName = rs.getString(1);
+                String name = (packageName == null || packageName.isEmpty() == true) ? rs.getString(2) : packageName + CONST.DOT + rs.getString(2);
+                String source = rs.getString(3);
+                if (source != null) {
+                    sources.put(name, source);
+                }
+            } while (rs.next() == true);
+            return true;
+        }, false);
+        if (ok == null) {
+            // query failed, try again on the next lookup
+            return Collections.emptyMap();
+        }
+        Map<String, byte[]> compiled = new HashMap<>();
+        if (sources.isEmpty() == false) {
+            try {
+                for (Map.Entry<String, byte[]> item : JavaRTCompiler.compile(sources, sourceLib).entrySet()) {
+                    compiled.put(class_file_name(item.getKey()), item.getValue());
+                }
+                logger.debug("Compiled " + sources.size() + " sources of " + sourceTable + ", classes = " + compiled.size());
+            } catch (IOException e) {
+                // not compiled again until the sources change
+                logger.error("Sources of " + sourceTable + " not compiled: " + e.getMessage());
+            }
+        }
+        compiled = Collections.unmodifiableMap(compiled);
+        synchronized (lock) {
+            if (sourceGeneration == generation) {
+                sourceClasses = compiled;
+            }
+        }
+        return compiled;
+    }
+
+    private void invalidate_sources() {
+        synchronized (lock) {
+            sourceClasses = null;
+            sourceTask = null;
+            sourceGeneration++;
+        }
+    }
+
+    /**
+     @return URL file name of the class (ex.: /cz/b2b/jcl/RAM/resource/Test.class)
+     */
+    private static String class_file_name(String binaryName) {
+        return CONST.baseURI + binaryName.replace(CONST.DOT, CONST.baseURI) + CONST.CLASS_SUFFIX;
+    }
+
+    /**
+     @return URL file name of the class (ex.: /cz/b2b/jcl/RAM/resource/Test.class)
+     */
+    private static String file_name(String packageName, String className) {
+        String name = CONST.baseURI;
+        if (packageName != null && packageName.isEmpty() == false) {
+            name += packageName.replace(CONST.DOT, CONST.baseURI) + CONST.baseURI;
+        }
+        return name + className + CONST.CLASS_SUFFIX;
+    }
+
+    private static String escape(String in) {
+        if (in == null) {
+            return in;
+        }
+
+        return in.replace("'", "''").replace("\\", "\\\\");
+
+    }
+
+    /**
+     Reads one row of the result set.
+     */
+    private interface RowReader<T> {
+
+        T read(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     Execute the query and read its first row.
+
+     @return the value read from the first row, null if there is no row or the
+     query failed
+     */
+    private <T> T select(String SQL, RowReader<T> reader) {
+        return select(SQL, reader, null);
+    }
+
+    /**
+     Execute the query and read its first row.
+
+     @param empty the result if there is no row
+     @return the value read from the first row, empty if there is no row, null
+     if the query failed
+     */
+    private <T> T select(String SQL, RowReader<T> reader, T empty) {
+        T result = null;
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        logger.debug(SQL);
+
+        try {
+            Object event = JclEvents.beginPoolCheckout();
+            conn = cpds.getConnection();
+            JclEvents.endPoolCheckout(event, cpds.getJdbcUrl());
+            stmt = conn.createStatement();
+            rs = stmt.executeQuery(SQL);
+            result = (rs.next() == true) ? reader.read(rs) : empty;
+
+        } catch (Exception e) {
+            logger.error(e.toString());
+        } finally {
+            try {
+                if (rs != null) {
+                    rs.close();
+                }
+                if (stmt != null) {
+                    stmt.close();
+                }
+                if (conn != null) {
+                    conn.close();
+                }
+            } catch (SQLException ex) {
+                logger.error(ex.toString());
+            }
+
+        }
+
+        return result;
+    }
+
     /**
      Special JDBC stream protocol handler knows how to make a connection for the
      protocol type x-db-jdbc.
@@ -222,77 +1396,250 @@ public class JdbcClassLoader extends URLClassLoader {
 
     }
 
+    /**
+     Connection to one class code of the DB table or one entry of the jar
+     table.
+     <p>
+     Opening the stream only checks that the class exists (OCTET_LENGTH() of the
+     class code, or the in-memory key index, see {@link #setKeyIndex(boolean)}).
+     The class code is fetched when the stream is actually read, so existence
+     probes of URLClassLoader do not download the blob.
+     */
     private class JdbcURLConnection extends URLConnection {
 
+        private Map cols = null;
+        private long length = -1;
+        private JarIndex jar = null;
+        private byte[] data = null;
+        private long snapshotRevision = -1;
+        /**
+         The transformer of the class code, its length is not known before
+         the transformation.
+         */
+        private TransformerChain chain = null;
+
         public JdbcURLConnection(URL url) {
             super(url);
         }
 
         @Override
         public void connect() throws IOException {
+            if (connected == true) {
+                return;
+            }
+            String query = url.getQuery();
+            if (query != null && query.startsWith(JAR_QUERY) == true) {
+                jar = jar_at(query.substring(JAR_QUERY.length()));
+                length = (jar == null) ? -1 : jar.getSize(entry_name(url.getPath()));
+                if (length < 0) {
+                    throw new FileNotFoundException(url.getFile());
+                }
+                connected = true;
+                return;
+            }
+            if (url.getPath().endsWith(CONST.baseURI) == true) {
+                // directory URL
+                String directory = entry_name(url.getPath());
+                List<String> names = listResources(directory);
+                if (names.isEmpty() == true) {
+                    throw new FileNotFoundException(url.getPath());
+                }
+                data = ResourceListing.directoryListing(directory, names);
+                length = data.length;
+                connected = true;
+                return;
+            }
+
+            if (url.getPath().endsWith(CONST.CLASS_SUFFIX) == true) {
+                chain = transformer;
+            }
+            data = prefetched.remove(url.getPath());
+            if (data != null) {
+                length = data.length;
+                connected = true;
+                return;
+            }
+
+            JdbcSnapshot current = snapshot();
+            if (current != null) {
+                data = current.get(url.getPath());
+                if (data != null) {
+                    length = data.length;
+                    connected = true;
+                    return;
+                }
+                snapshotRevision = current.getRevision();
+            }
+
+            String entry = entry_name(url.getPath());
+            for (JarIndex index : jars()) {
+                long size = index.getSize(entry);
+                if (size >= 0) {
+                    jar = index;
+                    length = size;
+                    connected = true;
+                    return;
+                }
+            }
+
+            cols = parseURL(url);
+            length = class_length(cols);
+            if (length < 0) {
+                data = sources().get(url.getPath());
+                if (data == null) {
+                    throw new FileNotFoundException(url.getPath());
+                }
+                length = data.length;
+            }
+            connected = true;
         }
 
         @Override
         public InputStream getInputStream() throws IOException {
-            Map cols = parseURL(url);
+            connect();
 
-            final byte[] data = class_code(cols);
-            if (data == null) {
-                throw new FileNotFoundException(url.getFile());
-            }
+            return new InputStream() {
+                private InputStream in = null;
+
+                private InputStream in() throws IOException {
+                    if (in == null) {
+                        in = new ByteArrayInputStream(data());
+                    }
+                    return in;
+                }
+
+                @Override
+                public int read() throws IOException {
+                    return in().read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return in().read(b, off, len);
+                }
 
-            return new ByteArrayInputStream(data);
+                @Override
+                public long skip(long n) throws IOException {
+                    return in().skip(n);
+                }
+
+                @Override
+                public int available() throws IOException {
+                    return in().available();
+                }
+            };
         }
 
-        private byte[] class_code(Map cols) {
-            byte[] class_code = null;
-            Connection conn = null;
-            Statement stmt = null;
-            ResultSet rs = null;
-            if (cols == null || cols.isEmpty() == true) {
-                return class_code;
+        /**
+         @return read-only view of the fetched code, an entry of the jar table
+         is a view of the fetched jar if it is stored uncompressed
+         */
+        private ByteBuffer getBuffer() throws IOException {
+            connect();
+            if (data == null && jar != null && chain == null) {
+                ByteBuffer buffer = jar.getBuffer(entry_name(url.getPath()));
+                if (buffer == null) {
+                    throw new FileNotFoundException(url.getPath());
+                }
+                return buffer;
             }
+            return ByteBuffer.wrap(data()).asReadOnlyBuffer();
+        }
 
-            String SQL = "SELECT " + JdbcClassLoader.class_code + " FROM " + table + " WHERE " + class_name + " ='" + escape((String) cols.get(class_name)) + "' AND package_name='" + escape((String) cols.get(package_name)) + "'";
-            logger.debug(SQL);
+        /**
+         @return the code, fetched and transformed on the first call
+         */
+        private byte[] data() throws IOException {
+            if (data == null) {
+                data = (jar != null) ? jar.getBytes(entry_name(url.getPath())) : class_code(cols);
+            }
+            if (data == null) {
+                throw new FileNotFoundException(url.getPath());
+            }
+            if (chain != null) {
+                String entry = entry_name(url.getPath());
+                data = chain.apply(entry.substring(0, entry.length() - CONST.CLASS_SUFFIX.length()).replace(CONST.baseURI, CONST.DOT), data);
+                chain = null;
+            }
+            return data;
+        }
 
+        @Override
+        public long getContentLengthLong() {
             try {
-                conn = cpds.getConnection();
-                stmt = conn.createStatement();
-                rs = stmt.executeQuery(SQL);
-                if (rs.next() == true) {
-                    class_code = rs.getBytes(JdbcClassLoader.class_code);
-                }
+                connect();
+            } catch (IOException e) {
+                return -1;
+            }
+            return (chain != null) ? -1 : length;
+        }
 
-            } catch (Exception e) {
-                logger.error(e.toString());
-            } finally {
-                try {
-                    if (rs != null) {
-                        rs.close();
-                    }
-                    if (stmt != null) {
-                        stmt.close();
-                    }
-                    if (conn != null) {
-                        conn.close();
-                    }
-                } catch (SQLException ex) {
-                    logger.error(ex.toString());
-                }
+        @Override
+        public int getContentLength() {
+            long len = getContentLengthLong();
+            return (len > Integer.MAX_VALUE) ? -1 : (int) len;
+        }
 
+        /**
+         @return length of the class code, -1 if the class does not exist
+         */
+        private long class_length(Map cols) {
+            if (table == null || cols == null || cols.isEmpty() == true) {
+                return -1;
+            }
+            // the class table holds classes only
+            if (url.getPath().endsWith(CONST.CLASS_SUFFIX) == false) {
+                return -1;
+            }
+            Map<String, Long> index = keyIndex();
+            if (index != null) {
+                Long len = index.get(url.getPath());
+                return (len == null) ? -1 : len;
             }
 
-            return class_code;
+            String SQL = "SELECT OCTET_LENGTH(" + JdbcClassLoader.class_code + ") FROM " + table + " WHERE " + class_name + " ='" + escape((String) cols.get(class_name)) + "' AND package_name='" + escape((String) cols.get(package_name)) + "'";
+            Long len = select(SQL, rs -> {
+                long l = rs.getLong(1);
+                return (rs.wasNull() == true) ? null : l;
+            });
+            return (len == null) ? -1 : len;
         }
 
-        private String escape(String in) {
-            if (in == null) {
-                return in;
+        private byte[] class_code(Map cols) {
+            if (cols == null || cols.isEmpty() == true) {
+                return null;
             }
 
-            return in.replace("'", "''").replace("\\", "\\\\");
+            String SQL = "SELECT " + JdbcClassLoader.class_code + " FROM " + table + " WHERE " + class_name + " ='" + escape((String) cols.get(class_name)) + "' AND package_name='" + escape((String) cols.get(package_name)) + "'";
+            Object event = JclEvents.beginJdbcFetch();
+            byte[] code = select(SQL, rs -> rs.getBytes(JdbcClassLoader.class_code));
+            JclEvents.endJdbcFetch(event, table, url.getPath(), (code == null) ? 0 : code.length);
+            JdbcSnapshot current = snapshot;
+            if (code != null && current != null) {
+                current.put(url.getPath(), code, snapshotRevision);
+            }
+            return code;
+        }
+
+        /**
+         @return the jar of the jar table at the given position, null if there
+         is none
+         */
+        private JarIndex jar_at(String position) {
+            List<JarIndex> indexes = jars();
+            try {
+                int i = Integer.parseInt(position);
+                return (i >= 0 && i < indexes.size()) ? indexes.get(i) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
 
+        private String entry_name(String file_name) {
+            if (file_name.startsWith(CONST.baseURI) == true) {
+                return file_name.substring(CONST.baseURI.length());
+            }
+            return file_name;
         }
 
         private Map parseURL(URL url) {
@@ -300,7 +1647,7 @@ public class JdbcClassLoader extends URLClassLoader {
             if (url == null) {
                 return jdbcURI;
             }
-            String class_file_name = url.getFile();
+            String class_file_name = url.getPath();
             if (class_file_name == null) {
                 return jdbcURI;
             }
@@ -0,0 +1,392 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.DB;
+
+import java.io.*;
+import java.util.*;
+import java.sql.*;
+import org.slf4j.*;
+import cz.b2b.jcl.util.CONST;
+import cz.b2b.jcl.util.JarIndex;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static cz.b2b.jcl.DB.JdbcClassLoader.*;
+
+/**
+ The JdbcPublisher class publishes classes from jar files and class
+ directories into the table read by {@link JdbcClassLoader}.
+ <p>
+ All classes are written in one transaction: the class code of new classes is
+ inserted, the class code of changed classes is updated and classes with the
+ same SHA-256 hash (class_hash) as in the table are skipped. The written rows
+ get the new revision, which is finally stamped into the version table
+ (table_version). Running class loaders never see a half-written table, the
+ tables must be transactional (ex.: InnoDB).
+ <p>
+ Classes missing in the published set are not deleted. A class is removed by
+ {@link #removeClass(String, String)}: its row is kept as a tombstone with
+ class_code NULL and the new revision, so the polling class loaders see the
+ removal (a deleted row has no revision to be polled by).
+ <p>
+ Example of usage:
+ <pre>
+ JdbcPublisher publisher = new JdbcPublisher();
+ publisher.setConnection("org.mariadb.jdbc.Driver", "jdbc:mariadb://127.0.0.1:3306/test", "jcl_db_jdbc", "root", "root");
+ publisher.addJAR("/tmp/Test3.jar");
+ publisher.addDir("/tmp/classes");
+ long revision = publisher.publish();
+ </pre>
+ Command line:
+ <pre>
+ java cz.b2b.jcl.DB.JdbcPublisher driver dbUrl table username password (jar|directory)...
+ </pre>
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public class JdbcPublisher {
+
+    private final static Logger logger = LoggerFactory.getLogger(JdbcPublisher.class);
+    private final static String HASH_ALGORITHM = "SHA-256";
+    private final static String MODULE_INFO = "module-info" + CONST.CLASS_SUFFIX;
+
+    private String driver = null;
+    private String dbUrl = null;
+    private String table = null;
+    private String username = null;
+    private String password = null;
+    private int batchSize = 500;
+
+    /**
+     Classes to publish, key is package name and class name separated by DOT.
+     */
+    private final Map<String, byte[]> classes = new LinkedHashMap<>();
+    /**
+     Classes to remove, key is package name and class name separated by DOT.
+     */
+    private final Set<String> removed = new LinkedHashSet<>();
+
+    /**
+     Set full connection to DB.
+     @param driver JDBC driver (ex.: org.mariadb.jdbc.Driver)
+     @param dbUrl url connection (ex.: jdbc:mariadb://127.0.0.1:3306/test)
+     @param table table name (ex.: jcl_db_jdbc)
+     @param username login name to DB (ex.: root)
+     @param password password to DB (ex.: root)
+     */
+    public void setConnection(String driver, String dbUrl, String table, String username, String password) {
+        this.driver = driver;
+        this.dbUrl = dbUrl;
+        this.table = table;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     Set the number of rows sent in one JDBC batch.
+     @param batchSize rows in one batch (default 500)
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     Add all classes of the jar file. Multi-release and fat jars are resolved
+     as by CacheClassLoader (see {@link JarIndex}).
+     @param jar jar file (ex.: /tmp/test.jar)
+     @throws IOException
+     */
+    public void addJAR(String jar) throws IOException {
+        if (jar == null) {
+            throw new FileNotFoundException("Jar file is empty.");
+        }
+        JarIndex index = JarIndex.open(new File(jar));
+        for (String name : index.getNames()) {
+            if (name.endsWith(CONST.CLASS_SUFFIX) == false || name.endsWith(MODULE_INFO) == true) {
+                continue;
+            }
+            add(name, index.getBytes(name));
+        }
+    }
+
+    /**
+     Add all classes of the class directory (root of the packages). The
+     directory is crawled recursively.
+     @param directory class directory (ex.: /tmp/classes)
+     @throws IOException
+     */
+    public void addDir(String directory) throws IOException {
+        if (directory == null) {
+            throw new FileNotFoundException("Directory name is empty.");
+        }
+        addDir(new File(directory), CONST.EMPTY);
+    }
+
+    /**
+     Add class byte code.
+     @param packageName Package name of the class (ex.: cz.b2b.jcl.RAM.resource)
+     @param className Class name (ex.: Test)
+     @param code byte code of the class
+     */
+    public void addClass(String packageName, String className, byte[] code) {
+        classes.put(packageName + CONST.DOT + className, code);
+    }
+
+    /**
+     Remove the class by the next publish. The row is kept as a tombstone
+     (class_code NULL) with the new revision.
+     @param packageName Package name of the class (ex.: cz.b2b.jcl.RAM.resource)
+     @param className Class name (ex.: Test)
+     */
+    public void removeClass(String packageName, String className) {
+        String key = packageName + CONST.DOT + className;
+        classes.remove(key);
+        removed.add(key);
+    }
+
+    /**
+     @return number of classes to publish
+     */
+    public int size() {
+        return classes.size();
+    }
+
+    /**
+     Publish all added classes in one transaction.
+     @return the published revision, or the current revision if no class has
+     changed
+     @throws SQLException Thrown when the transaction fails, nothing is
+     published then
+     @throws ClassNotFoundException Thrown when JDBC driver class not found
+     */
+    public long publish() throws SQLException, ClassNotFoundException {
+        if (table == null) {
+            throw new SQLException("Table name is empty.");
+        }
+        if (driver != null) {
+            Class.forName(driver);
+        }
+        String versionTable = table + version_suffix;
+
+        Connection conn = null;
+        try {
+            conn = DriverManager.getConnection(dbUrl, username, password);
+            conn.setAutoCommit(false);
+
+            Map<String, String> hashes = new HashMap<>();
+            // rows without class_code, a row written before class_hash has NULL hash but a code
+            Set<String> tombstones = new HashSet<>();
+            long current = 0;
+            try (Statement stmt = conn.createStatement()) {
+                String SQL = "SELECT " + package_name + ", " + class_name + ", " + class_hash + ", CASE WHEN " + class_code + " IS NULL THEN 1 ELSE 0 END FROM " + table;
+                logger.debug(SQL);
+                try (ResultSet rs = stmt.executeQuery(SQL)) {
+                    while (rs.next() == true) {
+                        String key = rs.getString(1) + CONST.DOT + rs.getString(2);
+                        hashes.put(key, rs.getString(3));
+                        if (rs.getInt(4) == 1) {
+                            tombstones.add(key);
+                        }
+                    }
+                }
+                SQL = "SELECT MAX(" + revision + ") FROM " + versionTable;
+                logger.debug(SQL);
+                try (ResultSet rs = stmt.executeQuery(SQL)) {
+                    if (rs.next() == true) {
+                        current = rs.getLong(1);
+                    }
+                }
+            }
+            long next = current + 1;
+
+            String insertSQL = "INSERT INTO " + table + " (" + package_name + ", " + class_name + ", " + class_code + ", " + class_hash + ", " + revision + ") VALUES (?, ?, ?, ?, ?)";
+            String updateSQL = "UPDATE " + table + " SET " + class_code + " = ?, " + class_hash + " = ?, " + revision + " = ? WHERE " + package_name + " = ? AND " + class_name + " = ?";
+            int inserted = 0;
+            int updated = 0;
+            try (PreparedStatement insert = conn.prepareStatement(insertSQL);
+                    PreparedStatement update = conn.prepareStatement(updateSQL)) {
+                for (Map.Entry<String, byte[]> item : classes.entrySet()) {
+                    String key = item.getKey();
+                    byte[] code = item.getValue();
+                    String hash = hash(code);
+                    int dot = key.lastIndexOf(CONST.DOT);
+                    String packageName = key.substring(0, dot);
+                    String className = key.substring(dot + 1);
+
+                    if (hashes.containsKey(key) == false) {
+                        insert.setString(1, packageName);
+                        insert.setString(2, className);
+                        insert.setBytes(3, code);
+                        insert.setString(4, hash);
+                        insert.setLong(5, next);
+                        insert.addBatch();
+                        if (++inserted % batchSize == 0) {
+                            insert.executeBatch();
+                        }
+                    } else if (hash.equals(hashes.get(key)) == false) {
+                        update.setBytes(1, code);
+                        update.setString(2, hash);
+                        update.setLong(3, next);
+                        update.setString(4, packageName);
+                        update.setString(5, className);
+                        update.addBatch();
+                        if (++updated % batchSize == 0) {
+                            update.executeBatch();
+                        }
+                    }
+                }
+                if (inserted % batchSize != 0) {
+                    insert.executeBatch();
+                }
+                if (updated % batchSize != 0) {
+                    update.executeBatch();
+                }
+            }
+
+            int deleted = 0;
+            String deleteSQL = "UPDATE " + table + " SET " + class_code + " = NULL, " + class_hash + " = NULL, " + revision + " = ? WHERE " + package_name + " = ? AND " + class_name + " = ?";
+            try (PreparedStatement delete = conn.prepareStatement(deleteSQL)) {
+                for (String key : removed) {
+                    // missing row or tombstone already
+                    if (hashes.containsKey(key) == false || tombstones.contains(key) == true) {
+                        continue;
+                    }
+                    int dot = key.lastIndexOf(CONST.DOT);
+                    delete.setLong(1, next);
+                    delete.setString(2, key.substring(0, dot));
+                    delete.setString(3, key.substring(dot + 1));
+                    delete.addBatch();
+                    if (++deleted % batchSize == 0) {
+                        delete.executeBatch();
+                    }
+                }
+                if (deleted % batchSize != 0) {
+                    delete.executeBatch();
+                }
+            }
+
+            if (inserted + updated + deleted == 0) {
+                logger.debug("No class changed, revision " + current + " kept.");
+                conn.rollback();
+                return current;
+            }
+
+            String versionSQL = "INSERT INTO " + versionTable + " (" + revision + ", published, classes) VALUES (?, ?, ?)";
+            try (PreparedStatement version = conn.prepareStatement(versionSQL)) {
+                version.setLong(1, next);
+                version.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+                version.setInt(3, inserted + updated + deleted);
+                version.executeUpdate();
+            }
+            conn.commit();
+            logger.info("Published revision " + next + " to " + table + ": " + inserted + " inserted, " + updated + " updated, " + deleted + " removed, " + (classes.size() - inserted - updated) + " unchanged.");
+            return next;
+        } catch (SQLException e) {
+            if (conn != null) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ex) {
+                    logger.error(ex.toString());
+                }
+            }
+            throw e;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException ex) {
+                    logger.error(ex.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     Publish jar files and class directories.
+     <pre>
+     java cz.b2b.jcl.DB.JdbcPublisher driver dbUrl table username password (jar|directory)...
+     </pre>
+     @param args driver, dbUrl, table, username, password and the jar files or
+     class directories
+     @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 6) {
+            System.err.println("Usage: java " + JdbcPublisher.class.getName() + " driver dbUrl table username password (jar|directory)...");
+            System.exit(1);
+        }
+        JdbcPublisher publisher = new JdbcPublisher();
+        publisher.setConnection(args[0], args[1], args[2], args[3], args[4]);
+        for (int i = 5; i < args.length; i++) {
+            if (new File(args[i]).isDirectory() == true) {
+                publisher.addDir(args[i]);
+            } else {
+                publisher.addJAR(args[i]);
+            }
+        }
+        long published = publisher.publish();
+        System.out.println("revision = " + published + ", classes = " + publisher.size());
+    }
+
+    /**
+     @return SHA-256 of the code as hex string
+     */
+    static String hash(byte[] code) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = md.digest(code);
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private void add(String name, byte[] code) {
+        int slash = name.lastIndexOf(CONST.baseURI);
+        String packageName = (slash < 0) ? CONST.EMPTY : name.substring(0, slash).replace(CONST.baseURI, CONST.DOT);
+        String className = name.substring(slash + 1, name.length() - CONST.CLASS_SUFFIX.length());
+        addClass(packageName, className, code);
+    }
+
+    private void addDir(File directory, String prefix) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            logger.debug("Directory " + directory + " does not contain files.");
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory() == true) {
+                addDir(file, prefix + file.getName() + CONST.baseURI);
+                continue;
+            }
+            String name = prefix + file.getName();
+            if (name.endsWith(CONST.CLASS_SUFFIX) == false || name.endsWith(MODULE_INFO) == true) {
+                continue;
+            }
+            add(name, java.nio.file.Files.readAllBytes(file.toPath()));
+        }
+    }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.DB;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import org.slf4j.*;
+import cz.b2b.jcl.util.RadixTreeMap;
+
+/**
+ Local snapshot of the class code read from the DB.
+ <p>
+ The snapshot file starts with the header (magic, format version, revision of
+ the DB table, number of entries), followed by the index of the entries (name,
+ offset, length, CRC32 of the code), the CRC32 of the index and the code of
+ the entries. The index is checked when the file is read, each entry is
+ checked when it is used. The file is written to a temporary file and then
+ renamed, a crash never leaves a half-written snapshot.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+final class JdbcSnapshot {
+
+    private final static Logger logger = LoggerFactory.getLogger(JdbcSnapshot.class);
+    private final static int MAGIC = 0x4A434C53;
+    private final static int FORMAT = 1;
+
+    private final File file;
+    private final Map<String, Entry> entries = new RadixTreeMap<>();
+    private final Object saveLock = new Object();
+    private volatile long revision = -1;
+    private volatile boolean dirty = false;
+
+    private JdbcSnapshot(File file) {
+        this.file = file;
+    }
+
+    /**
+     Read the snapshot file. A missing or damaged file gives an empty snapshot
+     with revision -1.
+
+     @param file snapshot file
+     @return the snapshot
+     */
+    static JdbcSnapshot load(File file) {
+        JdbcSnapshot snapshot = new JdbcSnapshot(file);
+        if (file.isFile() == false) {
+            return snapshot;
+        }
+        try {
+            byte[] content = Files.readAllBytes(file.toPath());
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                throw new IOException("unknown format");
+            }
+            long revision = in.readLong();
+            int count = in.readInt();
+            if (revision < 0) {
+                throw new IOException("unknown revision");
+            }
+
+            int indexStart = 4 + 4 + 8 + 4;
+            Map<String, Entry> entries = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long offset = in.readLong();
+                int length = in.readInt();
+                long crc = in.readInt() & 0xFFFFFFFFL;
+                entries.put(name, new Entry(content, offset, length, crc));
+            }
+            int indexEnd = content.length - in.available();
+            CRC32 crc = new CRC32();
+            crc.update(content, indexStart, indexEnd - indexStart);
+            if ((in.readInt() & 0xFFFFFFFFL) != crc.getValue()) {
+                throw new IOException("index checksum mismatch");
+            }
+            long dataStart = indexEnd + 4;
+            for (Entry entry : entries.values()) {
+                entry.offset += dataStart;
+                if (entry.offset + entry.length > content.length) {
+                    throw new IOException("truncated file");
+                }
+            }
+            snapshot.entries.putAll(entries);
+            snapshot.revision = revision;
+            logger.debug("Snapshot " + file + " loaded, revision = " + revision + ", entries = " + count);
+        } catch (IOException e) {
+            logger.error("Snapshot " + file + " ignored: " + e.toString());
+        }
+        return snapshot;
+    }
+
+    /**
+     @param name URL file name of the class
+     @return the class code, null if it is not in the snapshot or is damaged
+     */
+    byte[] get(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        byte[] code = entry.code();
+        if (code == null) {
+            logger.error("Snapshot " + file + ": checksum mismatch of " + name);
+            entries.remove(name, entry);
+            dirty = true;
+        }
+        return code;
+    }
+
+    /**
+     Add the class code fetched from the DB.
+
+     @param name URL file name of the class
+     @param code class code
+     @param revision revision of the snapshot read before the code was fetched,
+     the code is not added if the snapshot has been reconciled since then
+     */
+    synchronized void put(String name, byte[] code, long revision) {
+        if (this.revision != revision || this.revision < 0) {
+            return;
+        }
+        entries.put(name, new Entry(code));
+        dirty = true;
+    }
+
+    /**
+     Drop the changed classes and move the snapshot to the new revision.
+
+     @param changed URL file names of the classes changed since the current
+     revision
+     @param revision new revision
+     */
+    synchronized void update(Collection<String> changed, long revision) {
+        for (String name : changed) {
+            entries.remove(name);
+        }
+        this.revision = revision;
+        dirty = true;
+    }
+
+    /**
+     Drop the classes which are not in the DB table any more (deleted rows and
+     tombstones).
+
+     @param names URL file names of all classes of the DB table
+     @return number of dropped classes
+     */
+    synchronized int retain(Set<String> names) {
+        int dropped = 0;
+        Iterator<String> it = entries.keySet().iterator();
+        while (it.hasNext() == true) {
+            if (names.contains(it.next()) == false) {
+                it.remove();
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            dirty = true;
+        }
+        return dropped;
+    }
+
+    /**
+     Drop all classes and move the snapshot to the new revision.
+
+     @param revision new revision
+     */
+    synchronized void clear(long revision) {
+        entries.clear();
+        this.revision = revision;
+        dirty = true;
+    }
+
+    /**
+     @return revision of the DB table the snapshot is consistent with, -1 if
+     unknown
+     */
+    long getRevision() {
+        return revision;
+    }
+
+    /**
+     @return number of classes in the snapshot
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     Write the snapshot file if it has changed since it was read or written.
+
+     @throws IOException Thrown when the file can not be written
+     */
+    void save() throws IOException {
+        synchronized (saveLock) {
+            write();
+        }
+    }
+
+    private void write() throws IOException {
+        List<String> names = new ArrayList<>();
+        List<byte[]> codes = new ArrayList<>();
+        long revision;
+        synchronized (this) {
+            if (dirty == false || this.revision < 0) {
+                // without the revision the snapshot can not be reconciled
+                return;
+            }
+            dirty = false;
+            revision = this.revision;
+            for (String name : entries.keySet()) {
+                byte[] code = get(name);
+                if (code != null) {
+                    names.add(name);
+                    codes.add(code);
+                }
+            }
+        }
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(index);
+        long offset = 0;
+        for (int i = 0; i < names.size(); i++) {
+            byte[] code = codes.get(i);
+            CRC32 crc = new CRC32();
+            crc.update(code);
+            out.writeUTF(names.get(i));
+            out.writeLong(offset);
+            out.writeInt(code.length);
+            out.writeInt((int) crc.getValue());
+            offset += code.length;
+        }
+        out.flush();
+        CRC32 indexCrc = new CRC32();
+        indexCrc.update(index.toByteArray());
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                data.writeInt(MAGIC);
+                data.writeInt(FORMAT);
+                data.writeLong(revision);
+                data.writeInt(names.size());
+                index.writeTo(data);
+                data.writeInt((int) indexCrc.getValue());
+                for (byte[] code : codes) {
+                    data.write(code);
+                }
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            dirty = true;
+            tmp.delete();
+            throw e;
+        }
+        logger.debug("Snapshot " + file + " saved, revision = " + revision + ", entries = " + names.size());
+    }
+
+    /**
+     Class code in the snapshot file content or fetched from the DB.
+     */
+    private static class Entry {
+
+        private final byte[] content;
+        private long offset;
+        private final int length;
+        private final long crc;
+
+        private Entry(byte[] content, long offset, int length, long crc) {
+            this.content = content;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+
+        private Entry(byte[] code) {
+            this(code, 0, code.length, -1);
+        }
+
+        /**
+         @return the code, null if the checksum does not match
+         */
+        private byte[] code() {
+            if (crc < 0) {
+                return content;
+            }
+            CRC32 check = new CRC32();
+            check.update(content, (int) offset, length);
+            if (check.getValue() != crc) {
+                return null;
+            }
+            return Arrays.copyOfRange(content, (int) offset, (int) offset + length);
+        }
+    }
+}
@@ -22,11 +22,33 @@ import java.net.*;
 import java.util.*;
 import java.util.jar.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import org.slf4j.*;
+import cz.b2b.jcl.util.AsyncLoading;
 import cz.b2b.jcl.util.CONST;
+import cz.b2b.jcl.util.ClassFileIndex;
+import cz.b2b.jcl.util.CompileScheduler;
 import cz.b2b.jcl.util.ConcurrentSoftHashMap;
+import cz.b2b.jcl.util.JarIndex;
+import cz.b2b.jcl.util.JarVerifier;
+import cz.b2b.jcl.util.JclEvents;
+import cz.b2b.jcl.util.RadixTreeMap;
+import cz.b2b.jcl.util.ResourceListing;
+import cz.b2b.jcl.util.SharedByteStore;
+import cz.b2b.jcl.util.TransformerChain;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.lang.ref.WeakReference;
 
 /**
  * The CacheClassLoader class implements a class loader that loads classes from
@@ -85,16 +107,102 @@ import java.util.concurrent.CopyOnWriteArrayList;
  *
  * @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
  */
-public class CacheClassLoader extends URLClassLoader {
+public class CacheClassLoader extends URLClassLoader implements ResourceListing {
+
+    /**
+     * Retention of the class code in the cache after the class is defined.
+     */
+    public enum Retention {
+        /**
+         * The code of all entries is kept for the life of the class loader
+         * (default).
+         */
+        KEEP_ALL,
+        /**
+         * The code of a class is dropped when the class is defined.
+         */
+        DROP_AFTER_DEFINE,
+        /**
+         * Only the resources are kept, the code of a class is cached just
+         * until the class is defined and the classes are not loaded by
+         * loadAllJar or the prefetch.
+         */
+        KEEP_ONLY_RESOURCES,
+        /**
+         * The code of a class is dropped the given number of seconds after the
+         * class is defined. The code is dropped by a shared daemon timer, also
+         * when the class loader is idle; the timer does not keep the class
+         * loader reachable.
+         */
+        KEEP_FOR_SECONDS
+    }
+
+    /**
+     * Verification of the signatures of signed jars.
+     */
+    public enum SignaturePolicy {
+        /**
+         * The entries of a signed jar are read sequentially with the signature
+         * verification on every lookup (default).
+         */
+        VERIFY_ON_READ,
+        /**
+         * All entries of a signed jar are verified once when the jar is added
+         * (see {@link JarVerifier}), the result is cached by the hash of the
+         * jar and the entries are read through the jar index without
+         * verification. A replaced jar is verified again.
+         */
+        VERIFY_ONCE
+    }
 
     private final static String protocol = "x-mem-cache";
+    /**
+     * Query of the URLs of an entry in the given jar (see findResources).
+     */
+    private final static String JAR_QUERY = "jar=";
     private static final Logger logger = LoggerFactory.getLogger(CacheClassLoader.class);
 
     private final Map<String, byte[]> CACHE;
+    /**
+     * Names of CACHE, the map itself or the map of its soft references.
+     */
+    private final RadixTreeMap<?> NAMES;
+    /**
+     * Loads in flight, concurrent misses for the same name wait for one load.
+     */
+    private final Map<String, FutureTask<byte[]>> LOADING = new ConcurrentHashMap<>();
     private URL cacheURL = null;
-    private final List<String> jars = new CopyOnWriteArrayList<>();
+    private final List<JarSource> jars = new CopyOnWriteArrayList<>();
 
     private boolean loadAllJar = false;
+    private int prefetchEntries = 0;
+    private long prefetchBytes = 0;
+    private final AtomicLong prefetchedBytes = new AtomicLong();
+    /**
+     * Sizes of the prefetched entries held in CACHE, counted by
+     * prefetchedBytes.
+     */
+    private final Map<String, Integer> PREFETCHED = new ConcurrentHashMap<>();
+    private volatile Retention retention = Retention.KEEP_ALL;
+    private volatile SignaturePolicy signaturePolicy = SignaturePolicy.VERIFY_ON_READ;
+    private volatile long retentionMillis = 0;
+    /**
+     * Classes to drop by KEEP_FOR_SECONDS, in the order of their deadlines.
+     */
+    private final Queue<Expiry> EXPIRING = new ConcurrentLinkedQueue<>();
+    /**
+     * True while the expiry of the first EXPIRING entry is scheduled.
+     */
+    private final AtomicBoolean expiryScheduled = new AtomicBoolean();
+    /**
+     * Classes added from .class and .java files, they can not be read again.
+     */
+    private final Set<String> PINNED = ConcurrentHashMap.newKeySet();
+    private volatile SharedByteStore.Refs shared = null;
+    private volatile ClassFileIndex classIndex = null;
+    private volatile File classIndexDir = null;
+    private volatile TransformerChain transformer = null;
+    private final Object INDEX_LOCK = new Object();
 
     /**
      * Constructs a new CacheClassLoader for the given URLs of URLClassLoader
@@ -122,9 +230,13 @@ public class CacheClassLoader extends URLClassLoader {
         super(urls, parent);
 
         if (softRef == true) {
-            CACHE = new ConcurrentSoftHashMap<>(hardSize);
+            RadixTreeMap<Object> names = new RadixTreeMap<>();
+            CACHE = new ConcurrentSoftHashMap<>(hardSize, false, names);
+            NAMES = names;
         } else {
-            CACHE = new ConcurrentHashMap<>();
+            RadixTreeMap<byte[]> names = new RadixTreeMap<>();
+            CACHE = names;
+            NAMES = names;
         }
         this.loadAllJar = loadAllJar;
         cacheURL = new URL(protocol, CONST.host, CONST.port, CONST.baseURI, new CacheURLStreamHandler());
@@ -155,24 +267,359 @@ public class CacheClassLoader extends URLClassLoader {
     @Override
     public void close() throws IOException {
 
+        SharedByteStore.Refs store = shared;
+        if (store != null) {
+            store.close();
+        }
         CACHE.clear();
+        PREFETCHED.clear();
+        prefetchedBytes.set(0);
         jars.clear();
+        EXPIRING.clear();
+        PINNED.clear();
+        classIndex = null;
         super.close();
 
     }
 
+    /**
+     * Set the package prefetch of the lazy loading (loadAllJar is false).
+     * <p>
+     * When a jar is scanned for a missing class, the other entries of the same
+     * package found on the way are cached too, they are usually needed next.
+     * The jar is then opened and inflated once for the whole package.
+     *
+     * @param maxEntries maximal number of entries prefetched per miss, 0
+     * disables the prefetch (default)
+     * @param maxBytes maximal size of all prefetched entries held by this
+     * class loader. An entry stops counting when it leaves the cache (removed,
+     * dropped by the retention or reclaimed by the soft references); the
+     * reclaimed entries are found when the limit is reached.
+     */
+    public void setPrefetch(int maxEntries, long maxBytes) {
+        this.prefetchEntries = maxEntries;
+        this.prefetchBytes = maxBytes;
+    }
+
+    /**
+     * @return size of the entries cached by the package prefetch and still
+     * held by the cache (the entries reclaimed by the soft references may be
+     * counted until the limit is reached)
+     */
+    public long getPrefetchedBytes() {
+        return prefetchedBytes.get();
+    }
+
+    private void prefetched_add(String name, int size) {
+        if (PREFETCHED.putIfAbsent(name, size) == null) {
+            prefetchedBytes.addAndGet(size);
+        }
+    }
+
+    private void prefetched_remove(String name) {
+        Integer size = PREFETCHED.remove(name);
+        if (size != null) {
+            prefetchedBytes.addAndGet(-size);
+        }
+    }
+
+    /**
+     * @return true if the prefetched entries held by the cache reached the
+     * limit, the entries which left the cache are not counted
+     */
+    private boolean prefetch_full() {
+        if (prefetchedBytes.get() < prefetchBytes) {
+            return false;
+        }
+        for (String name : PREFETCHED.keySet()) {
+            if (CACHE.containsKey(name) == false) {
+                prefetched_remove(name);
+            }
+        }
+        return prefetchedBytes.get() >= prefetchBytes;
+    }
+
+    /**
+     * Share the cached code with the other class loaders of the JVM (see
+     * {@link SharedByteStore#getDefault()}). The entries of the same content
+     * are held once, the references are released when they are dropped, on
+     * close and when the class loader is garbage collected without close. Must
+     * be set before any code is added.
+     * <p>
+     * The shared code is held by the store, it is not reclaimed by the soft
+     * references of ConcurrentSoftHashMap.
+     *
+     * @param share true to share the cached code
+     */
+    public void setShareBytecode(boolean share) {
+        if (CACHE.isEmpty() == false) {
+            throw new IllegalStateException("The cache is not empty.");
+        }
+        SharedByteStore.Refs store = shared;
+        if (store != null) {
+            store.close();
+        }
+        this.shared = (share == true) ? SharedByteStore.getDefault().register(this) : null;
+    }
+
+    /**
+     * Set the transformers of the class code (see {@link TransformerChain}).
+     * The cache holds the original code, the classes are defined from the
+     * transformed code, which is cached by the chain. The .class resources
+     * (ex.: getResourceAsStream) are served transformed too.
+     *
+     * @param transformer the transformer chain, null disables the
+     * transformation
+     */
+    public void setTransformer(TransformerChain transformer) {
+        this.transformer = transformer;
+    }
+
+    /**
+     * Set the directory of the persisted class indexes of the jars (see
+     * {@link #getClassIndex()}). The jar is parsed once, its index is read
+     * from the directory until the jar file is modified.
+     *
+     * @param directory index directory (ex.: /var/cache/app/jcl-index), null
+     * keeps the indexes in memory only
+     */
+    public void setClassIndexDir(String directory) {
+        this.classIndexDir = (directory == null) ? null : new File(directory);
+    }
+
+    /**
+     * Returns the index of the annotations, superclasses and interfaces of the
+     * classes of this class loader (see {@link ClassFileIndex}). No class is
+     * defined, the class files are parsed only.
+     * <p>
+     * The index is built on the first call, the jars and classes added later
+     * are added to it as they are ingested. The class of the same name is
+     * indexed from the source the class loader takes it from.
+     *
+     * @return the class index
+     */
+    public ClassFileIndex getClassIndex() {
+        ClassFileIndex index = classIndex;
+        if (index != null) {
+            return index;
+        }
+        synchronized (INDEX_LOCK) {
+            if (classIndex != null) {
+                return classIndex;
+            }
+            index = new ClassFileIndex();
+            for (String name : PINNED) {
+                index_add(index, CACHE.get(name));
+            }
+            for (JarSource jar : jars) {
+                try {
+                    index.merge(jar.classIndex(classIndexDir));
+                } catch (IOException e) {
+                    logger.error(e.toString());
+                }
+            }
+            classIndex = index;
+            return index;
+        }
+    }
+
+    /**
+     * Set the retention of the class code in the cache.
+     * <p>
+     * The dropped code is read again from the jar if the .class resource is
+     * asked for later (ex.: getResourceAsStream). The code of the classes added
+     * by addClass and addJava is always kept.
+     *
+     * @param retention retention of the class code
+     * @param seconds seconds the code is kept after the class is defined, used
+     * by KEEP_FOR_SECONDS only
+     */
+    public void setRetention(Retention retention, long seconds) {
+        this.retentionMillis = TimeUnit.SECONDS.toMillis(Math.max(0, seconds));
+        this.retention = (retention == null) ? Retention.KEEP_ALL : retention;
+    }
+
+    /**
+     * Set the retention of the class code in the cache, see
+     * {@link #setRetention(Retention, long)}.
+     *
+     * @param retention retention of the class code
+     */
+    public void setRetention(Retention retention) {
+        setRetention(retention, 0);
+    }
+
+    /**
+     * Set the verification of the signed jars added later.
+     *
+     * @param signaturePolicy verification of the signatures, null for
+     * VERIFY_ON_READ
+     */
+    public void setSignaturePolicy(SignaturePolicy signaturePolicy) {
+        this.signaturePolicy = (signaturePolicy == null) ? SignaturePolicy.VERIFY_ON_READ : signaturePolicy;
+    }
+
+    /**
+     * @return the verification of the signed jars
+     */
+    public SignaturePolicy getSignaturePolicy() {
+        return signaturePolicy;
+    }
+
+    /**
+     * @return the retention of the class code in the cache
+     */
+    public Retention getRetention() {
+        return retention;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        Class<?> c = super.findClass(name);
+        release(CONST.baseURI + name.replace(CONST.DOT, CONST.baseURI) + CONST.CLASS_SUFFIX);
+        return c;
+    }
+
+    /**
+     * Lists the entries of the jars (also those not loaded yet) and of the
+     * cache.
+     *
+     * @param prefix name prefix (ex.: cz/b2b/jcl/ or META-INF/services/), empty
+     * string for all names
+     * @return names of the classes and resources starting with the prefix
+     */
+    @Override
+    public List<String> listResources(String prefix) {
+        final String entry = entry_name(prefix);
+        final Set<String> names = new TreeSet<>();
+        NAMES.forEachWithPrefix(CONST.baseURI + entry, (name, value) -> names.add(entry_name(name)));
+        for (JarSource jar : jars) {
+            try {
+                names.addAll(jar.index().getNamesWithPrefix(entry));
+            } catch (IOException e) {
+                logger.error(e.toString());
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * The entry found in more jars has one URL for each of them, the first URL
+     * is the one of getResource (ex.: META-INF/services files of all jars for
+     * ServiceLoader).
+     */
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        Enumeration<URL> found = super.findResources(name);
+        List<URL> urls = new ArrayList<>();
+        while (found.hasMoreElements() == true) {
+            URL url = found.nextElement();
+            urls.add(url);
+            if (protocol.equals(url.getProtocol()) == true) {
+                urls.addAll(other_sources(name));
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    /**
+     * Returns a read-only view of the resource, found as by getResource.
+     * <p>
+     * The resource served from the MEM cache (of this or another
+     * CacheClassLoader) is not copied: the view shares the cached code, which
+     * is never modified. An entry of a given jar URL is read from the jar into
+     * a new heap buffer, as the resource of any other URL. The buffer is never
+     * a view of the jar file, it stays valid when the jar is replaced.
+     *
+     * @param name resource name (ex.: cz/b2b/jcl/RAM/resource/Test.class)
+     * @return read-only buffer of the content, null if the resource is not
+     * found
+     * @throws IOException Thrown when the resource can not be read
+     */
+    public ByteBuffer getResourceAsByteBuffer(String name) throws IOException {
+        URL url = getResource(name);
+        if (url == null) {
+            return null;
+        }
+        URLConnection connection = url.openConnection();
+        if (connection instanceof CacheURLConnection) {
+            return ((CacheURLConnection) connection).getBuffer();
+        }
+        return read_buffer(connection);
+    }
+
+    private static ByteBuffer read_buffer(URLConnection connection) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(connection.getContentLength(), CONST.BUFFER_SIZE));
+        byte[] b = new byte[CONST.BUFFER_SIZE];
+        int len;
+        InputStream in = connection.getInputStream();
+        try {
+            while ((len = in.read(b)) > 0) {
+                out.write(b, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Load the class without blocking the caller. The code is read on the I/O
+     * executor of {@link AsyncLoading}, then the class is defined.
+     *
+     * @param name binary name of the class (ex.: cz.b2b.jcl.RAM.resource.Test)
+     * @return the future of the class, completed exceptionally with
+     * ClassNotFoundException if the class is not found
+     */
+    public CompletableFuture<Class<?>> loadClassAsync(String name) {
+        return AsyncLoading.loadClass(this, name, this::prefetch);
+    }
+
+    /**
+     * Load the classes without blocking the caller. The code of all classes is
+     * read in parallel on the I/O executor of {@link AsyncLoading}, then the
+     * classes are defined in one batch.
+     *
+     * @param names binary names of the classes
+     * @return the future of the classes by name
+     */
+    public CompletableFuture<Map<String, Class<?>>> loadClassesAsync(Collection<String> names) {
+        return AsyncLoading.loadClasses(this, names, this::prefetch);
+    }
+
     /**
      * Add JAR file to CacheClassLoader URL path.
+     * <p>
+     * The jar is read through its index (see {@link JarIndex}), multi-release
+     * jars and fat jars (BOOT-INF/classes, BOOT-INF/lib/*.jar, WEB-INF/...) are
+     * resolved without unpacking them. Signed jars are read sequentially with
+     * signature verification, or verified once here and read through the index
+     * (see {@link #setSignaturePolicy(SignaturePolicy)}).
      *
      * @param jar jar file (ex.: /tmp/test.jar)
      * @throws IOException
+     * @throws SecurityException Thrown when an entry of the signed jar does not
+     * match its signature (VERIFY_ONCE)
      */
     public void addJAR(String jar) throws IOException {
+        if (jar == null) {
+            throw new FileNotFoundException("Jar file is empty.");
+        }
 
+        JarSource source = new JarSource(jar, signaturePolicy == SignaturePolicy.VERIFY_ONCE);
+        if (source.verifyOnce == true) {
+            // verified at registration
+            source.index();
+        }
         if (loadAllJar == true) {
-            add_code(jar, null);
-        } else {
-            jars.add(jar);
+            add_all(source);
+        }
+        synchronized (INDEX_LOCK) {
+            // kept with loadAllJar too, the dropped class code is read from it again
+            jars.add(source);
+            if (classIndex != null) {
+                classIndex.merge(source.classIndex(classIndexDir));
+            }
         }
 
     }
@@ -217,6 +664,84 @@ public class CacheClassLoader extends URLClassLoader {
 
     }
 
+    /**
+     * Add java class source code held in memory to CacheClassLoader URL path.
+     * <p>
+     * The source code is compiled dynamically at runtime, no file is written.
+     *
+     * @param className binary name of the class (ex.:
+     * cz.b2b.jcl.RAM.resource.Test)
+     * @param source source code of the class
+     * @return binary names of the added classes (nested classes included)
+     * @throws IOException Thrown when the compilation fails
+     */
+    public Set<String> addJavaSource(String className, CharSequence source) throws IOException {
+        if (className == null || source == null) {
+            throw new FileNotFoundException("Class name or source is empty.");
+        }
+        return addJavaSources(Collections.singletonMap(className, source), null);
+    }
+
+    /**
+     * Add java class sources held in memory to CacheClassLoader URL path.
+     * <p>
+     * The sources are compiled together in one compilation, they may refer to
+     * each other. No file is written.
+     *
+     * @param sources source code by binary class name (ex.:
+     * cz.b2b.jcl.RAM.resource.Test)
+     * @param extraLib Fields of any additional resources (libraries) needed
+     * during compilation
+     * @return binary names of the added classes (nested classes included)
+     * @throws IOException Thrown when the compilation fails, no class is added
+     * then
+     */
+    public Set<String> addJavaSources(Map<String, ? extends CharSequence> sources, String[] extraLib) throws IOException {
+        Map<String, byte[]> classes = cz.b2b.jcl.util.JavaRTCompiler.compile(sources, extraLib);
+        for (Map.Entry<String, byte[]> item : classes.entrySet()) {
+            addClass(item.getKey(), item.getValue());
+        }
+        return classes.keySet();
+    }
+
+    /**
+     * Compile the sources of the scheduler (see {@link CompileScheduler}) and
+     * add the classes to CacheClassLoader URL path. The independent groups of
+     * the sources are compiled in parallel, the classes of each group are
+     * added as soon as the group is compiled.
+     *
+     * @param scheduler scheduler with the added sources
+     * @return the future of the names of the added classes, completed
+     * exceptionally if a group fails to compile
+     */
+    public CompletableFuture<Set<String>> addJava(CompileScheduler scheduler) {
+        return scheduler.compile(classes -> {
+            for (Map.Entry<String, byte[]> item : classes.entrySet()) {
+                try {
+                    addClass(item.getKey(), item.getValue());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }).thenApply(Map::keySet);
+    }
+
+    /**
+     * Add java class byte code to CacheClassLoader URL path. A class of the
+     * same name already added is kept.
+     *
+     * @param className binary name of the class (ex.:
+     * cz.b2b.jcl.RAM.resource.Test)
+     * @param code byte code of the class
+     * @throws IOException
+     */
+    public void addClass(String className, final byte[] code) throws IOException {
+        if (className == null || code == null) {
+            throw new FileNotFoundException("Class name or code is empty.");
+        }
+        add_pinned(CONST.baseURI + className.replace(CONST.DOT, CONST.baseURI) + CONST.CLASS_SUFFIX, () -> code);
+    }
+
     /**
      * Adds jar files contained in the given directory and subdirectories to the
      * CacheClassLoader URL path.
@@ -313,28 +838,89 @@ public class CacheClassLoader extends URLClassLoader {
 
         @Override
         public InputStream getInputStream() throws IOException {
-            String file_name = url.getFile();
+            return new ByteArrayInputStream(data());
+        }
 
-            byte[] data = CACHE.get(file_name);
+        /**
+         * @return read-only view of the cached code, an entry of the given
+         * jar is read into a new heap buffer
+         */
+        private ByteBuffer getBuffer() throws IOException {
+            String query = url.getQuery();
+            if (query != null && query.startsWith(JAR_QUERY) == true) {
+                JarIndex index = jar_at(query.substring(JAR_QUERY.length()));
+                ByteBuffer data = (index == null) ? null : index.getBuffer(entry_name(url.getPath()));
+                if (data == null) {
+                    throw new FileNotFoundException(url.getFile());
+                }
+                return data;
+            }
+            return ByteBuffer.wrap(data()).asReadOnlyBuffer();
+        }
 
-            if (loadAllJar != true) {
+        private byte[] data() throws IOException {
+            final String file_name = url.getPath();
+            String query = url.getQuery();
+
+            if (query != null && query.startsWith(JAR_QUERY) == true) {
+                JarIndex index = jar_at(query.substring(JAR_QUERY.length()));
+                byte[] data = (index == null) ? null : index.getBytes(entry_name(file_name));
                 if (data == null) {
-                    add_code(file_name);
+                    throw new FileNotFoundException(url.getFile());
                 }
+                return data;
+            }
+            if (file_name.endsWith(CONST.baseURI) == true) {
+                // directory URL
+                String directory = entry_name(file_name);
+                List<String> names = listResources(directory);
+                if (names.isEmpty() == true) {
+                    throw new FileNotFoundException(file_name);
+                }
+                return ResourceListing.directoryListing(directory, names);
+            }
+
+            expire();
+            Object event = JclEvents.beginCacheLookup();
+            byte[] data = CACHE.get(file_name);
+            boolean hit = data != null;
 
-                data = CACHE.get(file_name);
+            if (data == null && (loadAllJar != true || retention != Retention.KEEP_ALL)) {
+                data = load(file_name, () -> add_code(file_name));
             }
+            JclEvents.endCacheLookup(event, file_name, hit, (data == null) ? 0 : data.length);
 
             if (data == null) {
                 throw new FileNotFoundException(file_name);
             }
 
-            return new ByteArrayInputStream(data);
+            TransformerChain chain = transformer;
+            if (chain != null && file_name.endsWith(CONST.CLASS_SUFFIX) == true) {
+                String entry = entry_name(file_name);
+                data = chain.apply(entry.substring(0, entry.length() - CONST.CLASS_SUFFIX.length()).replace(CONST.baseURI, CONST.DOT), data);
+            }
+
+            return data;
         }
 
     }
 
-    private boolean add_code(String jar, String file_name) throws IOException {
+    /**
+     * Load the given entry from the jar file, or all entries if the whole jar
+     * is loaded.
+     * <p>
+     * With prefetch enabled (see {@link #setPrefetch(int, long)}) the entries
+     * of the same package met while scanning for file_name are cached as well,
+     * the scan continues after file_name while the entries stay in its
+     * package.
+     *
+     * @param file_name entry to load, null loads all entries
+     * @param previous jars searched before this one, their entries must not be
+     * prefetched from this one
+     * @return the code of the entry file_name, null if not found or all
+     * entries are loaded
+     */
+    private byte[] add_code(String jar, String file_name, List<JarIndex> previous) throws IOException {
         FileInputStream fis = null;
         BufferedInputStream bis = null;
         JarInputStream jis = null;
@@ -342,11 +928,21 @@ public class CacheClassLoader extends URLClassLoader {
         String name = null;
         byte[] b = new byte[CONST.BUFFER_SIZE];
         int len = 0;
+        byte[] found = null;
+        int prefetched = 0;
+        int skipped = 0;
+        long inflated = 0;
+        Object event = JclEvents.beginJarScan();
 
         if (jar == null) {
             throw new FileNotFoundException("Jar file is empty.");
         }
 
+        String package_dir = null;
+        if (file_name != null && prefetchEntries > 0) {
+            package_dir = file_name.substring(0, file_name.lastIndexOf(CONST.baseURI) + 1);
+        }
+
         try {
             fis = new FileInputStream(jar);
             bis = new BufferedInputStream(fis);
@@ -355,20 +951,36 @@ public class CacheClassLoader extends URLClassLoader {
             JarEntry jarEntry = null;
             while ((jarEntry = jis.getNextJarEntry()) != null) {
                 name = CONST.baseURI + jarEntry.getName();
+                // counted back below when the entry is read
+                skipped++;
 
                 if (jarEntry.isDirectory()) {
                     logger.debug("Ignoring directory " + name + CONST.DOT);
                     continue;
                 }
 
-                if (CACHE.containsKey(name)) {
+                boolean sibling = false;
+                if (file_name != null && file_name.equals(name) == false) {
+                    sibling = package_dir != null && in_package(package_dir, name);
+                    if (sibling == true && shadowed(previous, name) == true) {
+                        continue;
+                    }
+                    if (sibling == false && found != null) {
+                        // left the package of the requested entry
+                        skipped--;
+                        break;
+                    }
+                    if (sibling == false || prefetched >= prefetchEntries
+                            || prefetch_full() == true) {
+                        continue;
+                    }
+                }
+
+                if ((file_name == null || sibling == true) && CACHE.containsKey(name)) {
                     logger.debug("Class/Resource " + name + " already loaded; ignoring entry...");
                     continue;
                 }
-
-                
-                
-                if (loadAllJar != true && file_name.equals(name) == false) {
+                if ((file_name == null || sibling == true) && kept(name) == false) {
                     continue;
                 }
 
@@ -380,14 +992,28 @@ public class CacheClassLoader extends URLClassLoader {
 
                 logger.debug("Jar entry = " + name);
 
-                CACHE.put(name, out.toByteArray());
+                byte[] data = out.toByteArray();
                 out.close();
-                if (loadAllJar != true) {
-                    return true;
+                skipped--;
+                inflated += data.length;
+                byte[] loaded = cache_put(name, data);
+                if (sibling == true) {
+                    if (loaded == null) {
+                        prefetched++;
+                        prefetched_add(name, data.length);
+                    }
+                    continue;
+                }
+                if (file_name != null) {
+                    found = (loaded == null) ? data : loaded;
+                    if (package_dir == null) {
+                        return found;
+                    }
                 }
 
             }
         } finally {
+            JclEvents.endJarScan(event, jar, file_name, skipped, inflated);
             if (jis != null) {
                 jis.close();
             }
@@ -399,30 +1025,338 @@ public class CacheClassLoader extends URLClassLoader {
             }
 
         }
-        return false;
+        if (prefetched > 0) {
+            logger.debug("Prefetched " + prefetched + " entries of " + package_dir + " from " + jar);
+        }
+        return found;
+    }
+
+    private boolean in_package(String package_dir, String name) {
+        return name.startsWith(package_dir) == true && name.indexOf(CONST.baseURI, package_dir.length()) < 0;
+    }
+
+    /**
+     * Load the given entry from the jar index. With prefetch enabled the other
+     * entries of the same package are cached as well.
+     *
+     * @param previous jars searched before this one, their entries must not be
+     * prefetched from this one
+     * @return the code of the entry file_name, null if not found
+     */
+    private byte[] add_code(JarIndex index, String file_name, List<JarIndex> previous) throws IOException {
+        String entry = entry_name(file_name);
+        Object event = JclEvents.beginJarScan();
+        byte[] data = index.getBytes(entry);
+        if (data == null) {
+            JclEvents.endJarScan(event, index.getName(), file_name, 0, 0);
+            return null;
+        }
+        logger.debug("Jar entry = " + file_name);
+        byte[] loaded = cache_put(file_name, data);
+        long inflated = data.length;
+
+        if (prefetchEntries > 0) {
+            String package_dir = entry.substring(0, entry.lastIndexOf(CONST.baseURI) + 1);
+            int prefetched = 0;
+            JarIndex.Reader reader = null;
+            try {
+                for (String sibling : index.getNames(package_dir)) {
+                    if (prefetched >= prefetchEntries || prefetch_full() == true) {
+                        break;
+                    }
+                    String name = CONST.baseURI + sibling;
+                    if (sibling.equals(entry) == true || CACHE.containsKey(name) == true || shadowed(previous, name) == true || kept(name) == false) {
+                        continue;
+                    }
+                    if (reader == null) {
+                        reader = index.reader();
+                    }
+                    byte[] code = reader.getBytes(sibling);
+                    inflated += code.length;
+                    if (cache_put(name, code) == null) {
+                        prefetched++;
+                        prefetched_add(name, code.length);
+                    }
+                }
+            } finally {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+            if (prefetched > 0) {
+                logger.debug("Prefetched " + prefetched + " entries of " + package_dir + " from " + index);
+            }
+        }
+        JclEvents.endJarScan(event, index.getName(), file_name, 0, inflated);
+        return (loaded == null) ? data : loaded;
     }
 
-    private void add_code(String file_name) throws IOException {
+    /**
+     * Load all entries of the jar.
+     */
+    private void add_all(JarSource source) throws IOException {
+        JarIndex index = source.index();
+        if (source.sequential() == true) {
+            add_code(source.path, null, null);
+            return;
+        }
+        try (JarIndex.Reader reader = index.reader()) {
+            for (String entry : index.getNames()) {
+                String name = CONST.baseURI + entry;
+                if (CACHE.containsKey(name)) {
+                    logger.debug("Class/Resource " + name + " already loaded; ignoring entry...");
+                    continue;
+                }
+                if (kept(name) == false) {
+                    continue;
+                }
+                logger.debug("Jar entry = " + name);
+                cache_put(name, reader.getBytes(entry));
+            }
+        }
+    }
 
-        for (String jar : jars) {
+    private byte[] add_code(String file_name) throws IOException {
+        byte[] data = CACHE.get(file_name);
+        if (data != null) {
+            return data;
+        }
+
+        List<JarIndex> previous = new ArrayList<>();
+        for (JarSource jar : jars) {
 
             if (jar == null) {
                 continue;
             }
-            if (add_code(jar, file_name) == true) {
+            JarIndex index = jar.index();
+            if (jar.sequential() == true) {
+                data = add_code(jar.path, file_name, previous);
+            } else {
+                data = add_code(index, file_name, previous);
+            }
+            if (data != null) {
+                return data;
+            }
+            previous.add(index);
+        }
+        return null;
+
+    }
+
+    /**
+     * Read the code of the class into the cache.
+     */
+    private void prefetch(String className) throws IOException {
+        final String file_name = CONST.baseURI + className.replace(CONST.DOT, CONST.baseURI) + CONST.CLASS_SUFFIX;
+        if (CACHE.containsKey(file_name) == true || (loadAllJar == true && retention == Retention.KEEP_ALL)) {
+            return;
+        }
+        load(file_name, () -> add_code(file_name));
+    }
+
+    /**
+     * Cache the code of the entry unless it is cached already, the code is
+     * shared if enabled (see {@link #setShareBytecode(boolean)}).
+     *
+     * @return the code cached before, null if data has been cached
+     */
+    private byte[] cache_put(String name, byte[] data) {
+        SharedByteStore.Refs store = shared;
+        if (store == null) {
+            return CACHE.putIfAbsent(name, data);
+        }
+        byte[] code = store.intern(data);
+        // the interned arrays are canonical, the identity of the result does not tell whether it was inserted
+        boolean[] inserted = {false};
+        byte[] cached = CACHE.computeIfAbsent(name, key -> {
+            inserted[0] = true;
+            return code;
+        });
+        if (inserted[0] == true) {
+            return null;
+        }
+        store.release(code);
+        return cached;
+    }
+
+    private void cache_remove(String name) {
+        byte[] data = CACHE.remove(name);
+        prefetched_remove(name);
+        SharedByteStore.Refs store = shared;
+        if (data != null && store != null) {
+            store.release(data);
+        }
+    }
+
+    /**
+     * @return URLs of the entry in the jars other than the one served by the
+     * plain URL
+     */
+    private List<URL> other_sources(String name) throws IOException {
+        String entry = entry_name(name);
+        String file_name = CONST.baseURI + entry;
+        List<URL> urls = new ArrayList<>();
+        // the plain URL is served by the first jar, unless added by addClass
+        boolean first = PINNED.contains(file_name) == false;
+        for (int i = 0; i < jars.size(); i++) {
+            JarIndex index;
+            try {
+                index = jars.get(i).index();
+            } catch (IOException e) {
+                logger.error(e.toString());
+                continue;
+            }
+            if (index.contains(entry) == false) {
+                continue;
+            }
+            if (first == true) {
+                first = false;
+                continue;
+            }
+            urls.add(new URL(cacheURL, file_name + "?" + JAR_QUERY + i));
+        }
+        return urls;
+    }
+
+    /**
+     * @return the index of the jar at the given position, null if there is
+     * none
+     */
+    private JarIndex jar_at(String position) throws IOException {
+        int i;
+        try {
+            i = Integer.parseInt(position);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (i < 0 || i >= jars.size()) {
+            return null;
+        }
+        return jars.get(i).index();
+    }
+
+    /**
+     * @return false if the entry is not cached ahead of its use
+     */
+    private boolean kept(String name) {
+        return retention != Retention.KEEP_ONLY_RESOURCES || name.endsWith(CONST.CLASS_SUFFIX) == false;
+    }
+
+    /**
+     * Apply the retention to the code of the defined class.
+     */
+    private void release(String file_name) {
+        expire();
+        Retention current = retention;
+        if (current == Retention.KEEP_ALL || PINNED.contains(file_name) == true) {
+            return;
+        }
+        if (current == Retention.KEEP_FOR_SECONDS && retentionMillis > 0) {
+            EXPIRING.add(new Expiry(file_name, System.currentTimeMillis() + retentionMillis));
+            schedule_expiry();
+            return;
+        }
+        cache_remove(file_name);
+    }
+
+    /**
+     * Drop the code of the classes kept by KEEP_FOR_SECONDS after their
+     * deadline.
+     */
+    private void expire() {
+        if (EXPIRING.isEmpty() == true) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Expiry expiry;
+        while ((expiry = EXPIRING.peek()) != null && expiry.deadline <= now) {
+            if (EXPIRING.remove(expiry) == true) {
+                cache_remove(expiry.name);
+            }
+        }
+    }
+
+    /**
+     * Schedule the expiry of the first EXPIRING entry on the shared timer,
+     * unless it is scheduled already. The task holds the class loader weakly.
+     */
+    private void schedule_expiry() {
+        Expiry next = EXPIRING.peek();
+        if (next == null || expiryScheduled.compareAndSet(false, true) == false) {
+            return;
+        }
+        final WeakReference<CacheClassLoader> loader = new WeakReference<>(this);
+        long delay = Math.max(0, next.deadline - System.currentTimeMillis());
+        ExpiryTimer.TIMER.schedule(() -> {
+            CacheClassLoader current = loader.get();
+            if (current == null) {
                 return;
             }
+            current.expiryScheduled.set(false);
+            current.expire();
+            current.schedule_expiry();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean shadowed(List<JarIndex> previous, String name) {
+        String entry = entry_name(name);
+        for (JarIndex index : previous) {
+            if (index.contains(entry) == true) {
+                return true;
+            }
         }
+        return false;
+    }
 
+    private String entry_name(String file_name) {
+        if (file_name.startsWith(CONST.baseURI) == true) {
+            return file_name.substring(CONST.baseURI.length());
+        }
+        return file_name;
     }
 
-    private void add_class(String class_name, String packageName, String className) throws IOException {
-        FileInputStream fis = null;
-        BufferedInputStream bis = null;
-        ByteArrayOutputStream out = null;
-        byte[] b = new byte[CONST.BUFFER_SIZE];
-        int len = 0;
-        String name = null;
+    /**
+     * Single-flight load of the cache entry name. The first caller runs the
+     * loader, concurrent callers for the same name wait for its result.
+     *
+     * @param name cache entry name
+     * @param loader loads the entry into the cache and returns its code
+     * @return the code of the entry, null if not found
+     * @throws IOException
+     */
+    private byte[] load(String name, Callable<byte[]> loader) throws IOException {
+        FutureTask<byte[]> task = new FutureTask<>(loader);
+        FutureTask<byte[]> inFlight = LOADING.putIfAbsent(name, task);
+        if (inFlight == null) {
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                LOADING.remove(name, task);
+            }
+        }
+
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading " + name);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void add_class(final String class_name, String packageName, String className) throws IOException {
 
         if (class_name == null) {
             throw new FileNotFoundException("Class file is empty.");
@@ -431,11 +1365,50 @@ public class CacheClassLoader extends URLClassLoader {
             throw new FileNotFoundException("Package name is empty.");
         }
 
-        name = CONST.baseURI + packageName.replace(CONST.DOT, CONST.baseURI) + CONST.baseURI + className + CONST.CLASS_SUFFIX;
-        if (CACHE.containsKey(name)) {
-            logger.debug("Class/Resource " + name + " already loaded; ignoring entry...");
+        final String name = CONST.baseURI + packageName.replace(CONST.DOT, CONST.baseURI) + CONST.baseURI + className + CONST.CLASS_SUFFIX;
+        add_pinned(name, () -> read_file(class_name));
+    }
+
+    /**
+     * Cache the code of the class added by the caller, it is kept by any
+     * retention.
+     */
+    private void add_pinned(final String name, final Callable<byte[]> reader) throws IOException {
+        load(name, () -> {
+            byte[] data = CACHE.get(name);
+            if (data != null) {
+                logger.debug("Class/Resource " + name + " already loaded; ignoring entry...");
+                return data;
+            }
+            data = reader.call();
+            PINNED.add(name);
+            byte[] loaded = cache_put(name, data);
+            synchronized (INDEX_LOCK) {
+                if (classIndex != null) {
+                    index_add(classIndex, data);
+                }
+            }
+            return (loaded == null) ? data : loaded;
+        });
+    }
+
+    private static void index_add(ClassFileIndex index, byte[] code) {
+        if (code == null) {
             return;
         }
+        try {
+            index.add(code);
+        } catch (ClassFormatError e) {
+            logger.error(e.toString());
+        }
+    }
+
+    private byte[] read_file(String class_name) throws IOException {
+        FileInputStream fis = null;
+        BufferedInputStream bis = null;
+        ByteArrayOutputStream out = null;
+        byte[] b = new byte[CONST.BUFFER_SIZE];
+        int len = 0;
 
         try {
             fis = new FileInputStream(class_name);
@@ -446,9 +1419,10 @@ public class CacheClassLoader extends URLClassLoader {
             while ((len = bis.read(b)) > 0) {
                 out.write(b, 0, len);
             }
-            CACHE.put(name, out.toByteArray());
+            byte[] data = out.toByteArray();
 
             out.close();
+            return data;
         } finally {
             if (bis != null) {
                 bis.close();
@@ -460,4 +1434,115 @@ public class CacheClassLoader extends URLClassLoader {
         }
     }
 
+    /**
+     * Daemon timer of KEEP_FOR_SECONDS shared by all class loaders, started on
+     * the first use.
+     */
+    private static class ExpiryTimer {
+
+        private final static ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "CacheClassLoader-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Class code to drop at the deadline.
+     */
+    private static class Expiry {
+
+        private final String name;
+        private final long deadline;
+
+        private Expiry(String name, long deadline) {
+            this.name = name;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Jar file added to the class loader. The index is built on the first use
+     * and rebuilt when the jar file is replaced.
+     */
+    private static class JarSource {
+
+        private final String path;
+        /**
+         * Verify the signed jar once, see SignaturePolicy.VERIFY_ONCE.
+         */
+        private final boolean verifyOnce;
+        private long lastModified = -1;
+        private JarIndex index = null;
+        private ClassFileIndex classIndex = null;
+
+        private JarSource(String path, boolean verifyOnce) {
+            this.path = path;
+            this.verifyOnce = verifyOnce;
+        }
+
+        /**
+         * @return true if the entries are read sequentially with the
+         * signature verification
+         */
+        private synchronized boolean sequential() throws IOException {
+            return index().isSigned() == true && verifyOnce == false;
+        }
+
+        /**
+         * @return the class index of the jar, read from the index directory
+         * or built and written there
+         */
+        private synchronized ClassFileIndex classIndex(File directory) throws IOException {
+            JarIndex jar = index();
+            if (classIndex != null && classIndex.getRevision() == lastModified) {
+                return classIndex;
+            }
+            File file = (directory == null) ? null
+                    : new File(directory, new File(path).getName() + "-" + Integer.toHexString(new File(path).getAbsolutePath().hashCode()) + ".idx");
+            ClassFileIndex built = null;
+            if (file != null) {
+                try {
+                    built = ClassFileIndex.load(file);
+                } catch (IOException e) {
+                    logger.error("Class index " + file + " ignored: " + e.toString());
+                }
+            }
+            if (built == null || built.getRevision() != lastModified) {
+                built = new ClassFileIndex();
+                try (JarIndex.Reader reader = jar.reader()) {
+                    for (String name : jar.getNames()) {
+                        if (name.endsWith(CONST.CLASS_SUFFIX) == true) {
+                            index_add(built, reader.getBytes(name));
+                        }
+                    }
+                }
+                built.setRevision(lastModified);
+                logger.debug("Class index of " + path + " built, classes = " + built.size());
+                if (file != null) {
+                    built.save(file);
+                }
+            }
+            classIndex = built;
+            return built;
+        }
+
+        private synchronized JarIndex index() throws IOException {
+            if (index == null || index.isCurrent() == false) {
+                File file = new File(path);
+                long modified = file.lastModified();
+                if (file.isFile() == false) {
+                    throw new FileNotFoundException(path);
+                }
+                JarIndex opened = JarIndex.open(file);
+                if (verifyOnce == true && opened.isSigned() == true) {
+                    JarVerifier.verify(file);
+                }
+                index = opened;
+                lastModified = modified;
+            }
+            return index;
+        }
+    }
+
 }
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.*;
+
+/**
+ Asynchronous class loading shared by the class loaders of this library.
+ <p>
+ The class code is fetched in parallel on the I/O executor (virtual threads
+ where the JVM has them, a cached pool of daemon threads otherwise), then the
+ classes are defined one after another by one task of the same executor. The
+ caller never blocks on a jar scan or a DB round trip.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public final class AsyncLoading {
+
+    private final static Logger logger = LoggerFactory.getLogger(AsyncLoading.class);
+
+    /**
+     Fetches the code of the class before it is defined.
+     */
+    public interface Prefetcher {
+
+        /**
+         Fetch the code of the class into the class loader.
+         @param className binary name of the class (ex.: cz.b2b.jcl.RAM.resource.Test)
+         @throws Exception Thrown when the code can not be fetched, the class is
+         then loaded the usual way
+         */
+        void prefetch(String className) throws Exception;
+    }
+
+    private AsyncLoading() {
+    }
+
+    /**
+     @return the shared I/O executor
+     */
+    public static Executor executor() {
+        return Holder.EXECUTOR;
+    }
+
+    /**
+     Load the class asynchronously.
+     @param loader class loader
+     @param className binary name of the class
+     @param prefetcher fetches the code of the class, may be null
+     @return the future of the class, completed exceptionally with
+     ClassNotFoundException if the class is not found
+     */
+    public static CompletableFuture<Class<?>> loadClass(ClassLoader loader, String className, Prefetcher prefetcher) {
+        return loadClasses(loader, Collections.singletonList(className), prefetcher).thenApply(classes -> classes.get(className));
+    }
+
+    /**
+     Load the classes asynchronously. The code of all classes is fetched in
+     parallel, then the classes are defined in one batch.
+     @param loader class loader
+     @param classNames binary names of the classes
+     @param prefetcher fetches the code of the classes, may be null
+     @return the future of the classes by name in the order of classNames,
+     completed exceptionally by the first class that can not be loaded
+     */
+    public static CompletableFuture<Map<String, Class<?>>> loadClasses(final ClassLoader loader, Collection<String> classNames, final Prefetcher prefetcher) {
+        final List<String> names = new ArrayList<>(new LinkedHashSet<>(classNames));
+        final Executor executor = executor();
+
+        CompletableFuture<?>[] fetches = new CompletableFuture<?>[prefetcher == null ? 0 : names.size()];
+        for (int i = 0; i < fetches.length; i++) {
+            final String name = names.get(i);
+            fetches[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    prefetcher.prefetch(name);
+                } catch (Exception e) {
+                    logger.debug("Prefetch of " + name + " failed: " + e.toString());
+                }
+            }, executor);
+        }
+
+        return CompletableFuture.allOf(fetches).thenApplyAsync(ignored -> {
+            Map<String, Class<?>> classes = new LinkedHashMap<>();
+            for (String name : names) {
+                try {
+                    classes.put(name, loader.loadClass(name));
+                } catch (ClassNotFoundException e) {
+                    throw new CompletionException(e);
+                }
+            }
+            return classes;
+        }, executor);
+    }
+
+    /**
+     Lazy holder of the shared executor.
+     */
+    private static class Holder {
+
+        private final static Executor EXECUTOR = create();
+
+        private static Executor create() {
+            try {
+                // Java 21+, looked up reflectively to keep the Java 8 target
+                ExecutorService virtual = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                logger.debug("Async class loading on virtual threads.");
+                return virtual;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                logger.debug("Virtual threads not available: " + e.toString());
+            }
+            final AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "jcl-io-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+}
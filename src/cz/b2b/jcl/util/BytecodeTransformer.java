@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+/**
+ Transformer of the class code (instrumentation, weaving) run by
+ {@link TransformerChain} before the class is defined.
+ <p>
+ The transformer must be deterministic: the same input gives the same output
+ for the same version, the output is cached by the hash of the input and the
+ version (see {@link #getVersion()}).
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public interface BytecodeTransformer {
+
+    /**
+     @param className binary name of the class (ex.: cz.b2b.jcl.RAM.resource.Test)
+     @param code class code, must not be modified
+     @return the transformed class code, null if the class is not changed
+     */
+    byte[] transform(String className, byte[] code);
+
+    /**
+     @return version of the transformer, must change when its output changes
+     (ex.: new weaving rules), the class name by default
+     */
+    default String getVersion() {
+        return getClass().getName();
+    }
+
+}
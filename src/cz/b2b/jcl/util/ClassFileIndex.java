@@ -0,0 +1,498 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ Index of the annotations, superclasses and interfaces of classes, built from
+ the class files by {@link ClassFileReader}. The index is queried without
+ defining any class (ex.: all classes annotated by javax.inject.Named, all
+ implementations of java.sql.Driver).
+ <p>
+ The index is written to a file and read back (see {@link #save(File)} and
+ {@link #load(File)}), so the class files are parsed once. The file holds the
+ revision of the indexed source (ex.: the last modification time of the jar
+ or the revision of the DB table), an index of an older source is not used.
+ <p>
+ The index is thread safe, the queries do not block each other.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public final class ClassFileIndex {
+
+    private final static int MAGIC = 0x4A434C49;
+    private final static int FORMAT = 1;
+    private final static int INTERFACE = 0x0200;
+    private final static int MODULE = 0x8000;
+
+    private final Map<String, ClassInfo> classes = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> subclasses = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> implementors = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> annotated = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> memberAnnotated = new ConcurrentHashMap<>();
+    private volatile long revision = -1;
+
+    /**
+     Indexed class, its names are binary names.
+     */
+    public static final class ClassInfo {
+
+        private final String name;
+        private final String superName;
+        private final int access;
+        private final List<String> interfaces;
+        private final Set<String> annotations;
+        private final Set<String> memberAnnotations;
+
+        public ClassInfo(String name, String superName, int access, Collection<String> interfaces, Collection<String> annotations, Collection<String> memberAnnotations) {
+            this.name = name;
+            this.superName = superName;
+            this.access = access;
+            this.interfaces = Collections.unmodifiableList(new ArrayList<>(interfaces));
+            this.annotations = Collections.unmodifiableSet(new LinkedHashSet<>(annotations));
+            this.memberAnnotations = Collections.unmodifiableSet(new LinkedHashSet<>(memberAnnotations));
+        }
+
+        private ClassInfo(ClassFileReader reader) {
+            this(reader.getClassName(), reader.getSuperName(), reader.getAccess(), reader.getInterfaces(), reader.getAnnotations(), reader.getMemberAnnotations());
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         @return the superclass, null for java.lang.Object
+         */
+        public String getSuperName() {
+            return superName;
+        }
+
+        /**
+         @return access flags of the class
+         */
+        public int getAccess() {
+            return access;
+        }
+
+        public boolean isInterface() {
+            return (access & INTERFACE) != 0;
+        }
+
+        public List<String> getInterfaces() {
+            return interfaces;
+        }
+
+        /**
+         @return annotations of the class
+         */
+        public Set<String> getAnnotations() {
+            return annotations;
+        }
+
+        /**
+         @return annotations of the fields and methods of the class
+         */
+        public Set<String> getMemberAnnotations() {
+            return memberAnnotations;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     Parse the class file and index the class. The class indexed before under
+     the same name is replaced.
+     @param code class file
+     @return the indexed class, null for module-info (not indexed)
+     @throws ClassFormatError Thrown when the class file is not valid
+     */
+    public ClassInfo add(byte[] code) {
+        ClassFileReader reader = new ClassFileReader(code);
+        if ((reader.getAccess() & MODULE) != 0) {
+            return null;
+        }
+        ClassInfo info = new ClassInfo(reader);
+        add(info);
+        return info;
+    }
+
+    /**
+     Index the class. The class indexed before under the same name is
+     replaced.
+     @param info the class
+     */
+    public synchronized void add(ClassInfo info) {
+        ClassInfo previous = classes.put(info.name, info);
+        if (previous != null) {
+            unlink(previous);
+        }
+        if (info.superName != null) {
+            link(subclasses, info.superName, info.name);
+        }
+        for (String name : info.interfaces) {
+            link(implementors, name, info.name);
+        }
+        for (String name : info.annotations) {
+            link(annotated, name, info.name);
+        }
+        for (String name : info.memberAnnotations) {
+            link(memberAnnotated, name, info.name);
+        }
+    }
+
+    /**
+     Add the classes of the other index which are not indexed yet, the first
+     indexed class of the name wins as in the class loaders.
+     @param other the index to merge
+     */
+    public synchronized void merge(ClassFileIndex other) {
+        for (ClassInfo info : other.classes.values()) {
+            if (classes.containsKey(info.name) == false) {
+                add(info);
+            }
+        }
+    }
+
+    /**
+     @param name binary name of the class
+     @return the removed class, null if it was not indexed
+     */
+    public synchronized ClassInfo remove(String name) {
+        ClassInfo previous = classes.remove(name);
+        if (previous != null) {
+            unlink(previous);
+        }
+        return previous;
+    }
+
+    /**
+     @param name binary name of the class (ex.: cz.b2b.jcl.RAM.resource.Test)
+     @return the indexed class, null if not indexed
+     */
+    public ClassInfo getClassInfo(String name) {
+        return classes.get(name);
+    }
+
+    public boolean contains(String name) {
+        return classes.containsKey(name);
+    }
+
+    /**
+     @return binary names of all indexed classes
+     */
+    public Set<String> getClassNames() {
+        return new TreeSet<>(classes.keySet());
+    }
+
+    public int size() {
+        return classes.size();
+    }
+
+    /**
+     @param annotation binary name of the annotation (ex.: javax.inject.Named)
+     @return classes annotated by the annotation
+     */
+    public Set<String> getAnnotatedClasses(String annotation) {
+        return names(annotated, annotation);
+    }
+
+    /**
+     @param annotation binary name of the annotation (ex.: javax.inject.Inject)
+     @return classes with a field or method annotated by the annotation
+     */
+    public Set<String> getClassesWithAnnotatedMembers(String annotation) {
+        return names(memberAnnotated, annotation);
+    }
+
+    /**
+     @param name binary name of the class
+     @return direct subclasses of the class
+     */
+    public Set<String> getSubclasses(String name) {
+        return names(subclasses, name);
+    }
+
+    /**
+     @param name binary name of the class
+     @return all indexed subclasses of the class, also the indirect ones
+     */
+    public Set<String> getAllSubclasses(String name) {
+        Set<String> found = new TreeSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(name);
+        while (pending.isEmpty() == false) {
+            for (String subclass : names(subclasses, pending.poll())) {
+                if (found.add(subclass) == true) {
+                    pending.add(subclass);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     @param name binary name of the interface
+     @return classes and interfaces declaring the interface directly
+     */
+    public Set<String> getImplementors(String name) {
+        return names(implementors, name);
+    }
+
+    /**
+     @param name binary name of the interface
+     @return all indexed classes implementing the interface, also through
+     superinterfaces and superclasses; interfaces are not included
+     */
+    public Set<String> getAllImplementors(String name) {
+        Set<String> visited = new HashSet<>();
+        Set<String> found = new TreeSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(name);
+        while (pending.isEmpty() == false) {
+            String current = pending.poll();
+            Set<String> next = new HashSet<>(names(implementors, current));
+            if (current.equals(name) == false) {
+                next.addAll(names(subclasses, current));
+            }
+            for (String implementor : next) {
+                if (visited.add(implementor) == false) {
+                    continue;
+                }
+                pending.add(implementor);
+                ClassInfo info = classes.get(implementor);
+                if (info != null && info.isInterface() == false) {
+                    found.add(implementor);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     @return revision of the indexed source, -1 if not set
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     @param revision revision of the indexed source (ex.: last modification
+     time of the jar)
+     */
+    public void setRevision(long revision) {
+        this.revision = revision;
+    }
+
+    /**
+     Write the index. The names are written once in a string table.
+     @param out output stream, not closed
+     @throws IOException
+     */
+    public void write(OutputStream out) throws IOException {
+        List<ClassInfo> infos;
+        synchronized (this) {
+            infos = new ArrayList<>(classes.values());
+        }
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        for (ClassInfo info : infos) {
+            string(strings, info.name);
+            string(strings, info.superName == null ? CONST.EMPTY : info.superName);
+            for (String name : info.interfaces) {
+                string(strings, name);
+            }
+            for (String name : info.annotations) {
+                string(strings, name);
+            }
+            for (String name : info.memberAnnotations) {
+                string(strings, name);
+            }
+        }
+
+        CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32());
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(checked, CONST.BUFFER_SIZE));
+        dos.writeInt(MAGIC);
+        dos.writeInt(FORMAT);
+        dos.writeLong(revision);
+        dos.writeInt(strings.size());
+        for (String name : strings.keySet()) {
+            dos.writeUTF(name);
+        }
+        dos.writeInt(infos.size());
+        for (ClassInfo info : infos) {
+            dos.writeInt(strings.get(info.name));
+            dos.writeInt(strings.get(info.superName == null ? CONST.EMPTY : info.superName));
+            dos.writeShort(info.access);
+            write(dos, strings, info.interfaces);
+            write(dos, strings, info.annotations);
+            write(dos, strings, info.memberAnnotations);
+        }
+        dos.flush();
+        dos.writeInt((int) checked.getChecksum().getValue());
+        dos.flush();
+    }
+
+    /**
+     Read the index written by {@link #write(OutputStream)}.
+     @param in input stream, not closed
+     @return the index
+     @throws IOException Thrown when the index is damaged or of unknown format
+     */
+    public static ClassFileIndex read(InputStream in) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        DataInputStream dis = new DataInputStream(checked);
+        if (dis.readInt() != MAGIC || dis.readInt() != FORMAT) {
+            throw new IOException("Unknown class index format");
+        }
+        ClassFileIndex index = new ClassFileIndex();
+        long revision = dis.readLong();
+        String[] strings = new String[dis.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = dis.readUTF();
+        }
+        int count = dis.readInt();
+        List<ClassInfo> infos = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = strings[dis.readInt()];
+            String superName = strings[dis.readInt()];
+            int access = dis.readUnsignedShort();
+            infos.add(new ClassInfo(name, superName.isEmpty() == true ? null : superName, access,
+                    read(dis, strings), read(dis, strings), read(dis, strings)));
+        }
+        long crc = checked.getChecksum().getValue();
+        if ((dis.readInt() & 0xFFFFFFFFL) != crc) {
+            throw new IOException("Class index checksum mismatch");
+        }
+        for (ClassInfo info : infos) {
+            index.add(info);
+        }
+        index.revision = revision;
+        return index;
+    }
+
+    /**
+     Write the index to the file. The index is written to a temporary file
+     and then renamed.
+     @param file index file
+     @throws IOException
+     */
+    public void save(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null) {
+            directory.mkdirs();
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                write(out);
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     Read the index from the file.
+     @param file index file
+     @return the index, null if the file does not exist
+     @throws IOException Thrown when the index is damaged or of unknown format
+     */
+    public static ClassFileIndex load(File file) throws IOException {
+        if (file.isFile() == false) {
+            return null;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), CONST.BUFFER_SIZE)) {
+            return read(in);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Class index is damaged");
+        }
+    }
+
+    private void unlink(ClassInfo info) {
+        if (info.superName != null) {
+            unlink(subclasses, info.superName, info.name);
+        }
+        for (String name : info.interfaces) {
+            unlink(implementors, name, info.name);
+        }
+        for (String name : info.annotations) {
+            unlink(annotated, name, info.name);
+        }
+        for (String name : info.memberAnnotations) {
+            unlink(memberAnnotated, name, info.name);
+        }
+    }
+
+    private static void link(Map<String, Set<String>> map, String key, String name) {
+        map.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(name);
+    }
+
+    private static void unlink(Map<String, Set<String>> map, String key, String name) {
+        Set<String> names = map.get(key);
+        if (names != null) {
+            names.remove(name);
+            if (names.isEmpty() == true) {
+                map.remove(key);
+            }
+        }
+    }
+
+    private static Set<String> names(Map<String, Set<String>> map, String key) {
+        Set<String> names = map.get(key);
+        return (names == null) ? Collections.emptySet() : new TreeSet<>(names);
+    }
+
+    private static void string(Map<String, Integer> strings, String name) {
+        if (strings.containsKey(name) == false) {
+            strings.put(name, strings.size());
+        }
+    }
+
+    private static void write(DataOutputStream dos, Map<String, Integer> strings, Collection<String> names) throws IOException {
+        dos.writeShort(names.size());
+        for (String name : names) {
+            dos.writeInt(strings.get(name));
+        }
+    }
+
+    private static List<String> read(DataInputStream dis, String[] strings) throws IOException {
+        int count = dis.readUnsignedShort();
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(strings[dis.readInt()]);
+        }
+        return names;
+    }
+
+}
@@ -0,0 +1,426 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ Lightweight reader of the class file format. It reads the constant pool, the
+ class, its superclass and interfaces and the annotations of the class and its
+ members, without defining the class.
+ <p>
+ The names are binary names (ex.: cz.b2b.jcl.RAM.resource.Test).
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public final class ClassFileReader {
+
+    private final static int MAGIC = 0xCAFEBABE;
+    private final static String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+    private final static String RUNTIME_INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations";
+    private final static String CONSTANT_VALUE = "ConstantValue";
+    private final static String SOURCE_FILE = "SourceFile";
+
+    private final byte[] code;
+    private final int[] offsets;
+    private final String[] strings;
+    private final int access;
+    private final String className;
+    private final String superName;
+    private final List<String> interfaces;
+    private final Set<String> annotations = new LinkedHashSet<>();
+    private final Set<String> memberAnnotations = new LinkedHashSet<>();
+    private final List<Member> members = new ArrayList<>();
+    private String sourceFile = null;
+    private int position;
+
+    /**
+     Field or method of the class.
+     */
+    public static final class Member {
+
+        private final boolean field;
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final String constant;
+
+        private Member(boolean field, int access, String name, String descriptor, String constant) {
+            this.field = field;
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.constant = constant;
+        }
+
+        public boolean isField() {
+            return field;
+        }
+
+        /**
+         @return access flags (see java.lang.reflect.Modifier)
+         */
+        public int getAccess() {
+            return access;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         @return type descriptor (ex.: (Ljava/lang/String;)V)
+         */
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        /**
+         @return value of the constant field (static final of primitive type or
+         String), inlined by the compiler into the classes using it; null if
+         the member is not a constant
+         */
+        public String getConstant() {
+            return constant;
+        }
+
+        @Override
+        public String toString() {
+            return (field == true ? "field " : "method ") + Integer.toHexString(access) + " " + name + " " + descriptor + ((constant == null) ? CONST.EMPTY : " = " + constant);
+        }
+    }
+
+    /**
+     @param code class file
+     @throws ClassFormatError Thrown when the class file is not valid
+     */
+    public ClassFileReader(byte[] code) {
+        this.code = code;
+        try {
+            if (u4() != MAGIC) {
+                throw new ClassFormatError("Bad magic number");
+            }
+            position += 4;
+            int count = u2();
+            offsets = new int[count];
+            strings = new String[count];
+            for (int i = 1; i < count; i++) {
+                int tag = u1();
+                offsets[i] = position;
+                switch (tag) {
+                    case 1:
+                        int length = u2();
+                        position += length;
+                        break;
+                    case 3:
+                    case 4:
+                    case 9:
+                    case 10:
+                    case 11:
+                    case 12:
+                    case 17:
+                    case 18:
+                        position += 4;
+                        break;
+                    case 5:
+                    case 6:
+                        position += 8;
+                        // takes two entries
+                        i++;
+                        break;
+                    case 7:
+                    case 8:
+                    case 16:
+                    case 19:
+                    case 20:
+                        position += 2;
+                        break;
+                    case 15:
+                        position += 3;
+                        break;
+                    default:
+                        throw new ClassFormatError("Unknown constant pool tag " + tag);
+                }
+            }
+            access = u2();
+            className = classAt(u2());
+            int superIndex = u2();
+            superName = (superIndex == 0) ? null : classAt(superIndex);
+            int count_interfaces = u2();
+            List<String> names = new ArrayList<>(count_interfaces);
+            for (int i = 0; i < count_interfaces; i++) {
+                names.add(classAt(u2()));
+            }
+            interfaces = Collections.unmodifiableList(names);
+            // fields and methods
+            for (int kind = 0; kind < 2; kind++) {
+                int count_members = u2();
+                for (int i = 0; i < count_members; i++) {
+                    int member_access = u2();
+                    String name = utf8(u2());
+                    String descriptor = utf8(u2());
+                    String constant = attributes(memberAnnotations);
+                    members.add(new Member(kind == 0, member_access, name, descriptor, constant));
+                }
+            }
+            attributes(annotations);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ClassFormatError("Truncated class file");
+        }
+    }
+
+    /**
+     @return the binary name of the class
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     @return the binary name of the superclass, null for java.lang.Object and
+     module-info
+     */
+    public String getSuperName() {
+        return superName;
+    }
+
+    /**
+     @return binary names of the interfaces
+     */
+    public List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    /**
+     @return access flags of the class (see java.lang.reflect.Modifier, 0x0200
+     interface, 0x2000 annotation)
+     */
+    public int getAccess() {
+        return access;
+    }
+
+    /**
+     @return binary names of the annotations of the class
+     */
+    public Set<String> getAnnotations() {
+        return Collections.unmodifiableSet(annotations);
+    }
+
+    /**
+     @return binary names of the annotations of the fields and methods
+     */
+    public Set<String> getMemberAnnotations() {
+        return Collections.unmodifiableSet(memberAnnotations);
+    }
+
+    /**
+     @return the name of the source file without path (ex.: Test.java), null if
+     the class was compiled without it
+     */
+    public String getSourceFile() {
+        return sourceFile;
+    }
+
+    /**
+     @return fields and methods of the class in the order of the class file
+     */
+    public List<Member> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     @return binary names of all classes referenced by the constant pool
+     (class entries and the types in the descriptors of the used and declared
+     members), array classes are resolved to their element class
+     */
+    public Set<String> getReferencedClasses() {
+        Set<String> names = new TreeSet<>();
+        for (Member member : members) {
+            descriptor_types(member.descriptor, names);
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] == 0) {
+                continue;
+            }
+            int tag = code[offsets[i] - 1] & 0xFF;
+            if (tag == 12) {
+                // NameAndType
+                descriptor_types(utf8(u2(offsets[i] + 2)), names);
+                continue;
+            }
+            if (tag == 16) {
+                // MethodType
+                descriptor_types(utf8(u2(offsets[i])), names);
+                continue;
+            }
+            if (tag != 7) {
+                continue;
+            }
+            String name = classAt(i);
+            if (name.startsWith("[") == true) {
+                int start = name.lastIndexOf('[') + 1;
+                if (name.charAt(start) != 'L') {
+                    continue;
+                }
+                name = name.substring(start + 1, name.length() - 1).replace('/', '.');
+            }
+            names.add(name);
+        }
+        names.remove(className);
+        return names;
+    }
+
+    private static void descriptor_types(String descriptor, Set<String> names) {
+        int start;
+        int from = 0;
+        while ((start = descriptor.indexOf('L', from)) >= 0) {
+            int end = descriptor.indexOf(';', start);
+            if (end < 0) {
+                return;
+            }
+            names.add(descriptor.substring(start + 1, end).replace('/', '.'));
+            from = end + 1;
+        }
+    }
+
+    /**
+     Read the attributes, the annotations are added to found.
+     @return the value of the ConstantValue attribute, null if there is none
+     */
+    private String attributes(Set<String> found) {
+        String constant = null;
+        int count = u2();
+        for (int i = 0; i < count; i++) {
+            String name = utf8(u2());
+            int length = u4();
+            int end = position + length;
+            if (RUNTIME_VISIBLE_ANNOTATIONS.equals(name) == true || RUNTIME_INVISIBLE_ANNOTATIONS.equals(name) == true) {
+                int annotations = u2();
+                for (int j = 0; j < annotations; j++) {
+                    annotation(found);
+                }
+            } else if (CONSTANT_VALUE.equals(name) == true) {
+                constant = constant(u2());
+            } else if (SOURCE_FILE.equals(name) == true) {
+                sourceFile = utf8(u2());
+            }
+            position = end;
+        }
+        return constant;
+    }
+
+    private String constant(int index) {
+        int offset = offsets[index];
+        switch (code[offset - 1]) {
+            case 3:
+                return String.valueOf(s4(offset));
+            case 4:
+                return String.valueOf(Float.intBitsToFloat(s4(offset)));
+            case 5:
+                return String.valueOf(((long) s4(offset) << 32) | (s4(offset + 4) & 0xFFFFFFFFL));
+            case 6:
+                return String.valueOf(Double.longBitsToDouble(((long) s4(offset) << 32) | (s4(offset + 4) & 0xFFFFFFFFL)));
+            case 8:
+                return '"' + utf8(u2(offset)) + '"';
+            default:
+                return null;
+        }
+    }
+
+    private int u2(int offset) {
+        return ((code[offset] & 0xFF) << 8) | (code[offset + 1] & 0xFF);
+    }
+
+    private int s4(int offset) {
+        return ((code[offset] & 0xFF) << 24) | ((code[offset + 1] & 0xFF) << 16)
+                | ((code[offset + 2] & 0xFF) << 8) | (code[offset + 3] & 0xFF);
+    }
+
+    private void annotation(Set<String> found) {
+        String type = utf8(u2());
+        if (found != null && type.length() > 2) {
+            found.add(type.substring(1, type.length() - 1).replace('/', '.'));
+        }
+        int pairs = u2();
+        for (int i = 0; i < pairs; i++) {
+            position += 2;
+            element_value();
+        }
+    }
+
+    private void element_value() {
+        int tag = u1();
+        switch (tag) {
+            case 'e':
+                position += 4;
+                break;
+            case '@':
+                // nested annotations are values, not annotations of the class
+                annotation(null);
+                break;
+            case '[':
+                int count = u2();
+                for (int i = 0; i < count; i++) {
+                    element_value();
+                }
+                break;
+            default:
+                position += 2;
+        }
+    }
+
+    private String classAt(int index) {
+        return utf8(((code[offsets[index]] & 0xFF) << 8) | (code[offsets[index] + 1] & 0xFF)).replace('/', '.');
+    }
+
+    private String utf8(int index) {
+        String value = strings[index];
+        if (value != null) {
+            return value;
+        }
+        int offset = offsets[index];
+        int length = ((code[offset] & 0xFF) << 8) | (code[offset + 1] & 0xFF);
+        try {
+            value = new DataInputStream(new ByteArrayInputStream(code, offset, length + 2)).readUTF();
+        } catch (IOException e) {
+            throw new ClassFormatError("Malformed constant pool string");
+        }
+        strings[index] = value;
+        return value;
+    }
+
+    private int u1() {
+        return code[position++] & 0xFF;
+    }
+
+    private int u2() {
+        int value = ((code[position] & 0xFF) << 8) | (code[position + 1] & 0xFF);
+        position += 2;
+        return value;
+    }
+
+    private int u4() {
+        int value = ((code[position] & 0xFF) << 24) | ((code[position + 1] & 0xFF) << 16)
+                | ((code[position + 2] & 0xFF) << 8) | (code[position + 3] & 0xFF);
+        position += 4;
+        return value;
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.*;
+
+/**
+ Registry of the generations of a class loader (ex.: CacheClassLoader over the
+ current version of the jars).
+ <p>
+ The next generation is built by the factory in the background (see
+ {@link #reload()}) and made current by one volatile write, the callers are
+ never stopped. The callers lease the current generation for the time they
+ use it (see {@link #acquire()}), a replaced generation is closed when its
+ last lease is closed, so its cache is released as soon as nobody uses it.
+ <p>
+ Example of usage:
+ <pre>
+ ClassLoaderRegistry&#60;CacheClassLoader&#62; registry = new ClassLoaderRegistry&#60;&#62;(() -&#62; {
+     CacheClassLoader loader = new CacheClassLoader(parent);
+     loader.addDir("/opt/app/plugins");
+     return loader;
+ });
+ try (ClassLoaderRegistry.Lease&#60;CacheClassLoader&#62; lease = registry.acquire()) {
+     Class&#60;?&#62; plugin = Class.forName("cz.b2b.plugin.Main", true, lease.getLoader());
+     ...
+ }
+ // jars replaced
+ registry.reload();
+ </pre>
+ Objects created by a generation keep its classes reachable, the generation
+ is closed after its leases are closed, but it is garbage collected only when
+ these objects are released too.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public final class ClassLoaderRegistry<L extends ClassLoader & Closeable> implements Closeable {
+
+    private final static Logger logger = LoggerFactory.getLogger(ClassLoaderRegistry.class);
+
+    private final Callable<? extends L> factory;
+    private volatile Generation<L> current;
+    private final List<Generation<L>> DRAINING = new CopyOnWriteArrayList<>();
+    private final Object reloadLock = new Object();
+    private volatile boolean closed = false;
+
+    /**
+     Build the first generation.
+     @param factory builds a new generation of the class loader
+     @throws Exception Thrown when the first generation can not be built
+     */
+    public ClassLoaderRegistry(Callable<? extends L> factory) throws Exception {
+        this.factory = factory;
+        this.current = new Generation<>(factory.call(), 1, DRAINING);
+    }
+
+    /**
+     Lease of a generation, must be closed when the generation is not used
+     any more (try-with-resources).
+     */
+    public static final class Lease<L extends ClassLoader & Closeable> implements AutoCloseable {
+
+        private final Generation<L> generation;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(Generation<L> generation) {
+            this.generation = generation;
+        }
+
+        public L getLoader() {
+            return generation.loader;
+        }
+
+        /**
+         @return number of the generation, the first one is 1
+         */
+        public long getGeneration() {
+            return generation.number;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true) == true) {
+                generation.release();
+            }
+        }
+    }
+
+    /**
+     Lease the current generation.
+     @return the lease of the current generation
+     @throws IllegalStateException Thrown when the registry is closed
+     */
+    public Lease<L> acquire() {
+        while (true) {
+            if (closed == true) {
+                throw new IllegalStateException("The registry is closed.");
+            }
+            Generation<L> generation = current;
+            if (generation.retain() == true) {
+                return new Lease<>(generation);
+            }
+            // replaced and drained between the read and the retain
+        }
+    }
+
+    /**
+     @return the class loader of the current generation, without a lease; it
+     may be closed any time after a reload
+     */
+    public L getCurrent() {
+        return current.loader;
+    }
+
+    /**
+     @return number of the current generation
+     */
+    public long getGeneration() {
+        return current.number;
+    }
+
+    /**
+     @return number of the replaced generations not closed yet (leased)
+     */
+    public int getDraining() {
+        return DRAINING.size();
+    }
+
+    /**
+     Build the next generation in the background and make it current. The
+     current generation is kept if the factory fails.
+     @return the future of the new generation number
+     */
+    public CompletableFuture<Long> reload() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                synchronized (reloadLock) {
+                    return swap(factory.call());
+                }
+            } catch (Exception e) {
+                logger.error("Next generation not built: " + e.toString());
+                throw new CompletionException(e);
+            }
+        }, AsyncLoading.executor());
+    }
+
+    /**
+     Make the class loader the current generation. The replaced generation is
+     closed when its leases are closed.
+     @param loader the next generation
+     @return the number of the new generation
+     @throws IllegalStateException Thrown when the registry is closed, the
+     loader is closed then
+     */
+    public long swap(L loader) {
+        Generation<L> previous;
+        Generation<L> next;
+        synchronized (reloadLock) {
+            if (closed == true) {
+                close(loader);
+                throw new IllegalStateException("The registry is closed.");
+            }
+            previous = current;
+            next = new Generation<>(loader, previous.number + 1, DRAINING);
+            DRAINING.add(previous);
+            current = next;
+        }
+        logger.debug("Generation " + next.number + " is current, generation " + previous.number + " is draining.");
+        previous.release();
+        return next.number;
+    }
+
+    /**
+     Close the current generation. The replaced generations are closed when
+     their leases are closed.
+     */
+    @Override
+    public void close() {
+        Generation<L> last;
+        synchronized (reloadLock) {
+            if (closed == true) {
+                return;
+            }
+            closed = true;
+            last = current;
+            DRAINING.add(last);
+        }
+        last.release();
+    }
+
+    private static void close(Closeable loader) {
+        try {
+            loader.close();
+        } catch (IOException e) {
+            logger.error(e.toString());
+        }
+    }
+
+    /**
+     Generation of the class loader. The registry holds one reference while
+     the generation is current, each lease holds one.
+     */
+    private static final class Generation<T extends ClassLoader & Closeable> {
+
+        private final T loader;
+        private final long number;
+        private final List<Generation<T>> draining;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        private Generation(T loader, long number, List<Generation<T>> draining) {
+            this.loader = loader;
+            this.number = number;
+            this.draining = draining;
+        }
+
+        private boolean retain() {
+            while (true) {
+                int count = refs.get();
+                if (count <= 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(count, count + 1) == true) {
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            if (refs.decrementAndGet() == 0) {
+                draining.remove(this);
+                logger.debug("Generation " + number + " drained, closed.");
+                close(loader);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.*;
+
+/**
+ Scheduler compiling independent groups of java sources in parallel (see
+ {@link JavaRTCompiler#compile(Map, String[])}).
+ <p>
+ The sources added with a module name are compiled as one group per module.
+ The sources added without a module are partitioned by their references:
+ the sources of the same package and the sources referring to each other
+ (imports, fully qualified names) are in the same group. The groups are
+ compiled concurrently on a bounded pool and the classes of each group are
+ handed over to the sink as soon as the group is compiled, ex.:
+ <pre>
+ CompileScheduler scheduler = new CompileScheduler(4);
+ scheduler.add(new File("/opt/rules/pricing/Rule.java"));
+ scheduler.add("discounts", new File("/opt/rules/discounts/Discount.java"));
+ childClassLoader.addJava(scheduler).join();
+ </pre>
+ The groups of the declared modules must not refer to each other, each group
+ is compiled against the class path only.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public class CompileScheduler implements Closeable {
+
+    private final static Logger logger = LoggerFactory.getLogger(CompileScheduler.class);
+    private final static Pattern COMMENTS = Pattern.compile("//[^\\n]*|/\\*.*?\\*/|\"(?:\\\\.|[^\"\\\\])*\"|'(?:\\\\.|[^'\\\\])*'", Pattern.DOTALL);
+    private final static Pattern PACKAGE = Pattern.compile("\\bpackage\\s+([\\w.]+)\\s*;");
+    private final static Pattern QUALIFIED = Pattern.compile("[A-Za-z_$][\\w$]*(?:\\s*\\.\\s*[A-Za-z_$*][\\w$]*)+");
+
+    private final ExecutorService pool;
+    private final Map<String, Source> sources = new LinkedHashMap<>();
+    private String[] extraLib = null;
+
+    /**
+     @param threads maximal number of groups compiled at the same time
+     */
+    public CompileScheduler(int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "jcl-javac-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     Scheduler with one thread per processor.
+     */
+    public CompileScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     @param extraLib additional libraries path of the compilation
+     */
+    public synchronized void setExtraLib(String[] extraLib) {
+        this.extraLib = (extraLib == null) ? null : extraLib.clone();
+    }
+
+    /**
+     Add the java source file, its group is found by its references.
+     @param file java source file
+     @throws IOException
+     */
+    public void add(File file) throws IOException {
+        add(null, file);
+    }
+
+    /**
+     Add the java source file to the module.
+     @param module module name, null to find the group by the references
+     @param file java source file
+     @throws IOException
+     */
+    public void add(String module, File file) throws IOException {
+        String code = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        String className = file.getName();
+        if (className.endsWith(CONST.JAVA_SUFFIX) == true) {
+            className = className.substring(0, className.length() - CONST.JAVA_SUFFIX.length());
+        }
+        Matcher matcher = PACKAGE.matcher(strip(code));
+        if (matcher.find() == true) {
+            className = matcher.group(1) + CONST.DOT + className;
+        }
+        add(module, className, code);
+    }
+
+    /**
+     Add the java source code. A source added before under the same class name
+     is replaced.
+     @param module module name, null to find the group by the references
+     @param className binary name of the class (ex.: cz.b2b.rules.Pricing)
+     @param code source code
+     */
+    public synchronized void add(String module, String className, CharSequence code) {
+        sources.put(className, new Source(module, className, code.toString()));
+    }
+
+    /**
+     @param className binary name of the class
+     @return true if the source was removed
+     */
+    public synchronized boolean remove(String className) {
+        return sources.remove(className) != null;
+    }
+
+    public synchronized void clear() {
+        sources.clear();
+    }
+
+    public synchronized int size() {
+        return sources.size();
+    }
+
+    /**
+     @return the groups of the sources compiled together, binary class names
+     in each group
+     */
+    public synchronized List<Set<String>> getGroups() {
+        List<Set<String>> groups = new ArrayList<>();
+        for (List<Source> group : partition(new ArrayList<>(sources.values()))) {
+            Set<String> names = new TreeSet<>();
+            for (Source source : group) {
+                names.add(source.className);
+            }
+            groups.add(names);
+        }
+        return groups;
+    }
+
+    /**
+     Compile all added sources. The groups are compiled in parallel, the
+     classes of each compiled group are passed to the sink (on the thread of
+     the pool).
+     @param sink takes the byte code by binary name of each compiled group
+     @return the future of the byte code of all classes, completed
+     exceptionally by the first failed group; the other groups are compiled
+     and passed to the sink anyway
+     */
+    public CompletableFuture<Map<String, byte[]>> compile(final Consumer<Map<String, byte[]>> sink) {
+        final List<List<Source>> groups;
+        final String[] lib;
+        synchronized (this) {
+            groups = partition(new ArrayList<>(sources.values()));
+            lib = extraLib;
+        }
+        logger.debug("Compiling " + groups.size() + " groups of sources.");
+
+        final Map<String, byte[]> all = Collections.synchronizedMap(new TreeMap<>());
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[groups.size()];
+        for (int i = 0; i < tasks.length; i++) {
+            final List<Source> group = groups.get(i);
+            tasks[i] = CompletableFuture.runAsync(() -> {
+                Map<String, String> code = new LinkedHashMap<>();
+                for (Source source : group) {
+                    code.put(source.className, source.code);
+                }
+                Map<String, byte[]> classes;
+                try {
+                    classes = JavaRTCompiler.compile(code, lib);
+                } catch (IOException e) {
+                    logger.error("Group " + code.keySet() + " not compiled: " + e.getMessage());
+                    throw new CompletionException(e);
+                }
+                if (sink != null) {
+                    sink.accept(classes);
+                }
+                all.putAll(classes);
+            }, pool);
+        }
+        return CompletableFuture.allOf(tasks).thenApply(ignored -> all);
+    }
+
+    /**
+     Stop the threads of the pool, the running compilations are finished.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     Union of the sources of the same module, package or with references to
+     each other.
+     */
+    private static List<List<Source>> partition(List<Source> list) {
+        int[] parent = new int[list.size()];
+        Map<String, Integer> byName = new HashMap<>();
+        Map<String, Integer> byModule = new HashMap<>();
+        Map<String, Integer> byPackage = new HashMap<>();
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+            Source source = list.get(i);
+            byName.put(source.className, i);
+            if (source.module != null) {
+                Integer first = byModule.putIfAbsent(source.module, i);
+                if (first != null) {
+                    union(parent, first, i);
+                }
+            }
+        }
+        for (int i = 0; i < parent.length; i++) {
+            Source source = list.get(i);
+            if (source.module != null) {
+                continue;
+            }
+            Integer first = byPackage.putIfAbsent(source.packageName(), i);
+            if (first != null) {
+                union(parent, first, i);
+            }
+        }
+        for (int i = 0; i < parent.length; i++) {
+            Source source = list.get(i);
+            if (source.module != null) {
+                continue;
+            }
+            for (String name : source.references()) {
+                Integer target = byName.get(name);
+                if (target == null && name.endsWith(".*") == true) {
+                    target = byPackage.get(name.substring(0, name.length() - 2));
+                }
+                if (target != null && list.get(target).module == null) {
+                    union(parent, i, target);
+                }
+            }
+        }
+
+        Map<Integer, List<Source>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < parent.length; i++) {
+            groups.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(list.get(i));
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        parent[find(parent, a)] = find(parent, b);
+    }
+
+    /**
+     @return the code without comments and literals
+     */
+    private static String strip(String code) {
+        return COMMENTS.matcher(code).replaceAll(" ");
+    }
+
+    /**
+     Added source.
+     */
+    private static class Source {
+
+        private final String module;
+        private final String className;
+        private final String code;
+
+        private Source(String module, String className, String code) {
+            this.module = module;
+            this.className = className;
+            this.code = code;
+        }
+
+        private String packageName() {
+            int dot = className.lastIndexOf(CONST.DOT);
+            return (dot < 0) ? CONST.EMPTY : className.substring(0, dot);
+        }
+
+        /**
+         @return qualified names used by the source and their prefixes (the
+         outer class of a nested one, the class of a static import), names of
+         the package for the simple names
+         */
+        private Set<String> references() {
+            Set<String> names = new HashSet<>();
+            String stripped = strip(code);
+            Matcher matcher = QUALIFIED.matcher(stripped);
+            while (matcher.find() == true) {
+                String name = matcher.group().replaceAll("\\s+", CONST.EMPTY);
+                names.add(name);
+                int dot;
+                while ((dot = name.lastIndexOf(CONST.DOT)) > 0) {
+                    name = name.substring(0, dot);
+                    names.add(name);
+                    names.add(name + ".*");
+                }
+            }
+            return names;
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.*;
+
+/**
+ Class loader over many sources (ex.: CacheClassLoader and JdbcClassLoader
+ instances) which routes each class and resource directly to the sources
+ owning its package.
+ <p>
+ The routing table (package directory to sources) is built from the
+ listings of the sources (see {@link ResourceListing}), a lookup is one hash
+ map lookup regardless of the number of sources. A class of a package no
+ source owns fails without asking any source. A package split between more
+ sources is routed to them in the order they were added.
+ <p>
+ The sources may have this class loader as their parent, so the classes of
+ one source see the classes of the others. The delegation of a routed source
+ back to this class loader fails fast, the source then defines the class
+ itself.
+ <p>
+ The table is built when a source is added, the classes and resources added
+ to a source later are routed after {@link #refresh()}.
+ <p>
+ Example of usage:
+ <pre>
+ CompositeClassLoader composite = new CompositeClassLoader(Thread.currentThread().getContextClassLoader());
+ CacheClassLoader plugins = new CacheClassLoader(composite);
+ plugins.addDir("/opt/app/plugins");
+ JdbcClassLoader rules = new JdbcClassLoader(composite);
+ rules.setConnection(driver, dbUrl, table, username, password);
+ composite.addSource(plugins);
+ composite.addSource(rules);
+ Class&#60;?&#62; rule = Class.forName("cz.b2b.rules.Main", true, composite);
+ </pre>
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public class CompositeClassLoader extends ClassLoader implements ResourceListing {
+
+    private final static Logger logger = LoggerFactory.getLogger(CompositeClassLoader.class);
+    private final static URLClassLoader[] NONE = new URLClassLoader[0];
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final List<URLClassLoader> sources = new CopyOnWriteArrayList<>();
+    /**
+     Package directory (ex.: cz/b2b/jcl/) to its sources, replaced as a whole.
+     */
+    private volatile Map<String, URLClassLoader[]> routes = Collections.emptyMap();
+    /**
+     Class names routed by the current thread, the delegation of the source
+     back to this class loader must not route them again.
+     */
+    private final ThreadLocal<Set<String>> ROUTING = ThreadLocal.withInitial(HashSet::new);
+
+    /**
+     @param parent the parent class loader for delegation
+     */
+    public CompositeClassLoader(ClassLoader parent) {
+        super(parent);
+    }
+
+    /**
+     Add the source and route its packages to it.
+     @param source class loader listing its classes and resources
+     */
+    public synchronized <S extends URLClassLoader & ResourceListing> void addSource(S source) {
+        sources.add(source);
+        Map<String, URLClassLoader[]> table = new HashMap<>(routes);
+        route(table, source);
+        routes = table;
+    }
+
+    /**
+     Remove the source, its packages are not routed to it any more.
+     @param source class loader added before
+     @return true if the source was removed
+     */
+    public synchronized boolean removeSource(URLClassLoader source) {
+        if (sources.remove(source) == false) {
+            return false;
+        }
+        refresh();
+        return true;
+    }
+
+    /**
+     @return the sources in the order they were added
+     */
+    public List<URLClassLoader> getSources() {
+        return Collections.unmodifiableList(sources);
+    }
+
+    /**
+     Build the routing table again from the listings of all sources.
+     */
+    public synchronized void refresh() {
+        Map<String, URLClassLoader[]> table = new HashMap<>();
+        for (URLClassLoader source : sources) {
+            route(table, source);
+        }
+        routes = table;
+    }
+
+    /**
+     @param name resource name (ex.: cz/b2b/jcl/RAM/resource/Test.class)
+     @return the sources owning the package of the class or resource, empty
+     array if no source owns it
+     */
+    public URLClassLoader[] getRoute(String name) {
+        URLClassLoader[] route = routes.get(directory(name));
+        return (route == null) ? NONE : route.clone();
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (ROUTING.get().contains(name) == true) {
+            // delegation of the routed source back here, the parent was asked already
+            throw new ClassNotFoundException(name);
+        }
+        return super.loadClass(name, resolve);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        URLClassLoader[] route = routes.get(directory(name.replace(CONST.DOT, CONST.baseURI)));
+        if (route == null) {
+            throw new ClassNotFoundException(name);
+        }
+        Set<String> routing = ROUTING.get();
+        routing.add(name);
+        try {
+            for (URLClassLoader source : route) {
+                try {
+                    return source.loadClass(name);
+                } catch (ClassNotFoundException e) {
+                    logger.debug("Class " + name + " not found in " + source);
+                }
+            }
+        } finally {
+            routing.remove(name);
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        URLClassLoader[] route = routes.get(directory(name));
+        if (route == null) {
+            return null;
+        }
+        for (URLClassLoader source : route) {
+            URL url = source.findResource(name);
+            if (url != null) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) throws IOException {
+        URLClassLoader[] route = routes.get(directory(name));
+        if (route == null) {
+            return Collections.emptyEnumeration();
+        }
+        List<URL> urls = new ArrayList<>();
+        for (URLClassLoader source : route) {
+            urls.addAll(Collections.list(source.findResources(name)));
+        }
+        return Collections.enumeration(urls);
+    }
+
+    /**
+     Lists the classes and resources of all sources.
+     */
+    @Override
+    public List<String> listResources(String prefix) {
+        Set<String> names = new TreeSet<>();
+        for (URLClassLoader source : sources) {
+            names.addAll(((ResourceListing) source).listResources(prefix));
+        }
+        return new ArrayList<>(names);
+    }
+
+    private static void route(Map<String, URLClassLoader[]> table, URLClassLoader source) {
+        Set<String> directories = new HashSet<>();
+        for (String name : ((ResourceListing) source).listResources(CONST.EMPTY)) {
+            directories.add(directory(name));
+        }
+        for (String directory : directories) {
+            URLClassLoader[] route = table.get(directory);
+            if (route == null) {
+                table.put(directory, new URLClassLoader[]{source});
+            } else {
+                URLClassLoader[] extended = Arrays.copyOf(route, route.length + 1);
+                extended[route.length] = source;
+                table.put(directory, extended);
+            }
+        }
+        logger.debug("Source " + source + " routed, packages = " + directories.size());
+    }
+
+    /**
+     @return directory of the resource name (ex.: cz/b2b/jcl/ for
+     cz/b2b/jcl/Test.class), empty string for the root
+     */
+    private static String directory(String name) {
+        if (name.startsWith(CONST.baseURI) == true) {
+            name = name.substring(CONST.baseURI.length());
+        }
+        int slash = name.lastIndexOf(CONST.baseURI);
+        return (slash < 0) ? CONST.EMPTY : name.substring(0, slash + 1);
+    }
+
+}
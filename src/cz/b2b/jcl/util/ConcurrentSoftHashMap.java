@@ -8,14 +8,19 @@ import java.util.*;
 import java.lang.ref.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.AbstractMap.SimpleImmutableEntry;
 
-public class ConcurrentSoftHashMap<K, V> extends AbstractMap {
+public class ConcurrentSoftHashMap<K, V> extends AbstractMap<K, V> {
 
     /**
      The internal HashMap that will hold the SoftReference.
      */
-    private final Map<Object, SoftReference> hash = new ConcurrentHashMap<>();
+    private final ConcurrentMap<K, SoftValue<K, V>> hash;
     /**
      The number of "hard" references to hold internally.
      */
@@ -23,24 +28,77 @@ public class ConcurrentSoftHashMap<K, V> extends AbstractMap {
     /**
      The FIFO list of hard references, order of last access.
      */
-    private final ConcurrentLinkedSetQueue hardCache = new ConcurrentLinkedSetQueue();
+    private final ConcurrentLinkedSetQueue<V> hardCache = new ConcurrentLinkedSetQueue<>();
     /**
      Reference queue for cleared SoftReference objects.
      */
-    private final ReferenceQueue queue = new ReferenceQueue();
+    private final ReferenceQueue<V> queue = new ReferenceQueue<>();
+    /**
+     Reference queue shared by all maps drained by the background reaper.
+     */
+    private static final ReferenceQueue<Object> sharedQueue = new ReferenceQueue<>();
+    /**
+     The shared background reaper, null when it is not running.
+     */
+    private static volatile Thread reaper = null;
+    /**
+     Cleared values of this map are drained by the background reaper.
+     */
+    private final boolean backgroundReaper;
+    /**
+     The number of entries removed because their value was garbage collected.
+     */
+    private final AtomicLong reclaimedEntries = new AtomicLong();
+    /**
+     The number of bytes of byte[] values removed because they were garbage
+     collected.
+     */
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    private Set<Map.Entry<K, V>> entrySet = null;
+    private Set<K> keySet = null;
+    private Collection<V> values = null;
 
-//    private final Thread checkRefQueue = new CheckRefQueue();
     public ConcurrentSoftHashMap(int hardSize) {
+        this(hardSize, false);
+    }
+
+    /**
+     @param hardSize The number of "hard" references to hold internally. If
+     equal -1 all references are still held internally.
+     @param backgroundReaper cleared values are removed by the shared daemon
+     thread instead of the caller threads (see {@link #startReaper()})
+     */
+    public ConcurrentSoftHashMap(int hardSize, boolean backgroundReaper) {
+        this(hardSize, backgroundReaper, new ConcurrentHashMap<>());
+    }
+
+    /**
+     @param hardSize The number of "hard" references to hold internally. If
+     equal -1 all references are still held internally.
+     @param backgroundReaper cleared values are removed by the shared daemon
+     thread instead of the caller threads (see {@link #startReaper()})
+     @param backing empty map that holds the references (ex.:
+     {@link RadixTreeMap})
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentSoftHashMap(int hardSize, boolean backgroundReaper, ConcurrentMap<K, ?> backing) {
+        if (backing.isEmpty() == false) {
+            throw new IllegalArgumentException("The backing map is not empty.");
+        }
+        hash = (ConcurrentMap<K, SoftValue<K, V>>) backing;
         HARD_SIZE = hardSize;
-        //    checkRefQueue.setDaemon(true);
-        //    checkRefQueue.start();        
+        this.backgroundReaper = backgroundReaper;
+        if (backgroundReaper == true) {
+            startReaper();
+        }
     }
 
     @Override
-    public Object get(Object key) {
-        Object result = null;
+    public V get(Object key) {
+        V result = null;
         // We get the SoftReference represented by that key
-        SoftReference soft_ref = hash.get(key);
+        SoftValue<K, V> soft_ref = hash.get(key);
         if (soft_ref != null) {
             // From the SoftReference we get the value, which can be
             // null if it was not in the map, or it was removed in
@@ -49,15 +107,9 @@ public class ConcurrentSoftHashMap<K, V> extends AbstractMap {
             if (result == null) {
                 // If the value has been garbage collected, remove the
                 // entry from the HashMap.
-                hash.remove(key);
+                expunge(soft_ref);
             } else {
-                // We now add this object to the beginning of the hard
-                // reference queue.  
-                hardCache.enqueue(result);
-                if (HARD_SIZE > -1 && hardCache.size() > HARD_SIZE) {
-                    // Remove the last entry if list longer than HARD_SIZE
-                    hardCache.dequeue();
-                }
+                hold(result);
             }
         }
         return result;
@@ -68,18 +120,19 @@ public class ConcurrentSoftHashMap<K, V> extends AbstractMap {
      a SoftValue object.
      @param key
      @param value
-     @return
+     @return the previous value, null if there was none or it was garbage
+     collected
      */
     @Override
-    public Object put(Object key, Object value) {
+    public V put(K key, V value) {
         processQueue(); // throw out garbage collected values first
-        return hash.put(key, new SoftValue(value, key, queue));
+        return valueOf(hash.put(key, new SoftValue<>(value, key, this)));
     }
 
     @Override
-    public Object remove(Object key) {
+    public V remove(Object key) {
         processQueue(); // throw out garbage collected values first
-        return hash.remove(key);
+        return valueOf(hash.remove(key));
     }
 
     @Override
@@ -87,7 +140,6 @@ public class ConcurrentSoftHashMap<K, V> extends AbstractMap {
         hardCache.clear();
         processQueue(); // throw out garbage collected values
         hash.clear();
-//        checkRefQueue.interrupt();
     }
 
     @Override
@@ -97,49 +149,348 @@ public class ConcurrentSoftHashMap<K, V> extends AbstractMap {
     }
 
     @Override
-    public boolean containsKey(Object key) {
+    public boolean isEmpty() {
         processQueue(); // throw out garbage collected values first
-        return hash.containsKey(key);
+        return hash.isEmpty();
     }
 
     @Override
-    public Set entrySet() {
-        Set<Map.Entry> entry = new HashSet<>();
-        Map.Entry simpleImmutableEntry = null;
-        Object result = null;
+    public boolean containsKey(Object key) {
+        SoftValue<K, V> soft_ref = hash.get(key);
+        if (soft_ref == null) {
+            return false;
+        }
+        if (soft_ref.get() == null) {
+            // expunge on read, the queue is left to put/remove/size
+            expunge(soft_ref);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            return false;
+        }
+        for (SoftValue<K, V> soft_ref : hash.values()) {
+            if (value.equals(soft_ref.get()) == true) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     The mapping function is called at most once per absent key, concurrent
+     callers for the same key wait for it, if compute of the backing map is
+     atomic (ConcurrentHashMap, RadixTreeMap). A value that has been garbage
+     collected counts as absent.
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        V result = get(key);
+        if (result != null) {
+            return result;
+        }
         processQueue(); // throw out garbage collected values first
-        for (Map.Entry<Object, SoftReference> item : hash.entrySet()) {
-            if (item == null) {
-                continue;
+        final List<V> strong = new ArrayList<>(1);
+        hash.compute(key, (k, soft_ref) -> {
+            // a retried compute keeps the value of the last call, the installed one
+            strong.clear();
+            V value = (soft_ref == null) ? null : soft_ref.get();
+            if (value != null) {
+                strong.add(value);
+                return soft_ref;
             }
-            Object key = item.getKey();
-            SoftReference soft_ref = item.getValue();
             if (soft_ref != null) {
-                result = soft_ref.get();
-                if (result == null) {
-                    hash.remove(key);
-                } else {
-                    simpleImmutableEntry = new SimpleImmutableEntry(key, result);
-                    entry.add(simpleImmutableEntry);
+                reclaimed(soft_ref);
+            }
+            value = mappingFunction.apply(k);
+            if (value == null) {
+                return null;
+            }
+            strong.add(value);
+            return new SoftValue<>(value, k, this);
+        });
+        if (strong.isEmpty() == true) {
+            return null;
+        }
+        result = strong.get(0);
+        hold(result);
+        return result;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        V result = computeIfAbsent(key, k -> value);
+        return (result == value) ? null : result;
+    }
+
+    /**
+     Iterates the underlying map directly, garbage collected values are
+     skipped.
+     */
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (SoftValue<K, V> soft_ref : hash.values()) {
+            V value = soft_ref.get();
+            if (value != null) {
+                action.accept(soft_ref.key, value);
+            }
+        }
+    }
+
+    /**
+     @return the number of entries removed because their value was garbage
+     collected
+     */
+    public long getReclaimedEntries() {
+        return reclaimedEntries.get();
+    }
+
+    /**
+     @return the number of bytes of byte[] values removed because they were
+     garbage collected
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    /**
+     The view is backed by the underlying ConcurrentHashMap and is weakly
+     consistent, garbage collected values are skipped. Entries are immutable.
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    return new SoftIterator<Map.Entry<K, V>>() {
+                        @Override
+                        Map.Entry<K, V> next(K key, V value) {
+                            return new SimpleImmutableEntry<>(key, value);
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    if (!(o instanceof Map.Entry)) {
+                        return false;
+                    }
+                    Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                    V value = ConcurrentSoftHashMap.this.get(e.getKey());
+                    return value != null && value.equals(e.getValue());
+                }
+
+                @Override
+                public boolean remove(Object o) {
+                    if (contains(o) == false) {
+                        return false;
+                    }
+                    ConcurrentSoftHashMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+                    return true;
+                }
+
+                @Override
+                public int size() {
+                    return ConcurrentSoftHashMap.this.size();
+                }
+
+                @Override
+                public void clear() {
+                    ConcurrentSoftHashMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     The view is backed by the underlying ConcurrentHashMap and is weakly
+     consistent, garbage collected values are skipped.
+     */
+    @Override
+    public Set<K> keySet() {
+        if (keySet == null) {
+            keySet = new AbstractSet<K>() {
+                @Override
+                public Iterator<K> iterator() {
+                    return new SoftIterator<K>() {
+                        @Override
+                        K next(K key, V value) {
+                            return key;
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return ConcurrentSoftHashMap.this.containsKey(o);
+                }
 
+                @Override
+                public boolean remove(Object o) {
+                    return ConcurrentSoftHashMap.this.remove(o) != null;
                 }
+
+                @Override
+                public int size() {
+                    return ConcurrentSoftHashMap.this.size();
+                }
+
+                @Override
+                public void clear() {
+                    ConcurrentSoftHashMap.this.clear();
+                }
+            };
+        }
+        return keySet;
+    }
+
+    /**
+     The view is backed by the underlying ConcurrentHashMap and is weakly
+     consistent, garbage collected values are skipped.
+     */
+    @Override
+    public Collection<V> values() {
+        if (values == null) {
+            values = new AbstractCollection<V>() {
+                @Override
+                public Iterator<V> iterator() {
+                    return new SoftIterator<V>() {
+                        @Override
+                        V next(K key, V value) {
+                            return value;
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return ConcurrentSoftHashMap.this.containsValue(o);
+                }
+
+                @Override
+                public int size() {
+                    return ConcurrentSoftHashMap.this.size();
+                }
+
+                @Override
+                public void clear() {
+                    ConcurrentSoftHashMap.this.clear();
+                }
+            };
+        }
+        return values;
+    }
+
+    /**
+     Iterator over the SoftValues of the underlying map. The SoftValue holds
+     its key, so no map entry is created. The next value is held strongly
+     between hasNext() and next().
+     */
+    private abstract class SoftIterator<E> implements Iterator<E> {
+
+        private final Iterator<SoftValue<K, V>> it = hash.values().iterator();
+        private SoftValue<K, V> nextRef = null;
+        private V nextValue = null;
+        private SoftValue<K, V> lastRef = null;
+
+        abstract E next(K key, V value);
+
+        @Override
+        public boolean hasNext() {
+            while (nextValue == null && it.hasNext() == true) {
+                SoftValue<K, V> soft_ref = it.next();
+                V value = soft_ref.get();
+                if (value == null) {
+                    expunge(soft_ref);
+                    continue;
+                }
+                nextRef = soft_ref;
+                nextValue = value;
             }
+            return nextValue != null;
+        }
 
+        @Override
+        public E next() {
+            if (hasNext() == false) {
+                throw new NoSuchElementException();
+            }
+            V value = nextValue;
+            lastRef = nextRef;
+            nextValue = null;
+            nextRef = null;
+            return next(lastRef.key, value);
         }
 
-        return entry;
+        /**
+         Removes the entry only if it still maps to the returned value, a
+         value put by another thread meanwhile is kept.
+         */
+        @Override
+        public void remove() {
+            if (lastRef == null) {
+                throw new IllegalStateException();
+            }
+            hash.remove(lastRef.key, lastRef);
+            lastRef = null;
+        }
+    }
+
+    /**
+     We now add this object to the beginning of the hard reference queue.
+     */
+    private void hold(V result) {
+        hardCache.enqueue(result);
+        if (HARD_SIZE > -1 && hardCache.size() > HARD_SIZE) {
+            // Remove the last entry if list longer than HARD_SIZE
+            hardCache.dequeue();
+        }
+    }
+
+    private V valueOf(SoftValue<K, V> soft_ref) {
+        return (soft_ref == null) ? null : soft_ref.get();
     }
 
-    private class ConcurrentLinkedSetQueue<E> extends ConcurrentLinkedQueue<E> {
+    /**
+     FIFO queue without duplicates. Membership and size are tracked aside, the
+     ConcurrentLinkedQueue contains() and size() traverse the whole queue.
+     */
+    private static class ConcurrentLinkedSetQueue<E> extends ConcurrentLinkedQueue<E> {
+
+        private final Set<E> members = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger count = new AtomicInteger();
 
         public void enqueue(E o) {
-            if (!contains(o)) {
+            if (members.add(o) == true) {
                 add(o);
+                count.incrementAndGet();
             }
         }
 
         public E dequeue() {
-            return poll();
+            E o = poll();
+            if (o != null) {
+                members.remove(o);
+                count.decrementAndGet();
+            }
+            return o;
+        }
+
+        @Override
+        public int size() {
+            return count.get();
+        }
+
+        @Override
+        public void clear() {
+            while (dequeue() != null) {
+            }
         }
 
     }
@@ -148,10 +499,14 @@ public class ConcurrentSoftHashMap<K, V> extends AbstractMap {
      We define our own subclass of SoftReference which contains
      not only the value but also the key to make it easier to find
      the entry in the HashMap after it's been garbage collected.
+     The owner and the size are kept for the shared queue and the
+     reclaimed statistics.
      */
-    private static class SoftValue extends SoftReference {
+    private static class SoftValue<K, V> extends SoftReference<V> {
 
-        private final Object key; // always make data member final
+        private final K key; // always make data member final
+        private final ConcurrentSoftHashMap<K, V> owner;
+        private final long bytes;
 
         /**
          Did you know that an outer class can access private data
@@ -161,46 +516,110 @@ public class ConcurrentSoftHashMap<K, V> extends AbstractMap {
          access private members of an inner class inside its inner
          class.
          */
-        private SoftValue(Object k, Object key, ReferenceQueue q) {
-            super(k, q);
+        @SuppressWarnings("unchecked")
+        private SoftValue(V k, K key, ConcurrentSoftHashMap<K, V> owner) {
+            super(k, owner.backgroundReaper == true ? (ReferenceQueue<V>) sharedQueue : owner.queue);
             this.key = key;
+            this.owner = owner;
+            this.bytes = (k instanceof byte[]) ? ((byte[]) k).length : 0;
         }
     }
 
+    /**
+     Remove the cleared value unless the key has been mapped to a new one
+     meanwhile.
+     */
+    private void expunge(SoftValue<K, V> sv) {
+        if (hash.remove(sv.key, sv) == true) {
+            reclaimed(sv);
+        }
+    }
+
+    private void reclaimed(SoftValue<K, V> sv) {
+        reclaimedEntries.incrementAndGet();
+        reclaimedBytes.addAndGet(sv.bytes);
+    }
+
     /**
      Here we go through the ReferenceQueue and remove garbage
      collected SoftValue objects from the HashMap by looking them
      up using the SoftValue.key data member.
+     <p>
+     Maps using the background reaper have nothing in their own queue, the
+     shared queue is drained here only while the reaper is stopped.
      */
+    @SuppressWarnings("unchecked")
     private void processQueue() {
-        SoftValue sv;
-        while ((sv = (SoftValue) queue.poll()) != null) {
-            hash.remove(sv.key); // we can access private data!
+        SoftValue<K, V> sv;
+        while ((sv = (SoftValue<K, V>) queue.poll()) != null) {
+            expunge(sv); // we can access private data!
+        }
+        if (backgroundReaper == true && isReaperRunning() == false) {
+            SoftValue<?, ?> shared;
+            while ((shared = (SoftValue<?, ?>) sharedQueue.poll()) != null) {
+                shared.owner.expungeShared(shared);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expungeShared(SoftValue<?, ?> sv) {
+        expunge((SoftValue<K, V>) sv);
+    }
+
+    /**
+     Start the shared daemon thread removing garbage collected values of all
+     maps created with the backgroundReaper flag. It is started automatically
+     by such a map, calling it again has no effect.
+     */
+    public static synchronized void startReaper() {
+        if (reaper != null) {
+            return;
         }
+        reaper = new CheckRefQueue();
+        reaper.setDaemon(true);
+        reaper.start();
     }
 
-    /*
-    private class CheckRefQueue extends Thread {
+    /**
+     Stop the shared daemon thread. The maps keep working, garbage collected
+     values are then removed by the caller threads again.
+     */
+    public static synchronized void stopReaper() {
+        if (reaper == null) {
+            return;
+        }
+        reaper.interrupt();
+        reaper = null;
+    }
+
+    /**
+     @return true if the shared daemon thread is running
+     */
+    public static boolean isReaperRunning() {
+        return reaper != null;
+    }
+
+    private static class CheckRefQueue extends Thread {
+
+        private CheckRefQueue() {
+            super("ConcurrentSoftHashMap-reaper");
+        }
 
         @Override
         public void run() {
-            while (true) {
-                if (queue != null) {
-                    SoftValue obj = null;
-                    try {
-                        obj = (SoftValue) queue.remove();
-
-                    } catch (InterruptedException e) {
-                        e.fillInStackTrace();
-                    }
+            while (isInterrupted() == false) {
+                SoftValue<?, ?> obj = null;
+                try {
+                    obj = (SoftValue<?, ?>) sharedQueue.remove();
+                } catch (InterruptedException e) {
+                    return;
+                }
 
-                    if (obj != null) {
-                        hash.remove(obj.key); // we can access private data!
-                        obj.clear();
-                    }
+                if (obj != null) {
+                    obj.owner.expungeShared(obj); // we can access private data!
                 }
             }
         }
     }
-     */
 }
@@ -0,0 +1,380 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import org.slf4j.*;
+
+/**
+ Incremental compiler of runtime java sources (see
+ {@link JavaRTCompiler#compile(Map, Map, String[])}).
+ <p>
+ The compiler keeps the sources, the compiled classes and a class level
+ dependency graph read from the constant pools of the compiled classes. Only
+ the changed sources are compiled again, against the classes compiled before.
+ The sources referring to a class whose ABI has changed (the class, its
+ superclass, interfaces, annotations and the non-private fields and methods
+ including the constant values) or to a removed class are compiled in the next
+ round, until no ABI changes. A changed body of a method does not compile any
+ other source.
+ <p>
+ The state is changed only when all rounds are compiled, a failed compilation
+ keeps the previous classes. The compiled classes are typically loaded by a
+ new class loader generation, ex.:
+ <pre>
+ IncrementalCompiler compiler = new IncrementalCompiler(null);
+ compiler.compile(Collections.singletonMap("rules.Rule", code), Collections.emptySet());
+ CacheClassLoader loader = new CacheClassLoader(parent);
+ for (Map.Entry&#60;String, byte[]&#62; item : compiler.getClasses().entrySet()) {
+     loader.addClass(item.getKey(), item.getValue());
+ }
+ registry.swap(loader);
+ </pre>
+ Sources are named by the binary name of their public top-level class
+ (ex.: cz.b2b.jcl.RAM.resource.Test).
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public class IncrementalCompiler {
+
+    private final static Logger logger = LoggerFactory.getLogger(IncrementalCompiler.class);
+    private final static String HASH_ALGORITHM = "SHA-256";
+    private final static int ACC_PRIVATE = 0x0002;
+    private final static int ACC_SYNTHETIC = 0x1000;
+
+    private final String[] extraLib;
+    private Map<String, CharSequence> sources = new HashMap<>();
+    private Map<String, String> hashes = new HashMap<>();
+    private Map<String, Set<String>> outputs = new HashMap<>();
+    private Map<String, byte[]> classes = new HashMap<>();
+    private Map<String, Info> infos = new HashMap<>();
+
+    /**
+     Result of one incremental compilation.
+     */
+    public static final class Result {
+
+        private final Map<String, byte[]> compiled;
+        private final Set<String> removed;
+        private final Set<String> recompiled;
+
+        private Result(Map<String, byte[]> compiled, Set<String> removed, Set<String> recompiled) {
+            this.compiled = Collections.unmodifiableMap(compiled);
+            this.removed = Collections.unmodifiableSet(removed);
+            this.recompiled = Collections.unmodifiableSet(recompiled);
+        }
+
+        /**
+         @return byte code of the compiled classes by binary name
+         */
+        public Map<String, byte[]> getCompiled() {
+            return compiled;
+        }
+
+        /**
+         @return binary names of the classes no longer produced by the sources
+         */
+        public Set<String> getRemoved() {
+            return removed;
+        }
+
+        /**
+         @return names of the compiled sources (the changed sources and their
+         dependents)
+         */
+        public Set<String> getRecompiledSources() {
+            return recompiled;
+        }
+
+        @Override
+        public String toString() {
+            return "compiled " + compiled.size() + " classes of " + recompiled.size() + " sources, removed " + removed.size() + " classes";
+        }
+    }
+
+    /**
+     ABI and references of one compiled class.
+     */
+    private static final class Info {
+
+        private final String abi;
+        private final List<String> supers = new ArrayList<>();
+        private final Set<String> references;
+
+        private Info(ClassFileReader reader) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(Integer.toHexString(reader.getAccess())).append(' ').append(reader.getSuperName()).append(' ').append(reader.getInterfaces());
+            sb.append(' ').append(reader.getAnnotations()).append('\n');
+            for (ClassFileReader.Member member : reader.getMembers()) {
+                if ((member.getAccess() & (ACC_PRIVATE | ACC_SYNTHETIC)) != 0) {
+                    continue;
+                }
+                sb.append(member).append('\n');
+            }
+            this.abi = hash(sb);
+            if (reader.getSuperName() != null) {
+                supers.add(reader.getSuperName());
+            }
+            supers.addAll(reader.getInterfaces());
+            this.references = reader.getReferencedClasses();
+        }
+    }
+
+    /**
+     @param extraLib additional libraries path, may be null
+     */
+    public IncrementalCompiler(String[] extraLib) {
+        this.extraLib = extraLib;
+    }
+
+    /**
+     Compile the changed sources and all sources affected by the changes.
+     @param changed new or changed sources by name, sources with the same text
+     as before are skipped
+     @param removed names of the removed sources
+     @return the compiled and removed classes
+     @throws IOException Thrown when the compilation fails, the state is kept
+     */
+    public synchronized Result compile(Map<String, ? extends CharSequence> changed, Collection<String> removed) throws IOException {
+        Map<String, CharSequence> sources = new HashMap<>(this.sources);
+        Map<String, String> hashes = new HashMap<>(this.hashes);
+        Map<String, Set<String>> outputs = new HashMap<>(this.outputs);
+        Map<String, byte[]> classes = new HashMap<>(this.classes);
+        Map<String, Info> infos = new HashMap<>(this.infos);
+
+        Map<String, String> before = abi(infos);
+        for (String name : removed) {
+            sources.remove(name);
+            hashes.remove(name);
+            drop(outputs.remove(name), classes, infos);
+        }
+        Set<String> pending = new TreeSet<>();
+        for (Map.Entry<String, ? extends CharSequence> item : changed.entrySet()) {
+            String hash = hash(item.getValue());
+            if (hash.equals(hashes.get(item.getKey())) == true) {
+                continue;
+            }
+            sources.put(item.getKey(), item.getValue());
+            hashes.put(item.getKey(), hash);
+            pending.add(item.getKey());
+        }
+        pending.addAll(dependents(changes(before, abi(infos)), sources.keySet(), outputs, infos));
+
+        Set<String> recompiled = new TreeSet<>();
+        Map<String, byte[]> compiled = new TreeMap<>();
+        int rounds = 0;
+        while (pending.isEmpty() == false) {
+            rounds++;
+            before = abi(infos);
+            Map<String, CharSequence> batch = new HashMap<>();
+            for (String name : pending) {
+                batch.put(name, sources.get(name));
+                for (String className : drop(outputs.remove(name), classes, infos)) {
+                    compiled.remove(className);
+                }
+                outputs.put(name, new TreeSet<>());
+            }
+            logger.debug("Round " + rounds + ": compiling " + pending);
+            Map<String, byte[]> result = JavaRTCompiler.compile(batch, classes, extraLib);
+            for (Map.Entry<String, byte[]> item : result.entrySet()) {
+                ClassFileReader reader = new ClassFileReader(item.getValue());
+                String name = source(reader, pending);
+                if (pending.contains(name) == false) {
+                    // class of a source compiled in a previous round, ex.: a duplicate
+                    throw new IOException("Class " + item.getKey() + " does not belong to any compiled source.");
+                }
+                outputs.get(name).add(item.getKey());
+                classes.put(item.getKey(), item.getValue());
+                infos.put(item.getKey(), new Info(reader));
+                compiled.put(item.getKey(), item.getValue());
+            }
+            recompiled.addAll(pending);
+            Set<String> next = dependents(changes(before, abi(infos)), sources.keySet(), outputs, infos);
+            next.removeAll(pending);
+            if (rounds > sources.size()) {
+                throw new IOException("Compilation does not converge, sources " + next + " still affected.");
+            }
+            pending = next;
+        }
+
+        Set<String> dropped = new TreeSet<>(this.classes.keySet());
+        dropped.removeAll(classes.keySet());
+
+        this.sources = sources;
+        this.hashes = hashes;
+        this.outputs = outputs;
+        this.classes = classes;
+        this.infos = infos;
+        Result done = new Result(compiled, dropped, recompiled);
+        logger.debug("Incremental compilation in " + rounds + " rounds: " + done);
+        return done;
+    }
+
+    /**
+     @return byte code of all compiled classes by binary name
+     */
+    public synchronized Map<String, byte[]> getClasses() {
+        return Collections.unmodifiableMap(new TreeMap<>(classes));
+    }
+
+    /**
+     @return names of all sources
+     */
+    public synchronized Set<String> getSources() {
+        return Collections.unmodifiableSet(new TreeSet<>(sources.keySet()));
+    }
+
+    /**
+     @param className binary name of the class
+     @return names of the sources whose classes refer to the class
+     */
+    public synchronized Set<String> getDependents(String className) {
+        return dependents(Collections.singleton(className), sources.keySet(), outputs, infos);
+    }
+
+    /**
+     Remove the classes from the state.
+     @return the removed class names
+     */
+    private static Set<String> drop(Set<String> output, Map<String, byte[]> classes, Map<String, Info> infos) {
+        if (output == null) {
+            return Collections.emptySet();
+        }
+        for (String className : output) {
+            classes.remove(className);
+            infos.remove(className);
+        }
+        return output;
+    }
+
+    /**
+     Name of the source of the class, read from the SourceFile attribute.
+     */
+    private static String source(ClassFileReader reader, Set<String> pending) {
+        String className = reader.getClassName();
+        String sourceFile = reader.getSourceFile();
+        if (sourceFile != null && sourceFile.endsWith(CONST.JAVA_SUFFIX) == true) {
+            int dot = className.lastIndexOf(CONST.DOT);
+            String name = sourceFile.substring(0, sourceFile.length() - CONST.JAVA_SUFFIX.length());
+            name = (dot < 0) ? name : className.substring(0, dot + 1) + name;
+            if (pending.contains(name) == true) {
+                return name;
+            }
+        }
+        int nested = className.indexOf('$');
+        return (nested < 0) ? className : className.substring(0, nested);
+    }
+
+    /**
+     Effective ABI hashes of all classes, the ABI of a class includes the ABI of
+     its supertypes compiled here.
+     */
+    private static Map<String, String> abi(Map<String, Info> infos) {
+        Map<String, String> abi = new HashMap<>();
+        for (String className : infos.keySet()) {
+            abi(className, infos, abi);
+        }
+        return abi;
+    }
+
+    private static String abi(String className, Map<String, Info> infos, Map<String, String> abi) {
+        String hash = abi.get(className);
+        if (hash != null) {
+            return hash;
+        }
+        Info info = infos.get(className);
+        if (info == null) {
+            return null;
+        }
+        if (info.supers.isEmpty() == true) {
+            hash = info.abi;
+        } else {
+            StringBuilder sb = new StringBuilder(info.abi);
+            for (String name : info.supers) {
+                sb.append(' ').append(abi(name, infos, abi));
+            }
+            hash = hash(sb);
+        }
+        abi.put(className, hash);
+        return hash;
+    }
+
+    /**
+     @return names of the classes added, removed or with changed ABI
+     */
+    private static Set<String> changes(Map<String, String> before, Map<String, String> after) {
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, String> item : before.entrySet()) {
+            if (item.getValue().equals(after.get(item.getKey())) == false) {
+                changed.add(item.getKey());
+            }
+        }
+        for (String className : after.keySet()) {
+            if (before.containsKey(className) == false) {
+                changed.add(className);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     @return names of the sources whose classes refer to any of the classes
+     */
+    private static Set<String> dependents(Set<String> changed, Set<String> sources, Map<String, Set<String>> outputs, Map<String, Info> infos) {
+        Set<String> dependents = new TreeSet<>();
+        if (changed.isEmpty() == true) {
+            return dependents;
+        }
+        for (String name : sources) {
+            Set<String> output = outputs.get(name);
+            if (output == null) {
+                continue;
+            }
+            for (String className : output) {
+                Info info = infos.get(className);
+                if (info != null && Collections.disjoint(info.references, changed) == false) {
+                    dependents.add(name);
+                    break;
+                }
+            }
+        }
+        return dependents;
+    }
+
+    private static String hash(CharSequence text) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = md.digest(text.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+}
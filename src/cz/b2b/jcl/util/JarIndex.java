@@ -0,0 +1,837 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ Index of the entries of a jar file read from its central directory.
+ <p>
+ The entries are read on demand by positional reads of the jar file, there is
+ no sequential scan of the jar. No file handle and no memory mapping is held
+ between the reads, so the jar can be replaced or deleted while it is indexed;
+ the reads of an index whose jar file has changed (size or modification time)
+ fail with an IOException, a new index must be opened. Bulk reads of many
+ entries share one open file by a {@link Reader}. The index resolves:
+ <p>
+ - multi-release jars, the entries of META-INF/versions/N/ of the running
+ java version replace the base entries, the nested jars are multi-release by
+ their own manifest,
+ <p>
+ - fat jars, the entries of the class roots (BOOT-INF/classes/,
+ WEB-INF/classes/) and of the jars nested in BOOT-INF/lib/ and WEB-INF/lib/.
+ Nested jars stored without compression are read directly from the outer jar,
+ compressed ones are inflated into memory once.
+ <p>
+ When the same name is found more times, the entry of the jar itself wins, then
+ the class roots and then the nested jars in the order of the outer jar.
+ <p>
+ Entry names are without leading slash (ex.: cz/b2b/jcl/RAM/resource/Test.class).
+ Signatures are not verified, see {@link #isSigned()}.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public final class JarIndex {
+
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final String VERSIONS = "META-INF/versions/";
+    private static final String MULTI_RELEASE = "Multi-Release";
+    private static final String[] CLASS_ROOTS = {"BOOT-INF/classes/", "WEB-INF/classes/"};
+    private static final String[] LIB_ROOTS = {"BOOT-INF/lib/", "WEB-INF/lib/"};
+    private static final String JAR_SUFFIX = ".jar";
+
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOC_SIG = 0x07064b50;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int ZIP64_LOC_SIZE = 20;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    /**
+     The running java version, it selects the entries of multi-release jars.
+     */
+    public static final int RUNTIME_VERSION = runtimeVersion();
+
+    private final String name;
+    private final Zip zip;
+    private final boolean signed;
+    private final boolean multiRelease;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, List<String>> directories = new HashMap<>();
+    private volatile String[] sorted = null;
+
+    /**
+     Read the index of the jar file.
+
+     @param file jar file
+     @return the index of the jar
+     @throws IOException Thrown when the jar can not be read or is not a valid
+     zip file
+     */
+    public static JarIndex open(File file) throws IOException {
+        if (file.isFile() == false) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        long[] stamp = FileZip.stamp(file);
+        return new JarIndex(file.getPath(), new FileZip(file.getPath(), file, 0, stamp[0], stamp[0], stamp[1]));
+    }
+
+    /**
+     Read the index of the jar held in the buffer.
+
+     @param name name of the jar (for messages)
+     @param zip content of the jar, the buffer is not modified
+     @throws IOException Thrown when the content is not a valid zip file
+     */
+    public JarIndex(String name, ByteBuffer zip) throws IOException {
+        this(name, new BufferZip(name, zip));
+    }
+
+    private JarIndex(String name, Zip outer) throws IOException {
+        this.name = name;
+        this.zip = outer;
+        Map<String, Entry> raw = outer.entries();
+
+        boolean isSigned = false;
+        for (String entry : raw.keySet()) {
+            if (entry.startsWith("META-INF/") == true && entry.indexOf('/', 9) < 0
+                    && (entry.endsWith(".SF") == true || entry.endsWith(".sf") == true)) {
+                isSigned = true;
+                break;
+            }
+        }
+        this.signed = isSigned;
+        this.multiRelease = isMultiRelease(raw);
+
+        add(raw, CONST.EMPTY, multiRelease);
+        for (String root : CLASS_ROOTS) {
+            add(raw, root, multiRelease);
+        }
+        for (Entry entry : raw.values()) {
+            if (isNestedJar(entry.name) == false) {
+                continue;
+            }
+            Map<String, Entry> nested = entry.zip.nested(entry).entries();
+            add(nested, CONST.EMPTY, isMultiRelease(nested));
+        }
+
+        for (String entry : entries.keySet()) {
+            String directory = entry.substring(0, entry.lastIndexOf('/') + 1);
+            List<String> names = directories.get(directory);
+            if (names == null) {
+                names = new ArrayList<>();
+                directories.put(directory, names);
+            }
+            names.add(entry);
+        }
+    }
+
+    /**
+     @return name of the jar
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     @return true if the jar contains a signature file (META-INF/*.SF)
+     */
+    public boolean isSigned() {
+        return signed;
+    }
+
+    /**
+     @return true if the manifest declares Multi-Release: true
+     */
+    public boolean isMultiRelease() {
+        return multiRelease;
+    }
+
+    /**
+     @param name entry name (ex.: cz/b2b/jcl/RAM/resource/Test.class)
+     @return true if the entry exists
+     */
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     Read the entry.
+
+     @param name entry name (ex.: cz/b2b/jcl/RAM/resource/Test.class)
+     @return content of the entry, null if it does not exist
+     @throws IOException Thrown when the entry can not be read
+     */
+    public byte[] getBytes(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        return entry.zip.read(entry);
+    }
+
+    /**
+     Read the entry without copying it if possible.
+
+     @param name entry name (ex.: cz/b2b/jcl/RAM/resource/Test.class)
+     @return read-only heap buffer with the content of the entry, null if it
+     does not exist. The buffer of a jar file ({@link #open(File)}) is a copy,
+     it stays valid when the jar is replaced. The buffer of a stored entry of
+     an index over a buffer ({@link #JarIndex(String, ByteBuffer)}) is a view
+     of that buffer.
+     @throws IOException Thrown when the entry can not be read
+     */
+    public ByteBuffer getBuffer(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        return entry.zip.data(entry).asReadOnlyBuffer();
+    }
+
+    /**
+     Open the reader of many entries. The jar file is checked and opened once
+     for all reads of the reader, instead of once for each read.
+
+     @return reader to close after the reads
+     @throws IOException Thrown when the jar file has been changed or can not
+     be opened
+     */
+    public Reader reader() throws IOException {
+        return new Reader(zip.open());
+    }
+
+    /**
+     @return true if the index is valid, false if its jar file
+     ({@link #open(File)}) has been changed or deleted since it was indexed.
+     An index over a buffer is always valid.
+     */
+    public boolean isCurrent() {
+        return zip.current();
+    }
+
+    /**
+     @param name entry name (ex.: cz/b2b/jcl/RAM/resource/Test.class)
+     @return uncompressed size of the entry, -1 if it does not exist
+     */
+    public long getSize(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return -1;
+        }
+        return entry.size;
+    }
+
+    /**
+     @return names of all entries in the order of the jar, directories are
+     excluded
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     @param directory directory name ending with slash (ex.:
+     cz/b2b/jcl/RAM/resource/), empty string for the root
+     @return names of the entries directly in the directory
+     */
+    public List<String> getNames(String directory) {
+        List<String> names = directories.get(directory);
+        if (names == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     @param prefix name prefix (ex.: cz/b2b/jcl/ or META-INF/services/), empty
+     string for all entries
+     @return names of the entries starting with the prefix, in the order of
+     the names
+     */
+    public List<String> getNamesWithPrefix(String prefix) {
+        String[] names = sorted;
+        if (names == null) {
+            names = entries.keySet().toArray(new String[0]);
+            Arrays.sort(names);
+            sorted = names;
+        }
+        int from = Arrays.binarySearch(names, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        int to = from;
+        while (to < names.length && names[to].startsWith(prefix) == true) {
+            to++;
+        }
+        return Collections.unmodifiableList(Arrays.asList(names).subList(from, to));
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private void add(Map<String, Entry> raw, String root, boolean multiRelease) {
+        Set<String> added = new HashSet<>();
+        for (Entry entry : raw.values()) {
+            String entryName = entry.name;
+            if (entryName.startsWith(root) == false || entryName.endsWith("/") == true) {
+                continue;
+            }
+            entryName = entryName.substring(root.length());
+            if (entryName.startsWith(VERSIONS) == true || entryName.isEmpty() == true) {
+                continue;
+            }
+            if (entries.containsKey(entryName) == false) {
+                entries.put(entryName, entry);
+                added.add(entryName);
+            }
+        }
+        if (multiRelease == false) {
+            return;
+        }
+        for (int version = 9; version <= RUNTIME_VERSION; version++) {
+            String prefix = root + VERSIONS + version + "/";
+            for (Entry entry : raw.values()) {
+                if (entry.name.startsWith(prefix) == false || entry.name.endsWith("/") == true) {
+                    continue;
+                }
+                String entryName = entry.name.substring(prefix.length());
+                // a later root or nested jar must not override an earlier one
+                if (entries.containsKey(entryName) == false || added.contains(entryName) == true) {
+                    entries.put(entryName, entry);
+                    added.add(entryName);
+                }
+            }
+        }
+    }
+
+    private boolean isMultiRelease(Map<String, Entry> raw) throws IOException {
+        Entry entry = raw.get(MANIFEST);
+        if (entry == null) {
+            return false;
+        }
+        Manifest manifest = new Manifest(new ByteArrayInputStream(entry.zip.read(entry)));
+        Attributes attributes = manifest.getMainAttributes();
+        return "true".equalsIgnoreCase(attributes.getValue(MULTI_RELEASE));
+    }
+
+    private boolean isNestedJar(String entryName) {
+        if (entryName.endsWith(JAR_SUFFIX) == false) {
+            return false;
+        }
+        for (String root : LIB_ROOTS) {
+            if (entryName.startsWith(root) == true && entryName.indexOf('/', root.length()) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int runtimeVersion() {
+        String version = System.getProperty("java.specification.version", "1.8");
+        if (version.startsWith("1.") == true) {
+            version = version.substring(2);
+        }
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 8;
+        }
+    }
+
+    /**
+     Reader of many entries by one open jar file, see {@link #reader()}. The
+     jar file can not be replaced on Windows while the reader is open.
+     */
+    public final class Reader implements Closeable {
+
+        private final FileChannel channel;
+
+        private Reader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         Read the entry.
+
+         @param name entry name (ex.: cz/b2b/jcl/RAM/resource/Test.class)
+         @return content of the entry, null if it does not exist
+         @throws IOException Thrown when the entry can not be read
+         */
+        public byte[] getBytes(String name) throws IOException {
+            Entry entry = entries.get(name);
+            if (entry == null) {
+                return null;
+            }
+            return entry.zip.read(entry, channel);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final Zip zip;
+        private final String name;
+        private final int method;
+        private final long compressedSize;
+        private final long size;
+        private final long offset;
+        /**
+         Position of the compressed content, -1 until the local header is read.
+         */
+        private volatile long start = -1;
+
+        private Entry(Zip zip, String name, int method, long compressedSize, long size, long offset) {
+            this.zip = zip;
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     Reader of the zip central directory and entries.
+     */
+    private abstract static class Zip {
+
+        protected final String name;
+        /**
+         Bytes prepended before the zip content (ex.: launch script).
+         */
+        private long delta = 0;
+
+        private Zip(String name) {
+            this.name = name;
+        }
+
+        /**
+         @return size of the zip content
+         */
+        protected abstract long length();
+
+        /**
+         @return the bytes of the zip content at the position (little endian)
+         */
+        protected abstract ByteBuffer block(long pos, int length) throws IOException;
+
+        /**
+         @return the bytes of the zip content at the position read by the
+         channel of a reader (see {@link Reader}), the channel is null for
+         single reads
+         */
+        protected ByteBuffer block(long pos, int length, FileChannel channel) throws IOException {
+            return block(pos, length);
+        }
+
+        /**
+         @return the channel shared by the reads of a reader, null if the zip is
+         not in a file
+         */
+        protected FileChannel open() throws IOException {
+            return null;
+        }
+
+        /**
+         @return false if the zip file has been changed
+         */
+        protected boolean current() {
+            return true;
+        }
+
+        /**
+         @return true if the blocks are copies owned by the caller
+         */
+        protected abstract boolean copies();
+
+        /**
+         @return the zip stored without compression at the position
+         */
+        protected abstract Zip stored(String nestedName, long pos, long length) throws IOException;
+
+        private Map<String, Entry> entries() throws IOException {
+            long length = length();
+            int tail = (int) Math.min(length, END_SIZE + 0xFFFF);
+            if (tail < END_SIZE) {
+                throw new ZipFormatException(name, "end of central directory not found");
+            }
+            ByteBuffer last = block(length - tail, tail);
+            int relative = findEnd(last);
+            long end = length - tail + relative;
+            long count = u16(last, relative + 10);
+            long cenSize = u32(last, relative + 12);
+            long cenOffset = u32(last, relative + 16);
+            long cenEnd = end;
+
+            long locator = end - ZIP64_LOC_SIZE;
+            if (locator >= 0 && block(locator, ZIP64_LOC_SIZE).getInt(0) == ZIP64_LOC_SIG) {
+                long zip64End = locator - ZIP64_END_SIZE;
+                ByteBuffer header = (zip64End < 0) ? null : block(zip64End, ZIP64_END_SIZE);
+                if (header == null || header.getInt(0) != ZIP64_END_SIG) {
+                    throw new ZipFormatException(name, "invalid zip64 end header");
+                }
+                count = header.getLong(32);
+                cenSize = header.getLong(40);
+                cenOffset = header.getLong(48);
+                cenEnd = zip64End;
+            }
+            delta = cenEnd - cenSize - cenOffset;
+            if (delta < 0 || cenSize > Integer.MAX_VALUE) {
+                throw new ZipFormatException(name, "invalid central directory");
+            }
+
+            ByteBuffer cen = block(cenOffset + delta, (int) cenSize);
+            Map<String, Entry> out = new LinkedHashMap<>();
+            int pos = 0;
+            for (long i = 0; i < count; i++) {
+                check(cen, pos, 46);
+                if (cen.getInt(pos) != CEN_SIG) {
+                    throw new ZipFormatException(name, "invalid central directory header");
+                }
+                int method = u16(cen, pos + 10);
+                long compressedSize = u32(cen, pos + 20);
+                long size = u32(cen, pos + 24);
+                int nameLength = u16(cen, pos + 28);
+                int extraLength = u16(cen, pos + 30);
+                int commentLength = u16(cen, pos + 32);
+                long offset = u32(cen, pos + 42);
+
+                check(cen, pos + 46, nameLength + extraLength);
+                byte[] entryName = new byte[nameLength];
+                ByteBuffer b = cen.duplicate();
+                b.position(pos + 46);
+                b.get(entryName);
+
+                // zip64 extended information
+                int extra = pos + 46 + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = u16(cen, extra);
+                    int length64 = u16(cen, extra + 2);
+                    if (id == 0x0001) {
+                        int field = extra + 4;
+                        if (size == ZIP64_MAGIC) {
+                            size = cen.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == ZIP64_MAGIC) {
+                            compressedSize = cen.getLong(field);
+                            field += 8;
+                        }
+                        if (offset == ZIP64_MAGIC) {
+                            offset = cen.getLong(field);
+                        }
+                        break;
+                    }
+                    extra += 4 + length64;
+                }
+
+                String key = new String(entryName, StandardCharsets.UTF_8);
+                out.put(key, new Entry(this, key, method, compressedSize, size, offset));
+                pos += 46 + nameLength + extraLength + commentLength;
+            }
+            return out;
+        }
+
+        /**
+         @return position of the compressed content of the entry, the local
+         header is read on the first call only
+         */
+        private long start(Entry entry, FileChannel channel) throws IOException {
+            long start = entry.start;
+            if (start >= 0) {
+                return start;
+            }
+            ByteBuffer loc = block(entry.offset + delta, 30, channel);
+            if (loc.getInt(0) != LOC_SIG) {
+                throw new ZipFormatException(name, "invalid local header of " + entry.name);
+            }
+            start = entry.offset + delta + 30 + u16(loc, 26) + u16(loc, 28);
+            entry.start = start;
+            return start;
+        }
+
+        /**
+         @return the content of the entry
+         */
+        private ByteBuffer data(Entry entry) throws IOException {
+            return data(entry, null);
+        }
+
+        private ByteBuffer data(Entry entry, FileChannel channel) throws IOException {
+            if (entry.compressedSize > Integer.MAX_VALUE) {
+                throw new ZipFormatException(name, "entry too large " + entry.name);
+            }
+            ByteBuffer data = block(start(entry, channel), (int) entry.compressedSize, channel);
+            if (entry.method == STORED) {
+                return data;
+            }
+            return ByteBuffer.wrap(read(entry, data));
+        }
+
+        /**
+         @return the jar nested in the entry
+         */
+        private Zip nested(Entry entry) throws IOException {
+            String nestedName = name + "!/" + entry.name;
+            if (entry.method == STORED) {
+                return stored(nestedName, start(entry, null), entry.compressedSize);
+            }
+            return new BufferZip(nestedName, data(entry));
+        }
+
+        private byte[] read(Entry entry) throws IOException {
+            return read(entry, (FileChannel) null);
+        }
+
+        private byte[] read(Entry entry, FileChannel channel) throws IOException {
+            ByteBuffer data = data(entry, channel);
+            if (data.hasArray() == true && data.arrayOffset() == 0 && data.array().length == data.remaining()
+                    && (entry.method != STORED || copies() == true)) {
+                return data.array();
+            }
+            byte[] out = new byte[data.remaining()];
+            data.get(out);
+            return out;
+        }
+
+        private byte[] read(Entry entry, ByteBuffer data) throws IOException {
+            if (entry.method != DEFLATED) {
+                throw new ZipFormatException(name, "unsupported compression method " + entry.method + " of " + entry.name);
+            }
+            if (entry.size > Integer.MAX_VALUE) {
+                throw new ZipFormatException(name, "entry too large " + entry.name);
+            }
+            byte[] in = new byte[data.remaining()];
+            data.get(in);
+            byte[] out = new byte[(int) entry.size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(in);
+                int len = 0;
+                while (len < out.length) {
+                    int n = inflater.inflate(out, len, out.length - len);
+                    if (n == 0 && (inflater.finished() == true || inflater.needsInput() == true)) {
+                        break;
+                    }
+                    len += n;
+                }
+                if (len != out.length) {
+                    throw new ZipFormatException(name, "invalid size of " + entry.name);
+                }
+            } catch (DataFormatException e) {
+                throw new ZipFormatException(name, e.getMessage() + " in " + entry.name);
+            } finally {
+                inflater.end();
+            }
+            return out;
+        }
+
+        private int findEnd(ByteBuffer last) throws IOException {
+            for (int pos = last.limit() - END_SIZE; pos >= 0; pos--) {
+                if (last.getInt(pos) == END_SIG) {
+                    return pos;
+                }
+            }
+            throw new ZipFormatException(name, "end of central directory not found");
+        }
+
+        protected void check(long pos, long length) throws IOException {
+            if (pos < 0 || length < 0 || pos + length > length()) {
+                throw new ZipFormatException(name, "truncated zip file");
+            }
+        }
+
+        private void check(ByteBuffer buffer, int pos, int length) throws IOException {
+            if (pos < 0 || length < 0 || (long) pos + length > buffer.limit()) {
+                throw new ZipFormatException(name, "truncated zip file");
+            }
+        }
+
+        private static int u16(ByteBuffer buffer, int pos) {
+            return buffer.getShort(pos) & 0xFFFF;
+        }
+
+        private static long u32(ByteBuffer buffer, int pos) {
+            return buffer.getInt(pos) & 0xFFFFFFFFL;
+        }
+    }
+
+    /**
+     Zip held in a buffer, the blocks are views of the buffer.
+     */
+    private static class BufferZip extends Zip {
+
+        private final ByteBuffer buffer;
+
+        private BufferZip(String name, ByteBuffer zip) {
+            super(name);
+            this.buffer = zip.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        protected long length() {
+            return buffer.limit();
+        }
+
+        @Override
+        protected ByteBuffer block(long pos, int length) throws IOException {
+            check(pos, length);
+            ByteBuffer b = buffer.duplicate();
+            b.limit((int) pos + length);
+            b.position((int) pos);
+            return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        protected boolean copies() {
+            return false;
+        }
+
+        @Override
+        protected Zip stored(String nestedName, long pos, long length) throws IOException {
+            return new BufferZip(nestedName, block(pos, (int) length));
+        }
+    }
+
+    /**
+     Zip in a file (or its part), the blocks are read by positional reads. The
+     file is opened for each single read, so no handle is held by the index;
+     the reads of a reader share its channel.
+     */
+    private static class FileZip extends Zip {
+
+        private final File file;
+        private final long base;
+        private final long length;
+        private final long fileLength;
+        private final long lastModified;
+
+        private FileZip(String name, File file, long base, long length, long fileLength, long lastModified) {
+            super(name);
+            this.file = file;
+            this.base = base;
+            this.length = length;
+            this.fileLength = fileLength;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        protected long length() {
+            return length;
+        }
+
+        /**
+         @return length and modification time of the file by one stat
+         */
+        private static long[] stamp(File file) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return new long[]{attributes.size(), attributes.lastModifiedTime().toMillis()};
+        }
+
+        @Override
+        protected boolean current() {
+            try {
+                long[] stamp = stamp(file);
+                return stamp[0] == fileLength && stamp[1] == lastModified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        protected FileChannel open() throws IOException {
+            if (current() == false) {
+                throw new IOException(name + ": the jar file has been changed");
+            }
+            return new RandomAccessFile(file, "r").getChannel();
+        }
+
+        @Override
+        protected ByteBuffer block(long pos, int size) throws IOException {
+            try (FileChannel channel = open()) {
+                return block(pos, size, channel);
+            }
+        }
+
+        @Override
+        protected ByteBuffer block(long pos, int size, FileChannel channel) throws IOException {
+            if (channel == null) {
+                return block(pos, size);
+            }
+            check(pos, size);
+            ByteBuffer out = ByteBuffer.allocate(size);
+            while (out.hasRemaining() == true) {
+                if (channel.read(out, base + pos + out.position()) < 0) {
+                    throw new ZipFormatException(name, "truncated zip file");
+                }
+            }
+            out.flip();
+            return out.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        protected boolean copies() {
+            return true;
+        }
+
+        @Override
+        protected Zip stored(String nestedName, long pos, long size) throws IOException {
+            check(pos, size);
+            return new FileZip(nestedName, file, base + pos, size, fileLength, lastModified);
+        }
+    }
+
+    /**
+     Thrown when the content is not a valid zip file.
+     */
+    public static class ZipFormatException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private ZipFormatException(String name, String message) {
+            super(name + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.*;
+import org.slf4j.*;
+
+/**
+ Verification of signed jars done once per jar content.
+ <p>
+ All entries of the jar are read with signature verification (as by
+ JarInputStream), a digest not matching the signature fails the verification.
+ The SHA-256 hash of a verified jar is remembered for the life of the JVM, the
+ same jar (also a copy on another path or the jar added to another class
+ loader) is not verified again and its entries can be read without
+ verification (ex.: through {@link JarIndex}).
+ <p>
+ The hash of a jar file is cached by its path, length and time of the last
+ modification, a replaced jar is hashed and verified again.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public final class JarVerifier {
+
+    private final static Logger logger = LoggerFactory.getLogger(JarVerifier.class);
+    private final static String HASH_ALGORITHM = "SHA-256";
+
+    /**
+     Hashes of the verified jars.
+     */
+    private final static Set<String> VERIFIED = ConcurrentHashMap.newKeySet();
+    /**
+     Hashes of the jar files by path, length and last modification.
+     */
+    private final static Map<String, String> HASHES = new ConcurrentHashMap<>();
+
+    private JarVerifier() {
+    }
+
+    /**
+     Verify the signatures of all entries of the jar unless the jar of the same
+     content has been verified before.
+     @param jar jar file
+     @return SHA-256 hash of the jar file as hex string
+     @throws IOException Thrown when the jar can not be read
+     @throws SecurityException Thrown when an entry does not match its
+     signature
+     */
+    public static String verify(File jar) throws IOException {
+        String hash = hash(jar);
+        if (VERIFIED.contains(hash) == true) {
+            logger.debug("Jar " + jar + " verified before.");
+            return hash;
+        }
+        long start = System.nanoTime();
+        int entries = 0;
+        byte[] b = new byte[CONST.BUFFER_SIZE];
+        FileInputStream fis = null;
+        JarInputStream jis = null;
+        try {
+            fis = new FileInputStream(jar);
+            jis = new JarInputStream(new BufferedInputStream(fis), true);
+            JarEntry entry;
+            while ((entry = jis.getNextJarEntry()) != null) {
+                // the digest of the entry is checked when it is read to the end
+                while (jis.read(b) > 0) {
+                }
+                entries++;
+            }
+        } finally {
+            if (jis != null) {
+                jis.close();
+            }
+            if (fis != null) {
+                fis.close();
+            }
+        }
+        if (hash.equals(hash(jar)) == false) {
+            throw new IOException("Jar " + jar + " modified during the verification.");
+        }
+        VERIFIED.add(hash);
+        logger.debug("Jar " + jar + " verified, entries = " + entries + ", time = " + (System.nanoTime() - start) / 1000000 + " ms");
+        return hash;
+    }
+
+    /**
+     @param hash SHA-256 hash of the jar (see {@link #verify(File)})
+     @return true if the jar of the hash has been verified
+     */
+    public static boolean isVerified(String hash) {
+        return VERIFIED.contains(hash);
+    }
+
+    /**
+     Forget all verified jars.
+     */
+    public static void clear() {
+        VERIFIED.clear();
+        HASHES.clear();
+    }
+
+    /**
+     @return SHA-256 of the jar file, cached by its path, length and last
+     modification
+     */
+    private static String hash(File jar) throws IOException {
+        String key = jar.getAbsolutePath() + File.pathSeparator + jar.length() + File.pathSeparator + jar.lastModified();
+        String hash = HASHES.get(key);
+        if (hash != null) {
+            return hash;
+        }
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] b = new byte[CONST.BUFFER_SIZE];
+        int len;
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(jar);
+            while ((len = fis.read(b)) > 0) {
+                md.update(b, 0, len);
+            }
+        } finally {
+            if (fis != null) {
+                fis.close();
+            }
+        }
+        byte[] digest = md.digest();
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte d : digest) {
+            sb.append(Character.forDigit((d >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(d & 0xF, 16));
+        }
+        hash = sb.toString();
+        HASHES.put(key, hash);
+        return hash;
+    }
+
+}
@@ -98,7 +98,9 @@ public class JavaRTCompiler {
                     compilationUnits
             );
 
+            Object event = JclEvents.beginCompile();
             boolean success = task.call();
+            JclEvents.endCompile(event, java_file, success);
 
             if (!success) {
                 if (diagnostics.getDiagnostics() != null) {
@@ -121,6 +123,178 @@ public class JavaRTCompiler {
 
     }
 
+    /**
+     Compile the sources in memory, no file is written.
+
+     @param sources source code by binary class name (ex.:
+     cz.b2b.jcl.RAM.resource.Test), the sources may refer to each other
+     @param extraLib additional libraries path
+     @return byte code of all compiled classes (nested classes included) by
+     binary name
+     @throws IOException Thrown when the compilation fails, the message holds
+     the diagnostics
+     */
+    public static Map<String, byte[]> compile(Map<String, ? extends CharSequence> sources, String[] extraLib) throws IOException {
+        return compile(sources, Collections.<String, byte[]>emptyMap(), extraLib);
+    }
+
+    /**
+     Compile the sources in memory against the classes held in memory, no
+     file is written.
+
+     @param sources source code by binary class name, the sources may refer to
+     each other
+     @param classes byte code by binary name of the classes the sources may
+     refer to (ex.: classes compiled before), searched before the class path
+     @param extraLib additional libraries path
+     @return byte code of all compiled classes (nested classes included) by
+     binary name
+     @throws IOException Thrown when the compilation fails, the message holds
+     the diagnostics
+     */
+    public static Map<String, byte[]> compile(Map<String, ? extends CharSequence> sources, Map<String, byte[]> classes, String[] extraLib) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IOException("No system java compiler, the JDK is required.");
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        MemoryFileManager fileManager = new MemoryFileManager(compiler.getStandardFileManager(diagnostics, null, null), classes);
+        try {
+            fileManager.setLocation(StandardLocation.CLASS_PATH, classPath(extraLib));
+            List<JavaFileObject> compilationUnits = new ArrayList<>();
+            for (Map.Entry<String, ? extends CharSequence> source : sources.entrySet()) {
+                compilationUnits.add(new MemorySource(source.getKey(), source.getValue()));
+            }
+            JavaCompiler.CompilationTask task = compiler.getTask(
+                    null,
+                    fileManager,
+                    diagnostics,
+                    null,
+                    null,
+                    compilationUnits
+            );
+
+            Object event = JclEvents.beginCompile();
+            boolean success = task.call();
+            JclEvents.endCompile(event, sources.size() + " sources " + sources.keySet().iterator().next(), success);
+
+            if (!success) {
+                throw new IOException("Compilation failed: " + diagnostics.getDiagnostics());
+            }
+            Map<String, byte[]> compiled = new TreeMap<>();
+            for (Map.Entry<String, ByteArrayOutputStream> item : fileManager.output.entrySet()) {
+                compiled.put(item.getKey(), item.getValue().toByteArray());
+            }
+            return compiled;
+        } finally {
+            fileManager.close();
+        }
+    }
+
+    /**
+     Java source held in memory.
+     */
+    private static class MemorySource extends SimpleJavaFileObject {
+
+        private final CharSequence code;
+
+        private MemorySource(String className, CharSequence code) {
+            super(java.net.URI.create("string:///" + className.replace(CONST.DOT, CONST.baseURI) + CONST.JAVA_SUFFIX), Kind.SOURCE);
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+
+    /**
+     Class file held in memory.
+     */
+    private static class MemoryClass extends SimpleJavaFileObject {
+
+        private final String className;
+        private final byte[] code;
+
+        private MemoryClass(String className, byte[] code) {
+            super(java.net.URI.create("mem:///" + className.replace(CONST.DOT, CONST.baseURI) + CONST.CLASS_SUFFIX), Kind.CLASS);
+            this.className = className;
+            this.code = code;
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(code);
+        }
+    }
+
+    /**
+     File manager reading the classes from memory before the class path and
+     writing the class files to memory.
+     */
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        private final Map<String, ByteArrayOutputStream> output = new LinkedHashMap<>();
+        private final Map<String, List<JavaFileObject>> packages = new HashMap<>();
+
+        private MemoryFileManager(StandardJavaFileManager fileManager, Map<String, byte[]> classes) {
+            super(fileManager);
+            for (Map.Entry<String, byte[]> item : classes.entrySet()) {
+                String name = item.getKey();
+                int dot = name.lastIndexOf(CONST.DOT);
+                String packageName = (dot < 0) ? CONST.EMPTY : name.substring(0, dot);
+                packages.computeIfAbsent(packageName, k -> new ArrayList<>()).add(new MemoryClass(name, item.getValue()));
+            }
+        }
+
+        @Override
+        public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+            Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+            if (location != StandardLocation.CLASS_PATH || kinds.contains(JavaFileObject.Kind.CLASS) == false || packages.isEmpty() == true) {
+                return listed;
+            }
+            List<JavaFileObject> files = new ArrayList<>();
+            for (Map.Entry<String, List<JavaFileObject>> item : packages.entrySet()) {
+                String name = item.getKey();
+                if (name.equals(packageName) == true || (recurse == true && name.startsWith(packageName + CONST.DOT) == true)) {
+                    files.addAll(item.getValue());
+                }
+            }
+            for (JavaFileObject file : listed) {
+                files.add(file);
+            }
+            return files;
+        }
+
+        @Override
+        public String inferBinaryName(Location location, JavaFileObject file) {
+            if (file instanceof MemoryClass) {
+                return ((MemoryClass) file).className;
+            }
+            return super.inferBinaryName(location, file);
+        }
+
+        private void setLocation(StandardLocation location, Iterable<? extends java.io.File> path) throws IOException {
+            fileManager.setLocation(location, path);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, final String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+            if (kind != JavaFileObject.Kind.CLASS) {
+                return super.getJavaFileForOutput(location, className, kind, sibling);
+            }
+            return new SimpleJavaFileObject(java.net.URI.create("mem:///" + className.replace(CONST.DOT, CONST.baseURI) + CONST.CLASS_SUFFIX), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    output.put(className, out);
+                    return out;
+                }
+            };
+        }
+    }
+
     private static Iterable<? extends java.io.File> classPath(String[] extraLib) {
 
         List<java.io.File> out = new ArrayList<>();
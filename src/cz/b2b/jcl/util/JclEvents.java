@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import org.slf4j.*;
+
+/**
+ Java Flight Recorder events of the class loading I/O: cache lookups, jar
+ scans, SQL fetches of the class code, waits for a pooled DB connection and
+ runtime compilation. The events are in the category b2b-jcl of the
+ recording (ex.: jcmd PID JFR.start settings=profile, then enable the events
+ cz.b2b.jcl.*).
+ <p>
+ The events are emitted only when the JVM has the jdk.jfr module (JDK 11+,
+ JDK 8u262+) and the event is enabled in a running recording, otherwise a
+ call costs one field check. The events can be switched off by the system
+ property cz.b2b.jcl.jfr=false.
+ <p>
+ Each begin method returns the started event or null, the event is passed to
+ the end method of the same type.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public final class JclEvents {
+
+    private final static Logger logger = LoggerFactory.getLogger(JclEvents.class);
+    private final static boolean AVAILABLE = available();
+
+    private JclEvents() {
+    }
+
+    /**
+     @return true if the events are emitted to the running recordings
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    public static Object beginCacheLookup() {
+        return (AVAILABLE == true) ? JfrEvents.beginCacheLookup() : null;
+    }
+
+    /**
+     @param event the event of beginCacheLookup
+     @param name cache entry name
+     @param hit true if the entry was in the cache
+     @param bytes size of the entry, 0 if not found
+     */
+    public static void endCacheLookup(Object event, String name, boolean hit, long bytes) {
+        if (event != null) {
+            JfrEvents.endCacheLookup(event, name, hit, bytes);
+        }
+    }
+
+    public static Object beginJarScan() {
+        return (AVAILABLE == true) ? JfrEvents.beginJarScan() : null;
+    }
+
+    /**
+     @param event the event of beginJarScan
+     @param jar jar file
+     @param entry requested entry, null if the whole jar is loaded
+     @param skipped entries passed over
+     @param bytes bytes inflated into the cache
+     */
+    public static void endJarScan(Object event, String jar, String entry, int skipped, long bytes) {
+        if (event != null) {
+            JfrEvents.endJarScan(event, jar, entry, skipped, bytes);
+        }
+    }
+
+    public static Object beginJdbcFetch() {
+        return (AVAILABLE == true) ? JfrEvents.beginJdbcFetch() : null;
+    }
+
+    /**
+     @param event the event of beginJdbcFetch
+     @param table DB table
+     @param name URL file name of the class
+     @param bytes size of the fetched class code, 0 if not found
+     */
+    public static void endJdbcFetch(Object event, String table, String name, long bytes) {
+        if (event != null) {
+            JfrEvents.endJdbcFetch(event, table, name, bytes);
+        }
+    }
+
+    public static Object beginPoolCheckout() {
+        return (AVAILABLE == true) ? JfrEvents.beginPoolCheckout() : null;
+    }
+
+    /**
+     @param event the event of beginPoolCheckout
+     @param pool name of the connection pool (ex.: JDBC url)
+     */
+    public static void endPoolCheckout(Object event, String pool) {
+        if (event != null) {
+            JfrEvents.endPoolCheckout(event, pool);
+        }
+    }
+
+    public static Object beginCompile() {
+        return (AVAILABLE == true) ? JfrEvents.beginCompile() : null;
+    }
+
+    /**
+     @param event the event of beginCompile
+     @param file compiled source file
+     @param success true if compiled without errors
+     */
+    public static void endCompile(Object event, String file, boolean success) {
+        if (event != null) {
+            JfrEvents.endCompile(event, file, success);
+        }
+    }
+
+    private static boolean available() {
+        if ("false".equals(System.getProperty("cz.b2b.jcl.jfr")) == true) {
+            return false;
+        }
+        try {
+            Class.forName("jdk.jfr.Event", false, JclEvents.class.getClassLoader());
+            // the event classes are loaded only here and when available
+            return JfrEvents.register();
+        } catch (ClassNotFoundException | LinkageError e) {
+            logger.debug("JFR events not available: " + e.toString());
+            return false;
+        }
+    }
+
+}
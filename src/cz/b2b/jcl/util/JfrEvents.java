@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import jdk.jfr.*;
+
+/**
+ The JFR event types of {@link JclEvents}. The class is loaded only when the
+ jdk.jfr module is available. An event is allocated only when its type is
+ enabled in a running recording.
+ <p>
+ The build requires the jdk.jfr API: JDK 8u262 or later, or JDK 11 or later
+ with -source/-target 8 (not --release 8, whose API has no jdk.jfr).
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+final class JfrEvents {
+
+    private final static String CATEGORY = "b2b-jcl";
+    private static EventType CACHE_LOOKUP = null;
+    private static EventType JAR_SCAN = null;
+    private static EventType JDBC_FETCH = null;
+    private static EventType POOL_CHECKOUT = null;
+    private static EventType COMPILE = null;
+
+    private JfrEvents() {
+    }
+
+    static boolean register() {
+        FlightRecorder.register(CacheLookup.class);
+        FlightRecorder.register(JarScan.class);
+        FlightRecorder.register(JdbcFetch.class);
+        FlightRecorder.register(PoolCheckout.class);
+        FlightRecorder.register(Compile.class);
+        CACHE_LOOKUP = EventType.getEventType(CacheLookup.class);
+        JAR_SCAN = EventType.getEventType(JarScan.class);
+        JDBC_FETCH = EventType.getEventType(JdbcFetch.class);
+        POOL_CHECKOUT = EventType.getEventType(PoolCheckout.class);
+        COMPILE = EventType.getEventType(Compile.class);
+        return true;
+    }
+
+    @Name("cz.b2b.jcl.CacheLookup")
+    @Label("Cache Lookup")
+    @Category(CATEGORY)
+    @Description("Lookup of the class code in the cache of CacheClassLoader, a miss includes reading the code from the jar")
+    static final class CacheLookup extends Event {
+
+        @Label("Name")
+        String name;
+        @Label("Hit")
+        boolean hit;
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("cz.b2b.jcl.JarScan")
+    @Label("Jar Scan")
+    @Category(CATEGORY)
+    @Description("Read of jar entries into the cache of CacheClassLoader")
+    static final class JarScan extends Event {
+
+        @Label("Jar")
+        String jar;
+        @Label("Entry")
+        String entry;
+        @Label("Entries Skipped")
+        int skipped;
+        @Label("Bytes Inflated")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("cz.b2b.jcl.JdbcFetch")
+    @Label("JDBC Class Fetch")
+    @Category(CATEGORY)
+    @Description("SQL fetch of the class code by JdbcClassLoader")
+    static final class JdbcFetch extends Event {
+
+        @Label("Table")
+        String table;
+        @Label("Name")
+        String name;
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("cz.b2b.jcl.PoolCheckout")
+    @Label("Pool Checkout")
+    @Category(CATEGORY)
+    @Description("Wait for a connection of the JDBC connection pool")
+    static final class PoolCheckout extends Event {
+
+        @Label("Pool")
+        String pool;
+    }
+
+    @Name("cz.b2b.jcl.Compile")
+    @Label("Compile")
+    @Category(CATEGORY)
+    @Description("Runtime compilation of a java source file")
+    static final class Compile extends Event {
+
+        @Label("File")
+        String file;
+        @Label("Success")
+        boolean success;
+    }
+
+    static Object beginCacheLookup() {
+        if (enabled(CACHE_LOOKUP) == false) {
+            return null;
+        }
+        return begin(new CacheLookup());
+    }
+
+    static void endCacheLookup(Object event, String name, boolean hit, long bytes) {
+        CacheLookup e = (CacheLookup) event;
+        e.end();
+        if (e.shouldCommit() == true) {
+            e.name = name;
+            e.hit = hit;
+            e.bytes = bytes;
+            e.commit();
+        }
+    }
+
+    static Object beginJarScan() {
+        if (enabled(JAR_SCAN) == false) {
+            return null;
+        }
+        return begin(new JarScan());
+    }
+
+    static void endJarScan(Object event, String jar, String entry, int skipped, long bytes) {
+        JarScan e = (JarScan) event;
+        e.end();
+        if (e.shouldCommit() == true) {
+            e.jar = jar;
+            e.entry = entry;
+            e.skipped = skipped;
+            e.bytes = bytes;
+            e.commit();
+        }
+    }
+
+    static Object beginJdbcFetch() {
+        if (enabled(JDBC_FETCH) == false) {
+            return null;
+        }
+        return begin(new JdbcFetch());
+    }
+
+    static void endJdbcFetch(Object event, String table, String name, long bytes) {
+        JdbcFetch e = (JdbcFetch) event;
+        e.end();
+        if (e.shouldCommit() == true) {
+            e.table = table;
+            e.name = name;
+            e.bytes = bytes;
+            e.commit();
+        }
+    }
+
+    static Object beginPoolCheckout() {
+        if (enabled(POOL_CHECKOUT) == false) {
+            return null;
+        }
+        return begin(new PoolCheckout());
+    }
+
+    static void endPoolCheckout(Object event, String pool) {
+        PoolCheckout e = (PoolCheckout) event;
+        e.end();
+        if (e.shouldCommit() == true) {
+            e.pool = pool;
+            e.commit();
+        }
+    }
+
+    static Object beginCompile() {
+        if (enabled(COMPILE) == false) {
+            return null;
+        }
+        return begin(new Compile());
+    }
+
+    static void endCompile(Object event, String file, boolean success) {
+        Compile e = (Compile) event;
+        e.end();
+        if (e.shouldCommit() == true) {
+            e.file = file;
+            e.success = success;
+            e.commit();
+        }
+    }
+
+    /**
+     @return true if the event type is enabled in a running recording
+     */
+    private static boolean enabled(EventType type) {
+        return type != null && type.isEnabled() == true;
+    }
+
+    /**
+     @return the started event
+     */
+    private static Event begin(Event event) {
+        event.begin();
+        return event;
+    }
+
+}
@@ -0,0 +1,603 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ Radix tree (compressed trie) of String keys.
+ <p>
+ The common prefixes of the keys (ex.: the package directories of
+ /cz/b2b/jcl/RAM/resource/Test.class) are stored once. The keys are not kept as
+ String objects, they are built only by the iteration.
+ <p>
+ Lookups do not lock and accept any CharSequence, the key String does not have
+ to be built on the hot path. Updates are serialized by a lock; a node is never
+ changed in a way a concurrent lookup could see half done: its children are
+ replaced by a new array and a split node is replaced by new nodes. All keys
+ starting with a prefix (ex.: a package directory) are enumerated in the time
+ of the prefix length plus the enumerated entries, in the order of the keys.
+ <p>
+ Null keys and values are not allowed.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public class RadixTreeMap<V> extends AbstractMap<String, V> implements ConcurrentMap<String, V> {
+
+    private final Node<V> root = new Node<>(new byte[0], null, null);
+    private final Object lock = new Object();
+    private volatile int size = 0;
+    private Set<Map.Entry<String, V>> entrySet = null;
+
+    @Override
+    public V get(Object key) {
+        Node<V> node = (key instanceof CharSequence) ? find((CharSequence) key) : null;
+        return (node == null) ? null : node.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public V put(String key, V value) {
+        Objects.requireNonNull(value);
+        synchronized (lock) {
+            Node<V> node = insert(key);
+            V old = node.value;
+            node.value = value;
+            if (old == null) {
+                size++;
+            }
+            return old;
+        }
+    }
+
+    @Override
+    public V putIfAbsent(String key, V value) {
+        Objects.requireNonNull(value);
+        V old = get(key);
+        if (old != null) {
+            return old;
+        }
+        synchronized (lock) {
+            Node<V> node = insert(key);
+            old = node.value;
+            if (old == null) {
+                node.value = value;
+                size++;
+            }
+            return old;
+        }
+    }
+
+    /**
+     The function is called once under the update lock, it must not update
+     this map.
+     */
+    @Override
+    public V compute(String key, BiFunction<? super String, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        synchronized (lock) {
+            Node<V> node = find(key);
+            V old = (node == null) ? null : node.value;
+            V value = remappingFunction.apply(key, old);
+            if (value == null) {
+                if (old != null) {
+                    delete(key, null);
+                }
+                return null;
+            }
+            if (node == null) {
+                node = insert(key);
+            }
+            node.value = value;
+            if (old == null) {
+                size++;
+            }
+            return value;
+        }
+    }
+
+    /**
+     The function is called at most once per absent key under the update lock,
+     it must not update this map.
+     */
+    @Override
+    public V computeIfAbsent(String key, Function<? super String, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        V old = get(key);
+        if (old != null) {
+            return old;
+        }
+        return compute(key, (k, v) -> (v != null) ? v : mappingFunction.apply(k));
+    }
+
+    /**
+     The function is called once under the update lock, it must not update
+     this map.
+     */
+    @Override
+    public V computeIfPresent(String key, BiFunction<? super String, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        if (get(key) == null) {
+            return null;
+        }
+        return compute(key, (k, v) -> (v == null) ? null : remappingFunction.apply(k, v));
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (key instanceof CharSequence == false) {
+            return null;
+        }
+        synchronized (lock) {
+            return delete((CharSequence) key, null);
+        }
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (key instanceof CharSequence == false || value == null) {
+            return false;
+        }
+        synchronized (lock) {
+            return delete((CharSequence) key, value) != null;
+        }
+    }
+
+    @Override
+    public boolean replace(String key, V oldValue, V newValue) {
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        synchronized (lock) {
+            Node<V> node = find(key);
+            if (node == null || oldValue.equals(node.value) == false) {
+                return false;
+            }
+            node.value = newValue;
+            return true;
+        }
+    }
+
+    @Override
+    public V replace(String key, V value) {
+        Objects.requireNonNull(value);
+        synchronized (lock) {
+            Node<V> node = find(key);
+            if (node == null || node.value == null) {
+                return null;
+            }
+            V old = node.value;
+            node.value = value;
+            return old;
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (lock) {
+            root.children = null;
+            root.value = null;
+            size = 0;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<String, V>>() {
+                @Override
+                public Iterator<Map.Entry<String, V>> iterator() {
+                    return new EntryIterator(root, CONST.EMPTY);
+                }
+
+                @Override
+                public int size() {
+                    return RadixTreeMap.this.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    if (o instanceof Map.Entry == false) {
+                        return false;
+                    }
+                    Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                    V value = get(e.getKey());
+                    return value != null && value.equals(e.getValue());
+                }
+
+                @Override
+                public boolean remove(Object o) {
+                    if (o instanceof Map.Entry == false) {
+                        return false;
+                    }
+                    Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                    return RadixTreeMap.this.remove(e.getKey(), e.getValue());
+                }
+
+                @Override
+                public void clear() {
+                    RadixTreeMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     Perform the action for each entry whose key starts with the prefix, in the
+     order of the keys.
+     @param prefix key prefix (ex.: /cz/b2b/jcl/RAM/)
+     @param action action called with the key and the value
+     */
+    public void forEachWithPrefix(CharSequence prefix, BiConsumer<? super String, ? super V> action) {
+        Iterator<Map.Entry<String, V>> it = prefixIterator(prefix);
+        while (it.hasNext() == true) {
+            Map.Entry<String, V> entry = it.next();
+            action.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     @param prefix key prefix (ex.: /cz/b2b/jcl/RAM/)
+     @return the keys starting with the prefix in their order
+     */
+    public List<String> keysWithPrefix(CharSequence prefix) {
+        List<String> keys = new ArrayList<>();
+        forEachWithPrefix(prefix, (key, value) -> keys.add(key));
+        return keys;
+    }
+
+    private Iterator<Map.Entry<String, V>> prefixIterator(CharSequence prefix) {
+        Node<V> node = root;
+        StringBuilder key = new StringBuilder(prefix.length() + 16);
+        int i = 0;
+        int n = prefix.length();
+        while (i < n) {
+            Node<V> child = child(node.children, prefix.charAt(i));
+            if (child == null) {
+                return Collections.emptyIterator();
+            }
+            Object label = child.label;
+            int length = length(label);
+            int m = Math.min(length, n - i);
+            for (int j = 0; j < m; j++) {
+                if (charAt(label, j) != prefix.charAt(i + j)) {
+                    return Collections.emptyIterator();
+                }
+            }
+            key.append(text(label));
+            i += length;
+            node = child;
+        }
+        return new EntryIterator(node, key.toString());
+    }
+
+    /**
+     @return the node of the key, null if there is none
+     */
+    private Node<V> find(CharSequence key) {
+        Node<V> node = root;
+        int i = 0;
+        int n = key.length();
+        while (i < n) {
+            Node<V> child = child(node.children, key.charAt(i));
+            if (child == null) {
+                return null;
+            }
+            Object label = child.label;
+            int length = length(label);
+            if (n - i < length) {
+                return null;
+            }
+            for (int j = 0; j < length; j++) {
+                if (charAt(label, j) != key.charAt(i + j)) {
+                    return null;
+                }
+            }
+            i += length;
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     @return the node of the key, created if there is none. Called under the
+     lock.
+     */
+    private Node<V> insert(String key) {
+        Node<V> node = root;
+        int i = 0;
+        int n = key.length();
+        while (i < n) {
+            Node<V>[] children = node.children;
+            int index = index(children, key.charAt(i));
+            if (index < 0) {
+                Node<V> leaf = new Node<>(label(key.substring(i)), null, null);
+                node.children = inserted(children, -index - 1, leaf);
+                return leaf;
+            }
+            Node<V> child = children[index];
+            Object label = child.label;
+            int length = length(label);
+            int common = 0;
+            while (common < length && i + common < n && charAt(label, common) == key.charAt(i + common)) {
+                common++;
+            }
+            if (common < length) {
+                // split, the child is replaced by the common part and its rest
+                String text = text(label);
+                Node<V> rest = new Node<>(label(text.substring(common)), child.value, child.children);
+                @SuppressWarnings("unchecked")
+                Node<V>[] restArray = (Node<V>[]) new Node<?>[]{rest};
+                Node<V> split = new Node<>(label(text.substring(0, common)), null, restArray);
+                node.children = replaced(children, index, split);
+                child = split;
+            }
+            i += common;
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     Remove the key (if its value is equal to value, unless value is null) and
+     prune the tree. Called under the lock.
+     @return the removed value, null if nothing has been removed
+     */
+    private V delete(CharSequence key, Object value) {
+        Node<V> grandparent = null;
+        Node<V> parent = null;
+        Node<V> node = root;
+        int i = 0;
+        int n = key.length();
+        while (i < n) {
+            Node<V> child = child(node.children, key.charAt(i));
+            int length = (child == null) ? -1 : length(child.label);
+            if (child == null || n - i < length) {
+                return null;
+            }
+            for (int j = 0; j < length; j++) {
+                if (charAt(child.label, j) != key.charAt(i + j)) {
+                    return null;
+                }
+            }
+            i += length;
+            grandparent = parent;
+            parent = node;
+            node = child;
+        }
+        V old = node.value;
+        if (old == null || (value != null && value.equals(old) == false)) {
+            return null;
+        }
+        node.value = null;
+        size--;
+
+        if (parent == null) {
+            return old;
+        }
+        Node<V>[] children = node.children;
+        if (children == null || children.length == 0) {
+            parent.children = removed(parent.children, index(parent.children, charAt(node.label, 0)));
+            // the parent may now be a chain link to its only child
+            if (grandparent != null) {
+                merge(grandparent, parent);
+            }
+        } else if (children.length == 1) {
+            merge(parent, node);
+        }
+        return old;
+    }
+
+    /**
+     Replace the node without value and with one child by one node.
+     */
+    private void merge(Node<V> parent, Node<V> node) {
+        Node<V>[] children = node.children;
+        if (node.value != null || children == null || children.length != 1) {
+            return;
+        }
+        Node<V> child = children[0];
+        Node<V> merged = new Node<>(label(text(node.label) + text(child.label)), child.value, child.children);
+        parent.children = replaced(parent.children, index(parent.children, charAt(node.label, 0)), merged);
+    }
+
+    /**
+     @return the label of the text, byte[] if all chars are Latin-1 (one byte
+     per char, as the compact strings of the JVM), char[] otherwise
+     */
+    private static Object label(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0xFF) {
+                return text.toCharArray();
+            }
+        }
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static int length(Object label) {
+        return (label instanceof byte[]) ? ((byte[]) label).length : ((char[]) label).length;
+    }
+
+    private static char charAt(Object label, int index) {
+        return (label instanceof byte[]) ? (char) (((byte[]) label)[index] & 0xFF) : ((char[]) label)[index];
+    }
+
+    private static String text(Object label) {
+        return (label instanceof byte[]) ? new String((byte[]) label, StandardCharsets.ISO_8859_1) : new String((char[]) label);
+    }
+
+    private static <V> Node<V> child(Node<V>[] children, char c) {
+        int index = index(children, c);
+        return (index < 0) ? null : children[index];
+    }
+
+    /**
+     @return index of the child starting with c, (-(insertion point) - 1) if
+     there is none
+     */
+    private static <V> int index(Node<V>[] children, char c) {
+        if (children == null) {
+            return -1;
+        }
+        int low = 0;
+        int high = children.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char m = charAt(children[mid].label, 0);
+            if (m < c) {
+                low = mid + 1;
+            } else if (m > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] inserted(Node<V>[] children, int index, Node<V> node) {
+        int length = (children == null) ? 0 : children.length;
+        Node<V>[] result = (Node<V>[]) new Node<?>[length + 1];
+        if (length > 0) {
+            System.arraycopy(children, 0, result, 0, index);
+            System.arraycopy(children, index, result, index + 1, length - index);
+        }
+        result[index] = node;
+        return result;
+    }
+
+    private static <V> Node<V>[] replaced(Node<V>[] children, int index, Node<V> node) {
+        Node<V>[] result = children.clone();
+        result[index] = node;
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] removed(Node<V>[] children, int index) {
+        if (children.length == 1) {
+            return null;
+        }
+        Node<V>[] result = (Node<V>[]) new Node<?>[children.length - 1];
+        System.arraycopy(children, 0, result, 0, index);
+        System.arraycopy(children, index + 1, result, index, children.length - index - 1);
+        return result;
+    }
+
+    /**
+     Node of the tree, the label is the part of the key after the parent node
+     (see {@link #label(String)}). The children are sorted by the first char of
+     their labels.
+     */
+    private static final class Node<V> {
+
+        private final Object label;
+        private volatile V value;
+        private volatile Node<V>[] children;
+
+        private Node(Object label, V value, Node<V>[] children) {
+            this.label = label;
+            this.value = value;
+            this.children = children;
+        }
+    }
+
+    /**
+     Depth-first iteration of the entries of a subtree in the order of the
+     keys. The iteration is weakly consistent.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, V>> {
+
+        private final Deque<Node<V>> nodes = new ArrayDeque<>();
+        private final Deque<String> keys = new ArrayDeque<>();
+        private Map.Entry<String, V> next = null;
+        private String lastKey = null;
+
+        private EntryIterator(Node<V> start, String key) {
+            nodes.push(start);
+            keys.push(key);
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (nodes.isEmpty() == false) {
+                Node<V> node = nodes.pop();
+                String key = keys.pop();
+                Node<V>[] children = node.children;
+                if (children != null) {
+                    for (int i = children.length - 1; i >= 0; i--) {
+                        nodes.push(children[i]);
+                        keys.push(key + text(children[i].label));
+                    }
+                }
+                V value = node.value;
+                if (value != null) {
+                    next = new AbstractMap.SimpleImmutableEntry<>(key, value);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, V> entry = next;
+            lastKey = entry.getKey();
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+            RadixTreeMap.this.remove(lastKey);
+            lastKey = null;
+        }
+    }
+
+}
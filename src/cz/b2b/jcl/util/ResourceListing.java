@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ Listing of the resources of a class loader, served from its in-memory
+ indexes. Frameworks scanning the classpath (component scan, ServiceLoader and
+ similar) can enumerate the classes and resources without probing single
+ names.
+ <p>
+ The names are resource names as for ClassLoader.getResource (ex.:
+ cz/b2b/jcl/RAM/resource/Test.class), without a leading slash.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public interface ResourceListing {
+
+    /**
+     @param prefix name prefix (ex.: cz/b2b/jcl/ or META-INF/services/), empty
+     string for all names
+     @return names of the classes and resources starting with the prefix, each
+     name once, in the order of the names
+     */
+    List<String> listResources(String prefix);
+
+    /**
+     @param glob name pattern: ? is one char, * any chars except slash, ** any
+     chars (ex.: cz/b2b/**.class or META-INF/services/*)
+     @return names of the classes and resources matching the pattern, each
+     name once, in the order of the names
+     */
+    default List<String> findResourceNames(String glob) {
+        Pattern pattern = globPattern(glob);
+        List<String> names = new ArrayList<>();
+        for (String name : listResources(globPrefix(glob))) {
+            if (pattern.matcher(name).matches() == true) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     @param glob name pattern (see {@link #findResourceNames(String)})
+     @return the regular expression of the pattern
+     */
+    static Pattern globPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     @return the part of the pattern before the first wildcard
+     */
+    static String globPrefix(String glob) {
+        int end = glob.length();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                end = i;
+                break;
+            }
+        }
+        return glob.substring(0, end);
+    }
+
+    /**
+     Content of a directory URL: the names of the entries directly in the
+     directory, one per line, subdirectories end with slash.
+
+     @param directory directory name ending with slash, empty string for the
+     root
+     @param names sorted names starting with the directory
+     @return the listing in UTF-8
+     */
+    static byte[] directoryListing(String directory, List<String> names) {
+        StringBuilder listing = new StringBuilder();
+        String last = null;
+        for (String name : names) {
+            String child = name.substring(directory.length());
+            int slash = child.indexOf('/');
+            if (slash >= 0) {
+                child = child.substring(0, slash + 1);
+            }
+            if (child.isEmpty() == true || child.equals(last) == true) {
+                continue;
+            }
+            listing.append(child).append('\n');
+            last = child;
+        }
+        return listing.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,324 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.Closeable;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.*;
+
+/**
+ Content-addressed store of byte code shared by class loaders.
+ <p>
+ Equal byte arrays (same length, hash and content) are stored once. Each
+ {@link #intern(byte[])} returns the stored array and adds a reference to it,
+ each {@link #release(byte[])} removes one, the array is dropped with its last
+ reference. The stored arrays must not be modified.
+ <p>
+ The default store is shared by the whole JVM (see {@link #getDefault()}), so
+ class loaders over the same jars (tenants, reload generations) hold one copy
+ of each class.
+ <p>
+ A class loader takes its references through {@link #register(Object)}. The
+ references of the owner are released by close, or by a daemon thread once
+ the owner has been garbage collected, so a class loader generation that is
+ forgotten without close does not keep its arrays in the store.
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public final class SharedByteStore {
+
+    private final static Logger logger = LoggerFactory.getLogger(SharedByteStore.class);
+    private final static SharedByteStore DEFAULT = new SharedByteStore();
+    /**
+     Owners of the registered references, the references are released when
+     the owner is garbage collected.
+     */
+    private final static ReferenceQueue<Object> OWNERS = new ReferenceQueue<>();
+    private final static Set<OwnerReference> TRACKED = ConcurrentHashMap.newKeySet();
+    private static Thread cleaner = null;
+
+    private final Map<Key, Entry> store = new ConcurrentHashMap<>();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong referencedBytes = new AtomicLong();
+
+    /**
+     @return the store shared by the whole JVM
+     */
+    public static SharedByteStore getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     Add a reference to the array of the same content.
+     @param code byte code
+     @return the stored array of the same content as code
+     */
+    public byte[] intern(final byte[] code) {
+        if (code == null) {
+            return null;
+        }
+        Entry entry = store.compute(new Key(code), (key, value) -> {
+            if (value == null) {
+                value = new Entry(code);
+                storedBytes.addAndGet(code.length);
+            }
+            value.refs++;
+            return value;
+        });
+        referencedBytes.addAndGet(code.length);
+        return entry.code;
+    }
+
+    /**
+     Remove a reference to the array of the same content.
+     @param code byte code returned by intern
+     @return true if the reference was removed
+     */
+    public boolean release(final byte[] code) {
+        if (code == null) {
+            return false;
+        }
+        final boolean[] released = new boolean[1];
+        store.computeIfPresent(new Key(code), (key, value) -> {
+            released[0] = true;
+            if (--value.refs > 0) {
+                return value;
+            }
+            storedBytes.addAndGet(-code.length);
+            return null;
+        });
+        if (released[0] == true) {
+            referencedBytes.addAndGet(-code.length);
+        }
+        return released[0];
+    }
+
+    /**
+     Register the owner of references to this store.
+     @param owner owner of the references (ex.: a class loader), the
+     references must not refer to it
+     @return the references of the owner, released by close or when the owner
+     is garbage collected
+     */
+    public Refs register(Object owner) {
+        Refs refs = new Refs();
+        TRACKED.add(new OwnerReference(owner, refs));
+        start_cleaner();
+        return refs;
+    }
+
+    /**
+     References of one owner to the store. Each intern adds a reference, each
+     release removes one of them, close removes all of them.
+     */
+    public final class Refs implements Closeable {
+
+        private final Map<byte[], int[]> held = new IdentityHashMap<>();
+        private boolean closed = false;
+
+        private Refs() {
+        }
+
+        /**
+         Add a reference to the array of the same content (see
+         {@link SharedByteStore#intern(byte[])}).
+         @param code byte code
+         @return the stored array of the same content as code
+         */
+        public byte[] intern(byte[] code) {
+            if (code == null) {
+                return null;
+            }
+            byte[] stored = SharedByteStore.this.intern(code);
+            boolean kept;
+            synchronized (this) {
+                kept = closed == false;
+                if (kept == true) {
+                    int[] count = held.get(stored);
+                    if (count == null) {
+                        held.put(stored, new int[]{1});
+                    } else {
+                        count[0]++;
+                    }
+                }
+            }
+            if (kept == false) {
+                SharedByteStore.this.release(stored);
+            }
+            return stored;
+        }
+
+        /**
+         Remove one reference of this owner to the array.
+         @param code byte code returned by intern
+         @return true if the reference was removed
+         */
+        public boolean release(byte[] code) {
+            if (code == null) {
+                return false;
+            }
+            synchronized (this) {
+                int[] count = held.get(code);
+                if (count == null) {
+                    return false;
+                }
+                if (--count[0] == 0) {
+                    held.remove(code);
+                }
+            }
+            return SharedByteStore.this.release(code);
+        }
+
+        /**
+         @return number of different arrays referenced by this owner
+         */
+        public synchronized int size() {
+            return held.size();
+        }
+
+        /**
+         Remove all references of this owner, the later interned arrays are
+         not referenced.
+         */
+        @Override
+        public void close() {
+            Map<byte[], int[]> released;
+            synchronized (this) {
+                if (closed == true) {
+                    return;
+                }
+                closed = true;
+                released = new IdentityHashMap<>(held);
+                held.clear();
+            }
+            for (Map.Entry<byte[], int[]> item : released.entrySet()) {
+                for (int i = 0; i < item.getValue()[0]; i++) {
+                    SharedByteStore.this.release(item.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     @return number of stored arrays
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     @return size of the stored arrays
+     */
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    /**
+     @return size of all references, the memory used without the store
+     */
+    public long getReferencedBytes() {
+        return referencedBytes.get();
+    }
+
+    private static synchronized void start_cleaner() {
+        if (cleaner != null) {
+            return;
+        }
+        cleaner = new Thread(() -> {
+            while (true) {
+                OwnerReference owner;
+                try {
+                    owner = (OwnerReference) OWNERS.remove();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                TRACKED.remove(owner);
+                int size = owner.refs.size();
+                owner.refs.close();
+                if (size > 0) {
+                    logger.debug("Released " + size + " shared arrays of a garbage collected owner.");
+                }
+            }
+        }, "SharedByteStore-cleaner");
+        cleaner.setDaemon(true);
+        cleaner.start();
+    }
+
+    /**
+     Phantom reference to the owner of references, it holds the references.
+     */
+    private static final class OwnerReference extends PhantomReference<Object> {
+
+        private final Refs refs;
+
+        private OwnerReference(Object owner, Refs refs) {
+            super(owner, OWNERS);
+            this.refs = refs;
+        }
+    }
+
+    /**
+     Content of the array as the map key.
+     */
+    private static final class Key {
+
+        private final byte[] code;
+        private final int hash;
+
+        private Key(byte[] code) {
+            this.code = code;
+            this.hash = Arrays.hashCode(code);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof Key == false) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && Arrays.equals(code, other.code);
+        }
+    }
+
+    private static final class Entry {
+
+        private final byte[] code;
+        private int refs = 0;
+
+        private Entry(byte[] code) {
+            this.code = code;
+        }
+    }
+
+}
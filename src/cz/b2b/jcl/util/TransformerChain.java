@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License") +  you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.*;
+
+/**
+ Chain of {@link BytecodeTransformer}s run on the class code between the cache
+ of the class loader and the class definition (see
+ CacheClassLoader.setTransformer and JdbcClassLoader.setTransformer).
+ <p>
+ The transformed code is cached by the SHA-256 of the original code and the
+ version of the chain (class names and versions of its transformers), so a
+ class is transformed once however many times and by however many class
+ loaders it is loaded. The cache is held in memory by soft references and
+ optionally in a directory (see {@link #setCacheDir(String)}), where it
+ survives restarts. A new transformer version gives new keys, the outputs of
+ the old version are not used.
+ <p>
+ A transformer failing with an exception is logged and the class is defined
+ from the original code, the failure is not cached.
+ <p>
+ Example of usage:
+ <pre>
+ TransformerChain chain = new TransformerChain(new TracingTransformer(), new WeavingTransformer());
+ chain.setCacheDir("/var/cache/app/jcl-transformed");
+ childClassLoader.setTransformer(chain);
+ </pre>
+
+ @author Richard Kotal &#60;richard.kotal@b2b.cz&#620;
+ */
+public final class TransformerChain {
+
+    private final static Logger logger = LoggerFactory.getLogger(TransformerChain.class);
+    private final static String HASH_ALGORITHM = "SHA-256";
+    private final static int HARD_SIZE = 256;
+    /**
+     Cached marker of a class not changed by the chain.
+     */
+    private final static byte[] UNCHANGED = new byte[0];
+
+    private final List<BytecodeTransformer> transformers;
+    private final String version;
+    private final Map<String, byte[]> CACHE = new ConcurrentSoftHashMap<>(HARD_SIZE);
+    private final Map<String, FutureTask<byte[]>> TRANSFORMING = new ConcurrentHashMap<>();
+    private volatile File cacheDir = null;
+    private final AtomicLong transformations = new AtomicLong();
+
+    public TransformerChain(BytecodeTransformer... transformers) {
+        this(Arrays.asList(transformers));
+    }
+
+    /**
+     @param transformers transformers run in the given order, each on the
+     output of the previous one
+     */
+    public TransformerChain(List<BytecodeTransformer> transformers) {
+        this.transformers = Collections.unmodifiableList(new ArrayList<>(transformers));
+        StringBuilder sb = new StringBuilder();
+        for (BytecodeTransformer transformer : this.transformers) {
+            sb.append(transformer.getClass().getName()).append('\n').append(transformer.getVersion()).append('\n');
+        }
+        this.version = hex(digest().digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     Set the directory of the transformed code. The entries are named by the
+     hash of the original code and the chain version, the directory may be
+     shared by more chains and processes.
+     @param directory cache directory (ex.: /var/cache/app/jcl-transformed),
+     null keeps the transformed code in memory only
+     */
+    public void setCacheDir(String directory) {
+        this.cacheDir = (directory == null) ? null : new File(directory);
+    }
+
+    /**
+     @return version of the chain, SHA-256 of the class names and versions of
+     its transformers
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public List<BytecodeTransformer> getTransformers() {
+        return transformers;
+    }
+
+    /**
+     @return number of classes transformed by the chain (not served from the
+     cache)
+     */
+    public long getTransformations() {
+        return transformations.get();
+    }
+
+    /**
+     Transform the class code, or take the transformed code from the cache.
+     @param className binary name of the class
+     @param code original class code, must not be modified
+     @return the transformed class code, code itself if no transformer has
+     changed it
+     */
+    public byte[] apply(final String className, final byte[] code) {
+        if (transformers.isEmpty() == true || code == null) {
+            return code;
+        }
+        MessageDigest md = digest();
+        md.update(version.getBytes(StandardCharsets.US_ASCII));
+        final String key = hex(md.digest(code));
+
+        byte[] cached = CACHE.get(key);
+        if (cached != null) {
+            return (cached == UNCHANGED) ? code : cached;
+        }
+
+        FutureTask<byte[]> task = new FutureTask<>(() -> transform(key, className, code));
+        FutureTask<byte[]> inFlight = TRANSFORMING.putIfAbsent(key, task);
+        if (inFlight == null) {
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                TRANSFORMING.remove(key, task);
+            }
+        }
+
+        try {
+            byte[] result = inFlight.get();
+            return (result == UNCHANGED) ? code : result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return code;
+        } catch (ExecutionException e) {
+            logger.error("Transformation of " + className + " failed, the original code is used: " + e.getCause());
+            return code;
+        }
+    }
+
+    /**
+     Drop the transformed code held in memory.
+     */
+    public void clear() {
+        CACHE.clear();
+    }
+
+    private byte[] transform(String key, String className, byte[] code) throws IOException {
+        File file = (cacheDir == null) ? null : new File(cacheDir, key + CONST.CLASS_SUFFIX);
+        if (file != null && file.isFile() == true) {
+            try {
+                byte[] stored = Files.readAllBytes(file.toPath());
+                byte[] result = (stored.length == 0) ? UNCHANGED : stored;
+                CACHE.put(key, result);
+                return result;
+            } catch (IOException e) {
+                logger.error("Transformed code " + file + " ignored: " + e.toString());
+            }
+        }
+
+        byte[] current = code;
+        for (BytecodeTransformer transformer : transformers) {
+            byte[] transformed = transformer.transform(className, current);
+            if (transformed != null) {
+                current = transformed;
+            }
+        }
+        transformations.incrementAndGet();
+        byte[] result = (current == code) ? UNCHANGED : current;
+        CACHE.put(key, result);
+        logger.debug("Class " + className + " transformed" + ((result == UNCHANGED) ? ", not changed" : CONST.EMPTY));
+
+        if (file != null) {
+            try {
+                store(file, result);
+            } catch (IOException e) {
+                logger.error("Transformed code " + file + " not written: " + e.toString());
+            }
+        }
+        return result;
+    }
+
+    private static void store(File file, byte[] data) throws IOException {
+        File directory = file.getParentFile();
+        directory.mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            Files.write(tmp.toPath(), data);
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+}
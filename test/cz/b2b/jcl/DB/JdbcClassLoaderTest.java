@@ -11,7 +11,16 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -61,6 +70,154 @@ public class JdbcClassLoaderTest {
     }
 
 
+    @Test
+    public void testJarTable() throws Exception {
+
+        String driver = "org.mariadb.jdbc.Driver";
+        String dbUrl = "jdbc:mariadb://127.0.0.1:3306/test";
+        String jarTable = "jcl_db_jar";
+        String username = "root";
+        String password = "root";
+        System.out.println("jdbc jar table :: drive = " + driver + ", dbUrl = " + dbUrl + ", jarTable = " + jarTable + ", username = " + username + ", password = " + password);
+
+        JdbcClassLoader childClassLoader = new JdbcClassLoader(Thread.currentThread().getContextClassLoader());
+        childClassLoader.setConnection(driver, dbUrl, null, username, password);
+        childClassLoader.setJarTable(jarTable);
+
+        Class<?> test = Class.forName("cz.b2b.jcl.RAM.resource.jar.Test3", true, childClassLoader);
+        Object o = test.getDeclaredConstructor(new Class[]{}).newInstance(new Object[]{});
+
+        Method print = o.getClass().getMethod("print", String.class);
+        System.out.println("class = " + o.getClass().getCanonicalName());
+        print.invoke(o, "JDBC JAR");
+        System.out.println("resource = " + childClassLoader.findResource("cz/b2b/jcl/RAM/resource/jar/Test3.class"));
+
+    }
+
+    @Test
+    public void testSourceTable() throws Exception {
+
+        String driver = "org.mariadb.jdbc.Driver";
+        String dbUrl = "jdbc:mariadb://127.0.0.1:3306/test";
+        String sourceTable = "jcl_db_source";
+        String username = "root";
+        String password = "root";
+        System.out.println("jdbc source table :: drive = " + driver + ", dbUrl = " + dbUrl + ", sourceTable = " + sourceTable + ", username = " + username + ", password = " + password);
+
+        JdbcClassLoader childClassLoader = new JdbcClassLoader(Thread.currentThread().getContextClassLoader());
+        childClassLoader.setConnection(driver, dbUrl, null, username, password);
+        childClassLoader.setSourceTable(sourceTable, null);
+        childClassLoader.addJavaSource("cz.b2b.jcl.DB.resource.Generated", "package cz.b2b.jcl.DB.resource; public class Generated { public String print(String s) { return new Source().getClass().getSimpleName() + \" \" + s; } }");
+
+        Class<?> test = Class.forName("cz.b2b.jcl.DB.resource.Generated", true, childClassLoader);
+        Object o = test.getDeclaredConstructor(new Class[]{}).newInstance(new Object[]{});
+
+        Method print = o.getClass().getMethod("print", String.class);
+        System.out.println("class = " + o.getClass().getCanonicalName());
+        assertEquals("Source JDBC SOURCE", print.invoke(o, "JDBC SOURCE"));
+        childClassLoader.close();
+
+    }
+
+    @Test
+    public void testResourceProbe() throws Exception {
+
+        String driver = "org.mariadb.jdbc.Driver";
+        String dbUrl = "jdbc:mariadb://127.0.0.1:3306/test";
+        String table = "jcl_db_jdbc";
+        String username = "root";
+        String password = "root";
+        System.out.println("jdbc resource probe :: drive = " + driver + ", dbUrl = " + dbUrl + ", table = " + table + ", username = " + username + ", password = " + password);
+
+        JdbcClassLoader childClassLoader = new JdbcClassLoader(Thread.currentThread().getContextClassLoader());
+        childClassLoader.setConnection(driver, dbUrl, table, username, password);
+        probe(childClassLoader);
+
+        childClassLoader.setKeyIndex(true);
+        probe(childClassLoader);
+        childClassLoader.close();
+
+    }
+
+    /**
+     The length comes from the probe, the stream fetches the same number of
+     bytes on its first read.
+     */
+    private static void probe(JdbcClassLoader childClassLoader) throws Exception {
+        assertNull(childClassLoader.findResource("cz/b2b/jcl/RAM/resource/Missing.class"));
+
+        URL url = childClassLoader.findResource("cz/b2b/jcl/RAM/resource/Test.class");
+        assertNotNull(url);
+        URLConnection connection = url.openConnection();
+        long length = connection.getContentLengthLong();
+        assertTrue(length > 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = connection.getInputStream();
+        try {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        assertEquals(length, out.size());
+    }
+
+    @Test
+    public void testPoll() throws Exception {
+
+        String driver = "org.mariadb.jdbc.Driver";
+        String dbUrl = "jdbc:mariadb://127.0.0.1:3306/test";
+        String table = "jcl_db_jdbc";
+        String username = "root";
+        String password = "root";
+        System.out.println("jdbc poll :: drive = " + driver + ", dbUrl = " + dbUrl + ", table = " + table + ", username = " + username + ", password = " + password);
+
+        String packageName = "cz.b2b.jcl.DB.resource.poll";
+        String resource = "cz/b2b/jcl/DB/resource/poll/Polled.class";
+        JdbcClassLoader childClassLoader = new JdbcClassLoader(Thread.currentThread().getContextClassLoader());
+        childClassLoader.setConnection(driver, dbUrl, table, username, password);
+        childClassLoader.setKeyIndex(true);
+        final List<ClassChangeEvent> events = new CopyOnWriteArrayList<>();
+        childClassLoader.addClassChangeListener(event -> events.add(event));
+
+        // the first poll reads the current revision only
+        assertNull(childClassLoader.poll());
+        assertNull(childClassLoader.findResource(resource));
+
+        JdbcPublisher publisher = new JdbcPublisher();
+        publisher.setConnection(driver, dbUrl, table, username, password);
+        publisher.addClass(packageName, "Polled", Long.toString(System.nanoTime()).getBytes("UTF-8"));
+        long revision = publisher.publish();
+
+        ClassChangeEvent event = childClassLoader.poll();
+        assertNotNull(event);
+        assertEquals(revision, event.getToRevision());
+        assertTrue(event.getPackages().contains(packageName));
+        assertTrue(event.getClasses().contains(packageName + ".Polled"));
+        assertEquals(revision, childClassLoader.getRevision());
+        assertEquals(1, events.size());
+        assertNotNull(childClassLoader.findResource(resource));
+        assertNull(childClassLoader.poll());
+
+        // the background poll sees the tombstone
+        final CountDownLatch removed = new CountDownLatch(1);
+        childClassLoader.addClassChangeListener(e -> removed.countDown());
+        childClassLoader.startPolling(50);
+        publisher.removeClass(packageName, "Polled");
+        revision = publisher.publish();
+        assertTrue(removed.await(10, TimeUnit.SECONDS));
+        childClassLoader.stopPolling();
+        assertEquals(revision, childClassLoader.getRevision());
+        assertTrue(events.get(1).getClasses().contains(packageName + ".Polled"));
+        assertNull(childClassLoader.findResource(resource));
+        childClassLoader.close();
+
+    }
+
     @Test
     public void testDelegate() throws Exception {
 
@@ -0,0 +1,172 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.DB;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class JdbcPublisherTest {
+
+    private final static String PACKAGE = "cz.b2b.jcl.DB.resource.publish";
+
+    private final String driver = "org.mariadb.jdbc.Driver";
+    private final String dbUrl = "jdbc:mariadb://127.0.0.1:3306/test";
+    private final String table = "jcl_db_jdbc";
+    private final String username = "root";
+    private final String password = "root";
+
+    public JdbcPublisherTest() {
+    }
+
+    @Test
+    public void testPublish() throws Exception {
+        System.out.println("jdbc publisher :: drive = " + driver + ", dbUrl = " + dbUrl + ", table = " + table + ", username = " + username + ", password = " + password);
+
+        // the code differs from the rows of the previous run
+        long seed = System.nanoTime();
+        JdbcPublisher publisher = new JdbcPublisher();
+        publisher.setConnection(driver, dbUrl, table, username, password);
+        // smaller than the number of classes, the last batch is not full
+        publisher.setBatchSize(2);
+        publisher.addClass(PACKAGE, "A", code(seed, 1));
+        publisher.addClass(PACKAGE, "B", code(seed, 2));
+        publisher.addClass(PACKAGE, "C", code(seed, 3));
+        assertEquals(3, publisher.size());
+
+        long first = publisher.publish();
+        assertTrue(first > 0);
+        Map<String, Long> rows = revisions();
+        assertEquals(Long.valueOf(first), rows.get("A"));
+        assertEquals(Long.valueOf(first), rows.get("B"));
+        assertEquals(Long.valueOf(first), rows.get("C"));
+        assertVersion(first, 3);
+
+        // nothing changed, the revision is kept
+        assertEquals(first, publisher.publish());
+        assertVersion(first, 3);
+
+        publisher.addClass(PACKAGE, "B", code(seed, 4));
+        long second = publisher.publish();
+        assertEquals(first + 1, second);
+        rows = revisions();
+        assertEquals(Long.valueOf(first), rows.get("A"));
+        assertEquals(Long.valueOf(second), rows.get("B"));
+        assertEquals(Long.valueOf(first), rows.get("C"));
+        assertVersion(second, 1);
+    }
+
+    @Test
+    public void testRemoveClass() throws Exception {
+        long seed = System.nanoTime();
+        JdbcPublisher publisher = new JdbcPublisher();
+        publisher.setConnection(driver, dbUrl, table, username, password);
+        publisher.addClass(PACKAGE, "D", code(seed, 1));
+        long first = publisher.publish();
+
+        publisher.removeClass(PACKAGE, "D");
+        assertEquals(0, publisher.size());
+        long second = publisher.publish();
+        assertEquals(first + 1, second);
+        // tombstone
+        assertEquals(Long.valueOf(second), revisions().get("D"));
+        assertNull(code("D"));
+        assertVersion(second, 1);
+
+        // removed already
+        assertEquals(second, publisher.publish());
+    }
+
+    @Test
+    public void testRemoveLegacyClass() throws Exception {
+        // row of jcl_db_jdbc.sql, written without class_hash
+        Connection conn = DriverManager.getConnection(dbUrl, username, password);
+        try (PreparedStatement delete = conn.prepareStatement("DELETE FROM " + table + " WHERE package_name = ? AND class_name = ?");
+                PreparedStatement insert = conn.prepareStatement("INSERT INTO " + table + " (package_name, class_name, class_code) VALUES (?, ?, ?)")) {
+            delete.setString(1, PACKAGE);
+            delete.setString(2, "Legacy");
+            delete.executeUpdate();
+            insert.setString(1, PACKAGE);
+            insert.setString(2, "Legacy");
+            insert.setBytes(3, new byte[]{1, 2, 3});
+            insert.executeUpdate();
+        } finally {
+            conn.close();
+        }
+
+        JdbcPublisher publisher = new JdbcPublisher();
+        publisher.setConnection(driver, dbUrl, table, username, password);
+        publisher.removeClass(PACKAGE, "Legacy");
+        long revision = publisher.publish();
+        assertEquals(Long.valueOf(revision), revisions().get("Legacy"));
+        assertNull(code("Legacy"));
+        assertVersion(revision, 1);
+
+        // removed already
+        assertEquals(revision, publisher.publish());
+    }
+
+    private static byte[] code(long seed, int value) {
+        return ByteBuffer.allocate(12).putLong(seed).putInt(value).array();
+    }
+
+    /**
+     @return revisions of the rows of the test package by class name
+     */
+    private Map<String, Long> revisions() throws Exception {
+        Map<String, Long> rows = new HashMap<>();
+        Connection conn = DriverManager.getConnection(dbUrl, username, password);
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT class_name, revision FROM " + table + " WHERE package_name = ?")) {
+            stmt.setString(1, PACKAGE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next() == true) {
+                    rows.put(rs.getString(1), rs.getLong(2));
+                }
+            }
+        } finally {
+            conn.close();
+        }
+        return rows;
+    }
+
+    private byte[] code(String className) throws Exception {
+        Connection conn = DriverManager.getConnection(dbUrl, username, password);
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT class_code FROM " + table + " WHERE package_name = ? AND class_name = ?")) {
+            stmt.setString(1, PACKAGE);
+            stmt.setString(2, className);
+            try (ResultSet rs = stmt.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getBytes(1);
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    private void assertVersion(long revision, int classes) throws Exception {
+        Connection conn = DriverManager.getConnection(dbUrl, username, password);
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT revision, classes FROM " + table + "_version ORDER BY revision DESC")) {
+            assertTrue(rs.next());
+            assertEquals(revision, rs.getLong(1));
+            assertEquals(classes, rs.getInt(2));
+        } finally {
+            conn.close();
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.DB;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class JdbcSnapshotTest {
+
+    private File file = null;
+
+    public JdbcSnapshotTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("jcl", ".snapshot");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        JdbcSnapshot snapshot = JdbcSnapshot.load(file);
+        assertEquals(-1, snapshot.getRevision());
+        snapshot.put("/a/A.class", new byte[]{1}, -1);
+        assertEquals(0, snapshot.size());
+
+        snapshot.clear(3);
+        snapshot.put("/a/A.class", new byte[]{1, 2}, 3);
+        snapshot.put("/a/B.class", new byte[]{3}, 3);
+        snapshot.save();
+
+        snapshot = JdbcSnapshot.load(file);
+        assertEquals(3, snapshot.getRevision());
+        assertArrayEquals(new byte[]{1, 2}, snapshot.get("/a/A.class"));
+        assertArrayEquals(new byte[]{3}, snapshot.get("/a/B.class"));
+
+        snapshot.update(Collections.singleton("/a/A.class"), 4);
+        snapshot.put("/a/C.class", new byte[]{5}, 3);
+        assertNull(snapshot.get("/a/A.class"));
+        assertNull(snapshot.get("/a/C.class"));
+        assertEquals(4, snapshot.getRevision());
+    }
+
+    @Test
+    public void testRetain() throws Exception {
+        JdbcSnapshot snapshot = JdbcSnapshot.load(file);
+        snapshot.clear(1);
+        snapshot.put("/a/A.class", new byte[]{1}, 1);
+        snapshot.put("/a/B.class", new byte[]{2}, 1);
+        snapshot.save();
+
+        snapshot = JdbcSnapshot.load(file);
+        assertEquals(1, snapshot.retain(Collections.singleton("/a/A.class")));
+        assertEquals(0, snapshot.retain(Collections.singleton("/a/A.class")));
+        snapshot.save();
+
+        // the deleted class is not in the rewritten file
+        snapshot = JdbcSnapshot.load(file);
+        assertEquals(1, snapshot.size());
+        assertNotNull(snapshot.get("/a/A.class"));
+        assertNull(snapshot.get("/a/B.class"));
+    }
+
+    @Test
+    public void testDamaged() throws Exception {
+        JdbcSnapshot snapshot = JdbcSnapshot.load(file);
+        snapshot.clear(1);
+        snapshot.put("/a/A.class", new byte[]{1, 2}, 1);
+        snapshot.put("/a/B.class", new byte[]{3, 4}, 1);
+        snapshot.save();
+
+        byte[] content = Files.readAllBytes(file.toPath());
+        content[content.length - 1] ^= 1;
+        Files.write(file.toPath(), content);
+        snapshot = JdbcSnapshot.load(file);
+        assertEquals(2, snapshot.size());
+        int valid = (snapshot.get("/a/A.class") != null ? 1 : 0) + (snapshot.get("/a/B.class") != null ? 1 : 0);
+        assertEquals(1, valid);
+
+        content[20] ^= 1;
+        Files.write(file.toPath(), content);
+        snapshot = JdbcSnapshot.load(file);
+        assertEquals(-1, snapshot.getRevision());
+        assertEquals(0, snapshot.size());
+    }
+
+}
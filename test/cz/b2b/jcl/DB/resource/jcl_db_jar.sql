@@ -0,0 +1,10 @@
+CREATE TABLE IF NOT EXISTS `jcl_db_jar` (
+  `jar_name` varchar(512) CHARACTER SET ascii NOT NULL,
+  `jar_code` longblob DEFAULT NULL,
+  PRIMARY KEY (`jar_name`)
+) ENGINE=MyISAM DEFAULT CHARSET=utf8 COLLATE=utf8_bin;
+
+
+INSERT INTO `jcl_db_jar` (`jar_name`, `jar_code`) VALUES
+('Test3.jar', 0x504b03040a0000000000d806e75000000000000000000000000003001c00637a2f5554090003b7ab035fb9ab035f75780b000104e80300000464000000504b03040a0000000000dd06e75000000000000000000000000007001c00637a2f6232622f5554090003c2ab035fc3ab035f75780b000104e80300000464000000504b03040a0000000000e406e7500000000000000000000000000b001c00637a2f6232622f6a636c2f5554090003ccab035fcdab035f75780b000104e80300000464000000504b03040a0000000000ee06e7500000000000000000000000000f001c00637a2f6232622f6a636c2f52414d2f5554090003dfab035fe0ab035f75780b000104e80300000464000000504b03040a0000000000f006e75000000000000000000000000018001c00637a2f6232622f6a636c2f52414d2f7265736f757263652f5554090003e4ab035fe6ab035f75780b000104e80300000464000000504b03040a00000000001207e7500000000000000000000000001c001c00637a2f6232622f6a636c2f52414d2f7265736f757263652f6a61722f555409000324ac035f24ac035f75780b000104e80300000464000000504b03041400000008001107e7505a80dff1760100004702000027001c00637a2f6232622f6a636c2f52414d2f7265736f757263652f6a61722f54657374332e636c617373555409000321ac035f22ac035f75780b000104e803000004640000006d516b4b0241143de36b755bd3d41edacbde56d440455f7a40457dea454ad0c75d1d6465dd957537a87f551f140afa01fda8e8ce2a48e9c0dc3b733867ee9c7bbf7f3ebe001c6043858a6c02394c2a98521146368e69996764c8ab286056c19c827986d8b1699bde2943b8b4f9c810b9706a8221756ddae2d66f1ac2ade8864548b4e59ab6c73059ba6ee8cf3ab774bbcecb1e81f5232954cb8eef56c59529c96a45b4bdfd5d49d430064dc18286451419a6ff8bcf7dd3aa09972159b92c578acfbae58be24951c3129635ac6055c19a8675a41996aaafdcd83378a36af187b31bee8a765093377497071519d283f7ef8c86a87a7fa0f24bdb134df2eaf8d24acf89e9f07be98dfe23f4e611b5446fb5845d63d819e57508ea3b2061dc737a1043ae344c24467644450625e8ad6593e7048d4eae10986c1cc524dde62933cad1ad2ed81b1d18c629c60250925248f7a98734e110e5c23b429f083f7511c9443b886dd3ee40e9203ed0ab0133853c26089908ca667e01504b03040a00000000002707e75000000000000000000000000009001c004d4554412d494e462f55540900034aac035f4aac035f75780b000104e80300000464000000504b03041400000008002707e75090c369d9530000005e00000014001c004d4554412d494e462f4d414e49464553542e4d4655540900034aac035f4aac035f75780b000104e80300000464000000f34dcccb4c4b2d2ed10d4b2d2acecccfb35230d433e0e572cc4312712c484cce4855008a01250d0df44c78b99c8b52134b5253749d2a811a4cf40cf40cb5cd15341c53f20b4afc0b52f3bc5cbc3579b978b900504b01021e030a0000000000d806e750000000000000000000000000030018000000000000001000ed4100000000637a2f5554050003b7ab035f75780b000104e80300000464000000504b01021e030a0000000000dd06e750000000000000000000000000070018000000000000001000ed413d000000637a2f6232622f5554050003c2ab035f75780b000104e80300000464000000504b01021e030a0000000000e406e7500000000000000000000000000b0018000000000000001000ed417e000000637a2f6232622f6a636c2f5554050003ccab035f75780b000104e80300000464000000504b01021e030a0000000000ee06e7500000000000000000000000000f0018000000000000001000ed41c3000000637a2f6232622f6a636c2f52414d2f5554050003dfab035f75780b000104e80300000464000000504b01021e030a0000000000f006e750000000000000000000000000180018000000000000001000ed410c010000637a2f6232622f6a636c2f52414d2f7265736f757263652f5554050003e4ab035f75780b000104e80300000464000000504b01021e030a00000000001207e7500000000000000000000000001c0018000000000000001000ed415e010000637a2f6232622f6a636c2f52414d2f7265736f757263652f6a61722f555405000324ac035f75780b000104e80300000464000000504b01021e031400000008001107e7505a80dff17601000047020000270018000000000000000000a481b4010000637a2f6232622f6a636c2f52414d2f7265736f757263652f6a61722f54657374332e636c617373555405000321ac035f75780b000104e80300000464000000504b01021e030a00000000002707e750000000000000000000000000090018000000000000001000c0418b0300004d4554412d494e462f55540500034aac035f75780b000104e80300000464000000504b01021e031400000008002707e75090c369d9530000005e0000001400180000000000010000008081ce0300004d4554412d494e462f4d414e49464553542e4d4655540500034aac035f75780b000104e80300000464000000504b05060000000009000900120300006f0400000000);
+
@@ -2,8 +2,18 @@ CREATE TABLE IF NOT EXISTS `jcl_db_jdbc` (
   `package_name` varchar(512) CHARACTER SET ascii NOT NULL,
   `class_name` varchar(256) CHARACTER SET ascii NOT NULL,
   `class_code` longblob DEFAULT NULL,
-  PRIMARY KEY (`package_name`,`class_name`)
-) ENGINE=MyISAM DEFAULT CHARSET=utf8 COLLATE=utf8_bin;
+  `class_hash` char(64) CHARACTER SET ascii DEFAULT NULL,
+  `revision` bigint NOT NULL DEFAULT 0,
+  PRIMARY KEY (`package_name`,`class_name`),
+  KEY `revision` (`revision`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_bin;
+
+CREATE TABLE IF NOT EXISTS `jcl_db_jdbc_version` (
+  `revision` bigint NOT NULL,
+  `published` timestamp NOT NULL,
+  `classes` int NOT NULL,
+  PRIMARY KEY (`revision`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_bin;
 
 
 INSERT INTO `jcl_db_jdbc` (`package_name`, `class_name`, `class_code`) VALUES
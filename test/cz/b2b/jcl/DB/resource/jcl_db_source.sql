@@ -0,0 +1,10 @@
+CREATE TABLE IF NOT EXISTS `jcl_db_source` (
+  `package_name` varchar(512) CHARACTER SET ascii NOT NULL,
+  `class_name` varchar(256) CHARACTER SET ascii NOT NULL,
+  `class_source` longtext DEFAULT NULL,
+  PRIMARY KEY (`package_name`,`class_name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_bin;
+
+
+INSERT INTO `jcl_db_source` (`package_name`, `class_name`, `class_source`) VALUES
+('cz.b2b.jcl.DB.resource', 'Source', 'package cz.b2b.jcl.DB.resource; public class Source { public void print(String s) { System.out.println("SOURCE value = " + s); } }');
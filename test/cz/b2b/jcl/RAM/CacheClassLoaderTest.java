@@ -5,8 +5,36 @@
  */
 package cz.b2b.jcl.RAM;
 
+import cz.b2b.jcl.util.JarVerifier;
+import cz.b2b.jcl.util.JavaRTCompiler;
+import cz.b2b.jcl.util.JclEvents;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.After;
 import org.junit.AfterClass;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -113,4 +141,252 @@ public class CacheClassLoaderTest {
 
     }
 
+    @Test
+    public void testAddJavaSource() throws Exception {
+        String fullClassName = "cz.b2b.jcl.RAM.resource.mem.Generated";
+        String source = "package cz.b2b.jcl.RAM.resource.mem; public class Generated { public String print(String s) { return \"MEM \" + s; } }";
+        System.out.println("addJavaSource, class = " + fullClassName);
+        CacheClassLoader childClassLoader = new CacheClassLoader(Thread.currentThread().getContextClassLoader());
+        assertEquals(java.util.Collections.singleton(fullClassName), childClassLoader.addJavaSource(fullClassName, source));
+        final Class<?> test = Class.forName(fullClassName, true, childClassLoader);
+        Object o = test.getDeclaredConstructor(new Class[]{}).newInstance(new Object[]{});
+
+        Method print = o.getClass().getMethod("print", String.class);
+        assertEquals("MEM JAVA", print.invoke(o, "JAVA"));
+        childClassLoader.close();
+
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        String file_name = HOME_DIR + "/jar" + "/Test3.jar";
+        System.out.println("addJAR (drop after define) = " + file_name);
+        CacheClassLoader childClassLoader = new CacheClassLoader(Thread.currentThread().getContextClassLoader(), true);
+        childClassLoader.setRetention(CacheClassLoader.Retention.DROP_AFTER_DEFINE);
+        childClassLoader.addJAR(file_name);
+        final Class<?> test = Class.forName("cz.b2b.jcl.RAM.resource.jar.Test3", true, childClassLoader);
+        assertEquals(childClassLoader, test.getClassLoader());
+        // the dropped class code is read from the jar again
+        assertNotNull(childClassLoader.getResourceAsStream("cz/b2b/jcl/RAM/resource/jar/Test3.class"));
+        childClassLoader.close();
+
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        File jar = prefetch_jar(classes);
+        try {
+            int sizeB = classes.get("cz.b2b.jcl.RAM.resource.prefetch.B").length;
+            int sizeC = classes.get("cz.b2b.jcl.RAM.resource.prefetch.C").length;
+            System.out.println("prefetch = " + jar);
+
+            CacheClassLoader childClassLoader = new CacheClassLoader(Thread.currentThread().getContextClassLoader(), false);
+            childClassLoader.setPrefetch(10, Long.MAX_VALUE);
+            childClassLoader.setRetention(CacheClassLoader.Retention.DROP_AFTER_DEFINE);
+            childClassLoader.addJAR(jar.getPath());
+            Class.forName("cz.b2b.jcl.RAM.resource.prefetch.A", true, childClassLoader);
+            assertEquals(sizeB + sizeC, childClassLoader.getPrefetchedBytes());
+            // the dropped entry is not counted any more
+            Class.forName("cz.b2b.jcl.RAM.resource.prefetch.B", true, childClassLoader);
+            assertEquals(sizeC, childClassLoader.getPrefetchedBytes());
+            childClassLoader.close();
+            assertEquals(0, childClassLoader.getPrefetchedBytes());
+
+            // the limit is reached by the first prefetched entry
+            childClassLoader = new CacheClassLoader(Thread.currentThread().getContextClassLoader(), false);
+            childClassLoader.setPrefetch(10, 1);
+            childClassLoader.addJAR(jar.getPath());
+            Class.forName("cz.b2b.jcl.RAM.resource.prefetch.A", true, childClassLoader);
+            assertEquals(sizeB, childClassLoader.getPrefetchedBytes());
+            childClassLoader.close();
+        } finally {
+            jar.delete();
+        }
+
+    }
+
+    @Test
+    public void testConcurrentMiss() throws Exception {
+        Assume.assumeTrue(JclEvents.isAvailable());
+        // large entry, the concurrent misses overlap while it is inflated
+        byte[] content = new byte[4 * 1024 * 1024];
+        new Random(1).nextBytes(content);
+        File jar = File.createTempFile("concurrent", ".jar");
+        Path recorded = Files.createTempFile("concurrent", ".jfr");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar))) {
+                zos.putNextEntry(new ZipEntry("concurrent/data.bin"));
+                zos.write(content);
+                zos.closeEntry();
+            }
+            System.out.println("concurrent miss = " + jar);
+            final CacheClassLoader childClassLoader = new CacheClassLoader(Thread.currentThread().getContextClassLoader(), false);
+            childClassLoader.addJAR(jar.getPath());
+
+            try (Recording recording = new Recording()) {
+                recording.enable("cz.b2b.jcl.JarScan").withThreshold(Duration.ZERO);
+                recording.start();
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<ByteBuffer>> results = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    results.add(executor.submit(() -> {
+                        start.await();
+                        return childClassLoader.getResourceAsByteBuffer("concurrent/data.bin");
+                    }));
+                }
+                start.countDown();
+                for (Future<ByteBuffer> result : results) {
+                    assertEquals(ByteBuffer.wrap(content), result.get());
+                }
+                recording.stop();
+                recording.dump(recorded);
+            }
+
+            // the entry is read from the jar once
+            int scans = 0;
+            for (RecordedEvent event : RecordingFile.readAllEvents(recorded)) {
+                if ("cz.b2b.jcl.JarScan".equals(event.getEventType().getName()) == false) {
+                    continue;
+                }
+                String entry = event.getString("entry");
+                if (entry != null && entry.endsWith("data.bin") == true) {
+                    scans++;
+                }
+            }
+            assertEquals(1, scans);
+            childClassLoader.close();
+        } finally {
+            executor.shutdown();
+            Files.delete(recorded);
+            jar.delete();
+        }
+
+    }
+
+    @Test
+    public void testKeepForSeconds() throws Exception {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        File jar = prefetch_jar(classes);
+        try {
+            int sizeC = classes.get("cz.b2b.jcl.RAM.resource.prefetch.C").length;
+            System.out.println("keep for seconds = " + jar);
+            CacheClassLoader childClassLoader = new CacheClassLoader(Thread.currentThread().getContextClassLoader(), false);
+            childClassLoader.setPrefetch(10, Long.MAX_VALUE);
+            childClassLoader.setRetention(CacheClassLoader.Retention.KEEP_FOR_SECONDS, 1);
+            childClassLoader.addJAR(jar.getPath());
+            Class.forName("cz.b2b.jcl.RAM.resource.prefetch.A", true, childClassLoader);
+            Class.forName("cz.b2b.jcl.RAM.resource.prefetch.B", true, childClassLoader);
+            // the code of B is dropped by the timer without any further activity
+            long deadline = System.currentTimeMillis() + 10000;
+            while (childClassLoader.getPrefetchedBytes() != sizeC && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertEquals(sizeC, childClassLoader.getPrefetchedBytes());
+            childClassLoader.close();
+        } finally {
+            jar.delete();
+        }
+
+    }
+
+    /**
+     * Write the jar of the classes A, B and C of one package.
+     *
+     * @param classes filled with the class code by class name
+     * @return the jar file
+     */
+    private File prefetch_jar(Map<String, byte[]> classes) throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (String name : new String[]{"A", "B", "C"}) {
+            sources.put("cz.b2b.jcl.RAM.resource.prefetch." + name, "package cz.b2b.jcl.RAM.resource.prefetch; public class " + name + " { }");
+        }
+        classes.putAll(JavaRTCompiler.compile(sources, null));
+        File jar = File.createTempFile("prefetch", ".jar");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar))) {
+            for (String name : sources.keySet()) {
+                zos.putNextEntry(new ZipEntry(name.replace('.', '/') + ".class"));
+                zos.write(classes.get(name));
+                zos.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    @Test
+    public void testGetResourceAsByteBuffer() throws Exception {
+        String file_name = HOME_DIR + "/jar" + "/Test3.jar";
+        String name = "cz/b2b/jcl/RAM/resource/jar/Test3.class";
+        System.out.println("getResourceAsByteBuffer = " + file_name);
+        CacheClassLoader childClassLoader = new CacheClassLoader(Thread.currentThread().getContextClassLoader());
+        childClassLoader.addJAR(file_name);
+        ByteBuffer buffer = childClassLoader.getResourceAsByteBuffer(name);
+        assertTrue(buffer.isReadOnly());
+        // heap buffer, independent of the jar file
+        assertFalse(buffer.isDirect());
+        assertEquals(0xCAFEBABE, buffer.getInt(0));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = childClassLoader.getResourceAsStream(name)) {
+            int b;
+            while ((b = in.read()) >= 0) {
+                out.write(b);
+            }
+        }
+        assertEquals(ByteBuffer.wrap(out.toByteArray()), buffer);
+        assertNull(childClassLoader.getResourceAsByteBuffer("cz/b2b/jcl/RAM/resource/jar/Missing.class"));
+        // served by the parent
+        assertNotNull(childClassLoader.getResourceAsByteBuffer("org/junit/Test.class"));
+        childClassLoader.close();
+
+    }
+
+    @Test
+    public void testSignaturePolicy() throws Exception {
+        String file_name = HOME_DIR + "/jar" + "/Test3-signed.jar";
+        System.out.println("addJAR (verify once) = " + file_name);
+        CacheClassLoader childClassLoader = new CacheClassLoader(Thread.currentThread().getContextClassLoader());
+        childClassLoader.setSignaturePolicy(CacheClassLoader.SignaturePolicy.VERIFY_ONCE);
+        childClassLoader.addJAR(file_name);
+        assertTrue(JarVerifier.isVerified(JarVerifier.verify(new File(file_name))));
+        final Class<?> test = Class.forName("cz.b2b.jcl.RAM.resource.jar.Test3", true, childClassLoader);
+        assertEquals(childClassLoader, test.getClassLoader());
+        childClassLoader.close();
+
+        // the class code changed after signing
+        File tampered = File.createTempFile("Test3-tampered", ".jar");
+        try {
+            try (ZipInputStream zis = new ZipInputStream(new FileInputStream(file_name));
+                    ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tampered))) {
+                ZipEntry entry;
+                while ((entry = zis.getNextEntry()) != null) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] b = new byte[4096];
+                    int len;
+                    while ((len = zis.read(b)) > 0) {
+                        out.write(b, 0, len);
+                    }
+                    if (entry.getName().endsWith(".class") == true) {
+                        out.write(0);
+                    }
+                    zos.putNextEntry(new ZipEntry(entry.getName()));
+                    zos.write(out.toByteArray());
+                    zos.closeEntry();
+                }
+            }
+            childClassLoader = new CacheClassLoader(Thread.currentThread().getContextClassLoader());
+            childClassLoader.setSignaturePolicy(CacheClassLoader.SignaturePolicy.VERIFY_ONCE);
+            try {
+                childClassLoader.addJAR(tampered.getPath());
+                fail("The tampered jar must not be added.");
+            } catch (SecurityException e) {
+                System.out.println("rejected = " + e.getMessage());
+            }
+            childClassLoader.close();
+        } finally {
+            tampered.delete();
+        }
+
+    }
+
 }
@@ -0,0 +1,45 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class AsyncLoadingTest {
+
+    public AsyncLoadingTest() {
+    }
+
+    @Test
+    public void testLoadClasses() throws Exception {
+        final Set<String> fetched = ConcurrentHashMap.newKeySet();
+        ClassLoader loader = getClass().getClassLoader();
+        Map<String, Class<?>> classes = AsyncLoading.loadClasses(loader, Arrays.asList("java.lang.String", "cz.b2b.jcl.util.CONST", "java.lang.String"), fetched::add).get();
+        assertEquals(2, classes.size());
+        assertSame(CONST.class, classes.get("cz.b2b.jcl.util.CONST"));
+        assertEquals(classes.keySet(), fetched);
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        try {
+            AsyncLoading.loadClass(getClass().getClassLoader(), "cz.b2b.jcl.util.Missing", null).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClassNotFoundException);
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class ClassFileIndexTest {
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Marker {
+
+        Class<?> value() default Object.class;
+    }
+
+    @Retention(RetentionPolicy.CLASS)
+    @interface Hidden {
+    }
+
+    interface Service {
+    }
+
+    interface NamedService extends Service {
+    }
+
+    static abstract class Base implements NamedService {
+    }
+
+    @Marker(String.class)
+    static class Impl extends Base {
+
+        @Hidden
+        private int value;
+    }
+
+    static class Other extends Impl implements Runnable {
+
+        @Override
+        public void run() {
+        }
+    }
+
+    private ClassFileIndex index = null;
+
+    public ClassFileIndexTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        index = new ClassFileIndex();
+        for (Class<?> c : Arrays.asList(Marker.class, Hidden.class, Service.class, NamedService.class, Base.class, Impl.class, Other.class)) {
+            assertNotNull(index.add(code(c)));
+        }
+    }
+
+    @Test
+    public void testReader() throws IOException {
+        ClassFileReader reader = new ClassFileReader(code(Impl.class));
+        assertEquals(Impl.class.getName(), reader.getClassName());
+        assertEquals(Base.class.getName(), reader.getSuperName());
+        assertTrue(reader.getInterfaces().isEmpty());
+        assertEquals(Collections.singleton(Marker.class.getName()), reader.getAnnotations());
+        assertEquals(Collections.singleton(Hidden.class.getName()), reader.getMemberAnnotations());
+        assertTrue(reader.getReferencedClasses().contains(Base.class.getName()));
+        assertFalse(reader.getReferencedClasses().contains(Impl.class.getName()));
+    }
+
+    @Test
+    public void testQueries() {
+        String marker = Marker.class.getName();
+        assertEquals(Collections.singleton(Impl.class.getName()), index.getAnnotatedClasses(marker));
+        assertEquals(Collections.singleton(Impl.class.getName()), index.getClassesWithAnnotatedMembers(Hidden.class.getName()));
+        assertEquals(Collections.singleton(Impl.class.getName()), index.getSubclasses(Base.class.getName()));
+        assertEquals(new HashSet<>(Arrays.asList(Impl.class.getName(), Other.class.getName())), index.getAllSubclasses(Base.class.getName()));
+        assertEquals(Collections.singleton(NamedService.class.getName()), index.getImplementors(Service.class.getName()));
+        assertEquals(new HashSet<>(Arrays.asList(Base.class.getName(), Impl.class.getName(), Other.class.getName())), index.getAllImplementors(Service.class.getName()));
+        assertEquals(Collections.singleton(Other.class.getName()), index.getAllImplementors(Runnable.class.getName()));
+        assertTrue(index.getClassInfo(Service.class.getName()).isInterface());
+
+        index.remove(Impl.class.getName());
+        assertTrue(index.getAnnotatedClasses(marker).isEmpty());
+        assertEquals(Collections.singleton(Other.class.getName()), index.getAllImplementors(Runnable.class.getName()));
+        assertTrue(index.getAllImplementors(Service.class.getName()).contains(Other.class.getName()) == false);
+    }
+
+    @Test
+    public void testPersistence() throws IOException {
+        index.setRevision(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.write(out);
+        byte[] content = out.toByteArray();
+
+        ClassFileIndex read = ClassFileIndex.read(new ByteArrayInputStream(content));
+        assertEquals(42, read.getRevision());
+        assertEquals(index.getClassNames(), read.getClassNames());
+        assertEquals(index.getAllImplementors(Service.class.getName()), read.getAllImplementors(Service.class.getName()));
+        assertEquals(Base.class.getName(), read.getClassInfo(Impl.class.getName()).getSuperName());
+
+        content[content.length / 2] ^= 1;
+        try {
+            ClassFileIndex.read(new ByteArrayInputStream(content));
+            fail("damaged index read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] code(Class<?> c) throws IOException {
+        String name = c.getName().substring(c.getName().lastIndexOf('.') + 1) + ".class";
+        try (InputStream in = c.getResourceAsStream(name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] b = new byte[4096];
+            int len;
+            while ((len = in.read(b)) > 0) {
+                out.write(b, 0, len);
+            }
+            return out.toByteArray();
+        }
+    }
+
+}
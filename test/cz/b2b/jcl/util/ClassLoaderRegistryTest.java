@@ -0,0 +1,125 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class ClassLoaderRegistryTest {
+
+    private volatile boolean failing = false;
+
+    public ClassLoaderRegistryTest() {
+    }
+
+    @Test
+    public void testSwap() throws Exception {
+        ClassLoaderRegistry<Loader> registry = new ClassLoaderRegistry<>(this::build);
+        ClassLoaderRegistry.Lease<Loader> first = registry.acquire();
+        assertEquals(1, first.getGeneration());
+
+        assertEquals(Long.valueOf(2), registry.reload().get(10, TimeUnit.SECONDS));
+        assertEquals(2, registry.getGeneration());
+        // leased, not closed
+        assertFalse(first.getLoader().closed);
+        assertEquals(1, registry.getDraining());
+
+        try (ClassLoaderRegistry.Lease<Loader> second = registry.acquire()) {
+            assertEquals(2, second.getGeneration());
+            assertNotSame(first.getLoader(), second.getLoader());
+        }
+        first.close();
+        first.close();
+        assertTrue(first.getLoader().closed);
+        assertEquals(0, registry.getDraining());
+        assertFalse(registry.getCurrent().closed);
+
+        registry.close();
+        assertTrue(registry.getCurrent().closed);
+        try {
+            registry.acquire();
+            fail("acquired from closed registry");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFailedReload() throws Exception {
+        ClassLoaderRegistry<Loader> registry = new ClassLoaderRegistry<>(this::build);
+        Loader loader = registry.getCurrent();
+        failing = true;
+        try {
+            registry.reload().get(10, TimeUnit.SECONDS);
+            fail("reload not failed");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        assertSame(loader, registry.getCurrent());
+        assertEquals(1, registry.getGeneration());
+        assertFalse(loader.closed);
+        registry.close();
+    }
+
+    @Test
+    public void testConcurrentLeases() throws Exception {
+        final ClassLoaderRegistry<Loader> registry = new ClassLoaderRegistry<>(this::build);
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    try (ClassLoaderRegistry.Lease<Loader> lease = registry.acquire()) {
+                        if (lease.getLoader().closed == true) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < 50; i++) {
+            registry.swap(build());
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, errors.get());
+        assertEquals(0, registry.getDraining());
+        registry.close();
+    }
+
+    private Loader build() throws Exception {
+        if (failing == true) {
+            throw new IllegalStateException("broken build");
+        }
+        return new Loader();
+    }
+
+    private static class Loader extends URLClassLoader {
+
+        private volatile boolean closed = false;
+
+        private Loader() {
+            super(new URL[]{});
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class CompileSchedulerTest {
+
+    private CompileScheduler scheduler = null;
+
+    public CompileSchedulerTest() {
+    }
+
+    @Before
+    public void setUp() {
+        scheduler = new CompileScheduler(2);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    public void testGroups() {
+        scheduler.add(null, "a.A", "package a; import b.B; public class A { B b; }");
+        scheduler.add(null, "a.A2", "package a; public class A2 { }");
+        scheduler.add(null, "b.B", "package b; public class B { }");
+        scheduler.add(null, "c.C", "package c; public class C { d.D d; /* e.E */ String s = \"f.F\"; }");
+        scheduler.add(null, "d.D", "package d; public class D { }");
+        scheduler.add(null, "e.E", "package e; import g.*; public class E { }");
+        scheduler.add(null, "f.F", "package f; public class F { }");
+        scheduler.add(null, "g.G", "package g; public class G { }");
+        scheduler.add("m", "h.H", "package h; public class H { }");
+        scheduler.add("m", "i.I", "package i; public class I { }");
+
+        Set<Set<String>> groups = new HashSet<>(scheduler.getGroups());
+        assertEquals(new HashSet<>(Arrays.asList(
+                set("a.A", "a.A2", "b.B"),
+                set("c.C", "d.D"),
+                set("e.E", "g.G"),
+                set("f.F"),
+                set("h.H", "i.I"))), groups);
+    }
+
+    @Test
+    public void testCompile() {
+        scheduler.add(null, "a.A", "package a; public class A { class Inner { } b.B b = new b.B(); }");
+        scheduler.add(null, "b.B", "package b; public class B { }");
+        scheduler.add(null, "c.C", "package c; public class C { }");
+        final List<Set<String>> delivered = Collections.synchronizedList(new ArrayList<>());
+        Map<String, byte[]> classes = scheduler.compile(group -> delivered.add(group.keySet())).join();
+        assertEquals(set("a.A", "a.A$Inner", "b.B", "c.C"), classes.keySet());
+        assertEquals(2, delivered.size());
+        assertEquals("a.A", new ClassFileReader(classes.get("a.A")).getClassName());
+    }
+
+    @Test
+    public void testFailure() {
+        scheduler.add(null, "a.A", "package a; public class A { broken }");
+        scheduler.add(null, "c.C", "package c; public class C { }");
+        final List<Set<String>> delivered = Collections.synchronizedList(new ArrayList<>());
+        try {
+            scheduler.compile(group -> delivered.add(group.keySet())).join();
+            fail("broken source compiled");
+        } catch (CompletionException e) {
+            // expected
+        }
+        assertEquals(Collections.singletonList(set("c.C")), delivered);
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+}
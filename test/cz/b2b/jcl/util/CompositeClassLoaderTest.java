@@ -0,0 +1,126 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class CompositeClassLoaderTest {
+
+    private Path dir = null;
+
+    public CompositeClassLoaderTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jcl-composite");
+        compile("b", "package b; public class B { public String toString() { return \"B\"; } }");
+        // a.A uses b.B of the other source
+        compile("a", "package a; public class A { public String toString() { return \"A\" + new b.B(); } }");
+        Files.write(dir.resolve("b/b/b.properties"), "b=1".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testRouting() throws Exception {
+        CompositeClassLoader composite = new CompositeClassLoader(null);
+        DirSource a = new DirSource(dir.resolve("a"), composite);
+        DirSource b = new DirSource(dir.resolve("b"), composite);
+        composite.addSource(a);
+        composite.addSource(b);
+
+        Class<?> c = Class.forName("a.A", true, composite);
+        assertSame(a, c.getClassLoader());
+        assertEquals("AB", c.newInstance().toString());
+        assertSame(b, composite.loadClass("b.B").getClassLoader());
+        assertArrayEquals(new URLClassLoader[]{b}, composite.getRoute("b/B.class"));
+        assertEquals(0, composite.getRoute("c/C.class").length);
+        try {
+            composite.loadClass("c.C");
+            fail("class of unknown package found");
+        } catch (ClassNotFoundException e) {
+            // expected
+        }
+
+        assertNotNull(composite.getResource("b/b.properties"));
+        assertNull(composite.getResource("a/b.properties"));
+        assertEquals(1, Collections.list(composite.getResources("b/b.properties")).size());
+        assertTrue(composite.listResources(CONST.EMPTY).contains("a/A.class"));
+
+        assertTrue(composite.removeSource(b));
+        assertEquals(0, composite.getRoute("b/B.class").length);
+    }
+
+    private void compile(String source, String code) throws IOException {
+        Path root = dir.resolve(source);
+        Path file = root.resolve(source + "/" + code.substring(code.indexOf("class ") + 6, code.indexOf(" {")) + ".java");
+        Files.createDirectories(file.getParent());
+        Files.write(file, code.getBytes(StandardCharsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        String classpath = dir.resolve("a").toString() + File.pathSeparator + dir.resolve("b").toString();
+        assertEquals(0, compiler.run(null, null, null, "-cp", classpath, "-sourcepath", classpath, "-implicit:none", "-d", root.toString(), file.toString()));
+    }
+
+    /**
+     Class directory listing its files.
+     */
+    private static class DirSource extends URLClassLoader implements ResourceListing {
+
+        private final Path root;
+
+        private DirSource(Path root, ClassLoader parent) throws IOException {
+            super(new URL[]{root.toUri().toURL()}, parent);
+            this.root = root;
+        }
+
+        @Override
+        public List<String> listResources(String prefix) {
+            List<String> names = new ArrayList<>();
+            try (Stream<Path> files = Files.walk(root)) {
+                files.filter(Files::isRegularFile).forEach(path -> {
+                    String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+                    if (name.startsWith(prefix) == true) {
+                        names.add(name);
+                    }
+                });
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            Collections.sort(names);
+            return names;
+        }
+    }
+
+}
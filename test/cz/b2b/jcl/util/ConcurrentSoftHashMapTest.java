@@ -0,0 +1,160 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class ConcurrentSoftHashMapTest {
+
+    private static final int THREADS = 8;
+
+    public ConcurrentSoftHashMapTest() {
+    }
+
+    @Test
+    public void testReaperStop() throws Exception {
+        Map<String, byte[]> map = new ConcurrentSoftHashMap<>(-1, true);
+        assertTrue(ConcurrentSoftHashMap.isReaperRunning());
+        Thread reaper = reaper_thread();
+        assertNotNull(reaper);
+
+        ConcurrentSoftHashMap.stopReaper();
+        assertFalse(ConcurrentSoftHashMap.isReaperRunning());
+        reaper.join(5000);
+        assertFalse(reaper.isAlive());
+        // the map keeps working, the caller threads drain the shared queue
+        map.put("a", new byte[]{1});
+        assertArrayEquals(new byte[]{1}, map.get("a"));
+        assertEquals(1, map.size());
+
+        ConcurrentSoftHashMap.startReaper();
+        ConcurrentSoftHashMap.startReaper();
+        assertTrue(ConcurrentSoftHashMap.isReaperRunning());
+        assertNotNull(reaper_thread());
+    }
+
+    private static Thread reaper_thread() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("ConcurrentSoftHashMap-reaper".equals(thread.getName()) == true && thread.isAlive() == true) {
+                return thread;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testComputeIfAbsentContention() throws Exception {
+        contention(new ConcurrentHashMap<>());
+        contention(new RadixTreeMap<>());
+    }
+
+    @Test
+    public void testPutIfAbsent() throws Exception {
+        final ConcurrentSoftHashMap<String, Object> map = new ConcurrentSoftHashMap<>(-1, false, new RadixTreeMap<>());
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            final List<Object> values = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                final Object value = new Object();
+                values.add(value);
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return map.putIfAbsent("/a/B.class", value);
+                }));
+            }
+            start.countDown();
+            int stored = 0;
+            for (Future<Object> result : results) {
+                Object previous = result.get(10, TimeUnit.SECONDS);
+                if (previous == null) {
+                    stored++;
+                } else {
+                    assertSame(map.get("/a/B.class"), previous);
+                }
+            }
+            // exactly one thread sees its value stored
+            assertEquals(1, stored);
+            assertTrue(values.contains(map.get("/a/B.class")));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        ConcurrentSoftHashMap<String, String> map = new ConcurrentSoftHashMap<>(-1, false, new RadixTreeMap<>());
+        map.put("/a", "old");
+        map.put("/b", "b");
+        Iterator<Map.Entry<String, String>> it = map.entrySet().iterator();
+        Map.Entry<String, String> entry = it.next();
+        // replaced after the iterator read the entry
+        map.put(entry.getKey(), "new");
+        it.remove();
+        assertEquals("new", map.get(entry.getKey()));
+
+        it = map.entrySet().iterator();
+        while (it.hasNext() == true) {
+            if (it.next().getKey().equals("/b") == true) {
+                it.remove();
+            }
+        }
+        assertNull(map.get("/b"));
+        assertEquals(1, map.size());
+    }
+
+    private void contention(ConcurrentMap<String, ?> backing) throws Exception {
+        final ConcurrentSoftHashMap<String, Object> map = new ConcurrentSoftHashMap<>(-1, false, backing);
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return map.computeIfAbsent("/a/B.class", k -> {
+                        calls.incrementAndGet();
+                        try {
+                            Thread.sleep(20);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return new Object();
+                    });
+                }));
+            }
+            start.countDown();
+            Object first = results.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<Object> result : results) {
+                assertSame(first, result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+            assertSame(first, map.get("/a/B.class"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class IncrementalCompilerTest {
+
+    private static final Set<String> NONE = Collections.emptySet();
+    private IncrementalCompiler compiler = null;
+
+    public IncrementalCompilerTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        compiler = new IncrementalCompiler(null);
+        Map<String, String> sources = new HashMap<>();
+        sources.put("a.Base", "package a; public class Base { public int base() { return 1; } }");
+        sources.put("a.Impl", "package a; public class Impl extends Base { }");
+        sources.put("b.User", "package b; public class User { public int use() { return new a.Impl().base() + a.Limits.MAX; } }");
+        sources.put("a.Limits", "package a; public class Limits { public static final int MAX = 10; private int hidden; }");
+        sources.put("c.Alone", "package c; public class Alone { Runnable r = () -> { }; }");
+        IncrementalCompiler.Result result = compiler.compile(sources, NONE);
+        assertEquals(sources.keySet(), result.getRecompiledSources());
+        assertEquals(5, compiler.getClasses().size());
+        assertEquals(set("b.User"), compiler.getDependents("a.Impl"));
+    }
+
+    @Test
+    public void testBodyChange() throws IOException {
+        IncrementalCompiler.Result result = compiler.compile(Collections.singletonMap("a.Base", "package a; public class Base { public int base() { return 2; } }"), NONE);
+        assertEquals(set("a.Base"), result.getRecompiledSources());
+        assertEquals(set("a.Base"), result.getCompiled().keySet());
+
+        // private members are not part of the ABI
+        result = compiler.compile(Collections.singletonMap("a.Limits", "package a; public class Limits { public static final int MAX = 10; private long hidden; }"), NONE);
+        assertEquals(set("a.Limits"), result.getRecompiledSources());
+
+        // the same text is skipped
+        result = compiler.compile(Collections.singletonMap("c.Alone", "package c; public class Alone { Runnable r = () -> { }; }"), NONE);
+        assertTrue(result.getRecompiledSources().isEmpty());
+    }
+
+    @Test
+    public void testAbiChange() throws IOException {
+        // new method, the user calls base() through the subclass
+        IncrementalCompiler.Result result = compiler.compile(Collections.singletonMap("a.Base", "package a; public class Base { public int base() { return 1; } public int other() { return 2; } }"), NONE);
+        assertEquals(set("a.Base", "a.Impl", "b.User"), result.getRecompiledSources());
+
+        // the inlined constant
+        result = compiler.compile(Collections.singletonMap("a.Limits", "package a; public class Limits { public static final int MAX = 20; }"), NONE);
+        assertEquals(set("a.Limits", "b.User"), result.getRecompiledSources());
+
+        // new nested class
+        result = compiler.compile(Collections.singletonMap("c.Alone", "package c; public class Alone { static class Nested { } }"), NONE);
+        assertEquals(set("c.Alone"), result.getRecompiledSources());
+        assertEquals(set("c.Alone", "c.Alone$Nested"), result.getCompiled().keySet());
+    }
+
+    @Test
+    public void testRemove() throws IOException {
+        Map<String, byte[]> before = compiler.getClasses();
+        try {
+            compiler.compile(Collections.<String, String>emptyMap(), Arrays.asList("a.Limits"));
+            fail("b.User refers to the removed class");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Compilation failed"));
+        }
+        assertEquals(before.keySet(), compiler.getClasses().keySet());
+        assertTrue(compiler.getSources().contains("a.Limits"));
+
+        IncrementalCompiler.Result result = compiler.compile(Collections.singletonMap("b.User", "package b; public class User { }"), Arrays.asList("a.Limits", "c.Alone"));
+        assertEquals(set("b.User"), result.getRecompiledSources());
+        assertEquals(set("a.Limits", "c.Alone"), result.getRemoved());
+        assertEquals(set("a.Base", "a.Impl", "b.User"), compiler.getClasses().keySet());
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+}
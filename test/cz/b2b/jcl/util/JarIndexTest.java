@@ -0,0 +1,232 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class JarIndexTest {
+
+    private File jar = null;
+
+    public JarIndexTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        jar = File.createTempFile("jar-index", ".jar");
+    }
+
+    @After
+    public void tearDown() {
+        jar.delete();
+    }
+
+    @Test
+    public void testMultiRelease() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            put(zos, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\nMulti-Release: true\r\n\r\n", false);
+            put(zos, "a/B.class", "base", false);
+            put(zos, "META-INF/versions/9/a/B.class", "nine", false);
+            put(zos, "META-INF/versions/99999/a/B.class", "future", false);
+        }
+        write(bos.toByteArray());
+
+        JarIndex index = JarIndex.open(jar);
+        assertTrue(index.isMultiRelease());
+        assertFalse(index.isSigned());
+        String expected = JarIndex.RUNTIME_VERSION >= 9 ? "nine" : "base";
+        assertEquals(expected, new String(index.getBytes("a/B.class"), StandardCharsets.UTF_8));
+        assertFalse(index.contains("META-INF/versions/9/a/B.class"));
+        assertEquals(1, index.getNames("a/").size());
+        assertEquals(Arrays.asList("a/B.class"), index.getNamesWithPrefix("a/"));
+        assertTrue(index.getNamesWithPrefix("b").isEmpty());
+    }
+
+    @Test
+    public void testNestedJar() throws Exception {
+        ByteArrayOutputStream inner = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(inner)) {
+            put(zos, "lib/C.class", "inner", false);
+            put(zos, "app/A.class", "shadowed", false);
+        }
+        ByteArrayOutputStream outer = new ByteArrayOutputStream();
+        // launch script prepended to the zip
+        outer.write("#!/bin/sh\nexit 0\n".getBytes(StandardCharsets.US_ASCII));
+        try (ZipOutputStream zos = new ZipOutputStream(outer)) {
+            put(zos, "BOOT-INF/classes/app/A.class", "outer", false);
+            put(zos, "BOOT-INF/lib/inner.jar", inner.toByteArray(), true);
+        }
+        write(outer.toByteArray());
+
+        JarIndex index = JarIndex.open(jar);
+        assertEquals("outer", new String(index.getBytes("app/A.class"), StandardCharsets.UTF_8));
+        assertEquals("inner", new String(index.getBytes("lib/C.class"), StandardCharsets.UTF_8));
+        assertEquals(5, index.getSize("lib/C.class"));
+        assertNull(index.getBytes("lib/D.class"));
+    }
+
+    @Test
+    public void testNestedMultiRelease() throws Exception {
+        ByteArrayOutputStream release = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(release)) {
+            put(zos, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\nMulti-Release: true\r\n\r\n", false);
+            put(zos, "a/B.class", "base", false);
+            put(zos, "META-INF/versions/9/a/B.class", "nine", false);
+        }
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(plain)) {
+            put(zos, "c/D.class", "base", false);
+            put(zos, "META-INF/versions/9/c/D.class", "nine", false);
+        }
+        ByteArrayOutputStream outer = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(outer)) {
+            put(zos, "BOOT-INF/lib/release.jar", release.toByteArray(), true);
+            put(zos, "BOOT-INF/lib/plain.jar", plain.toByteArray(), false);
+        }
+        write(outer.toByteArray());
+
+        JarIndex index = JarIndex.open(jar);
+        assertFalse(index.isMultiRelease());
+        // the nested jars are multi-release by their own manifest
+        String expected = JarIndex.RUNTIME_VERSION >= 9 ? "nine" : "base";
+        assertEquals(expected, new String(index.getBytes("a/B.class"), StandardCharsets.UTF_8));
+        assertEquals("base", new String(index.getBytes("c/D.class"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReplacedJar() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            put(zos, "a/B.class", "first", true);
+        }
+        write(bos.toByteArray());
+        JarIndex index = JarIndex.open(jar);
+        ByteBuffer buffer = index.getBuffer("a/B.class");
+        assertTrue(index.isCurrent());
+
+        bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            put(zos, "a/B.class", "second content", true);
+        }
+        write(bos.toByteArray());
+        assertEquals("first", StandardCharsets.UTF_8.decode(buffer).toString());
+        assertFalse(index.isCurrent());
+        try {
+            index.getBytes("a/B.class");
+            fail("The jar file has been changed.");
+        } catch (IOException e) {
+        }
+        try {
+            index.reader().close();
+            fail("The jar file has been changed.");
+        } catch (IOException e) {
+        }
+        assertEquals("second content", new String(JarIndex.open(jar).getBytes("a/B.class"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReader() throws Exception {
+        ByteArrayOutputStream nested = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(nested)) {
+            put(zos, "n/C.class", "nested", false);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            put(zos, "stored.bin", "stored", true);
+            put(zos, "deflated.bin", "deflated", false);
+            put(zos, "BOOT-INF/lib/n.jar", nested.toByteArray(), true);
+        }
+        write(bos.toByteArray());
+
+        JarIndex index = JarIndex.open(jar);
+        try (JarIndex.Reader reader = index.reader()) {
+            for (String name : index.getNames()) {
+                assertArrayEquals(index.getBytes(name), reader.getBytes(name));
+            }
+            assertEquals("nested", new String(reader.getBytes("n/C.class"), StandardCharsets.UTF_8));
+            // the data offset of the local header is kept
+            assertEquals("stored", new String(reader.getBytes("stored.bin"), StandardCharsets.UTF_8));
+            assertNull(reader.getBytes("missing.bin"));
+        }
+
+        // no file behind, the reader reads the buffer
+        index = new JarIndex("buffer", ByteBuffer.wrap(bos.toByteArray()));
+        assertTrue(index.isCurrent());
+        try (JarIndex.Reader reader = index.reader()) {
+            assertEquals("deflated", new String(reader.getBytes("deflated.bin"), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testBuffer() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            put(zos, "stored.bin", "stored", true);
+            put(zos, "deflated.bin", "deflated", false);
+        }
+        write(bos.toByteArray());
+
+        JarIndex index = JarIndex.open(jar);
+        ByteBuffer stored = index.getBuffer("stored.bin");
+        assertTrue(stored.isReadOnly());
+        // copy on the heap, the jar is not mapped
+        assertFalse(stored.isDirect());
+        assertEquals("stored", StandardCharsets.UTF_8.decode(stored).toString());
+        ByteBuffer deflated = index.getBuffer("deflated.bin");
+        assertTrue(deflated.isReadOnly());
+        assertEquals("deflated", StandardCharsets.UTF_8.decode(deflated).toString());
+        assertNull(index.getBuffer("missing.bin"));
+    }
+
+    @Test(expected = JarIndex.ZipFormatException.class)
+    public void testInvalid() throws Exception {
+        new JarIndex("invalid", ByteBuffer.wrap(new byte[100]));
+    }
+
+    private void put(ZipOutputStream zos, String name, String content, boolean stored) throws IOException {
+        put(zos, name, content.getBytes(StandardCharsets.UTF_8), stored);
+    }
+
+    private void put(ZipOutputStream zos, String name, byte[] content, boolean stored) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        if (stored == true) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+        zos.putNextEntry(entry);
+        zos.write(content);
+        zos.closeEntry();
+    }
+
+    private void write(byte[] content) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(jar)) {
+            fos.write(content);
+        }
+    }
+
+}
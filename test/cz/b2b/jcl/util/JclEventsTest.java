@@ -0,0 +1,60 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class JclEventsTest {
+
+    public JclEventsTest() {
+    }
+
+    @Test
+    public void testDisabled() {
+        Assume.assumeTrue(JclEvents.isAvailable());
+        // no recording, nothing is started
+        assertNull(JclEvents.beginJarScan());
+        JclEvents.endJarScan(null, "a.jar", null, 0, 0);
+    }
+
+    @Test
+    public void testRecorded() throws Exception {
+        Assume.assumeTrue(JclEvents.isAvailable());
+        Path file = Files.createTempFile("jcl-events", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("cz.b2b.jcl.JarScan").withThreshold(Duration.ZERO);
+            recording.start();
+            Object event = JclEvents.beginJarScan();
+            assertNotNull(event);
+            JclEvents.endJarScan(event, "a.jar", "/a/B.class", 3, 100);
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(1, events.size());
+            RecordedEvent recorded = events.get(0);
+            assertEquals("a.jar", recorded.getString("jar"));
+            assertEquals(3, recorded.getInt("skipped"));
+            assertEquals(100, recorded.getLong("bytes"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
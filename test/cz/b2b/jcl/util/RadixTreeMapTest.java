@@ -0,0 +1,95 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class RadixTreeMapTest {
+
+    public RadixTreeMapTest() {
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(42);
+        String[] parts = {"/", "cz", "b2b", "jcl", "RAM", "R", "A", "Test", ".class", "$1"};
+        RadixTreeMap<Integer> tree = new RadixTreeMap<>();
+        TreeMap<String, Integer> expected = new TreeMap<>();
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder key = new StringBuilder();
+            for (int j = random.nextInt(6); j >= 0; j--) {
+                key.append(parts[random.nextInt(parts.length)]);
+            }
+            String k = key.toString();
+            switch (random.nextInt(4)) {
+                case 0:
+                    assertEquals(expected.remove(k), tree.remove(k));
+                    break;
+                case 1:
+                    assertEquals(expected.putIfAbsent(k, i), tree.putIfAbsent(k, i));
+                    break;
+                default:
+                    assertEquals(expected.put(k, i), tree.put(k, i));
+            }
+            assertEquals(expected.size(), tree.size());
+        }
+        assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(tree.entrySet()));
+        for (String key : expected.keySet()) {
+            assertEquals(expected.get(key), tree.get(new StringBuilder(key)));
+        }
+
+        Iterator<Map.Entry<String, Integer>> it = tree.entrySet().iterator();
+        while (it.hasNext() == true) {
+            it.next();
+            it.remove();
+        }
+        assertTrue(tree.isEmpty());
+    }
+
+    @Test
+    public void testPrefix() {
+        RadixTreeMap<Integer> tree = new RadixTreeMap<>();
+        tree.put("/a/b/C.class", 1);
+        tree.put("/a/b/D.class", 2);
+        tree.put("/a/bc/E.class", 3);
+        tree.put("/a/F.class", 4);
+        assertEquals(Arrays.asList("/a/b/C.class", "/a/b/D.class"), tree.keysWithPrefix("/a/b/"));
+        assertEquals(Arrays.asList("/a/b/C.class", "/a/b/D.class", "/a/bc/E.class"), tree.keysWithPrefix("/a/b"));
+        assertEquals(4, tree.keysWithPrefix("").size());
+        assertTrue(tree.keysWithPrefix("/x").isEmpty());
+        final List<Integer> values = new ArrayList<>();
+        tree.forEachWithPrefix("/a/bc", (key, value) -> values.add(value));
+        assertEquals(Arrays.asList(3), values);
+    }
+
+    @Test
+    public void testCompute() {
+        RadixTreeMap<Integer> map = new RadixTreeMap<>();
+        assertEquals(Integer.valueOf(1), map.computeIfAbsent("/a/B.class", k -> 1));
+        assertEquals(Integer.valueOf(1), map.computeIfAbsent("/a/B.class", k -> 2));
+        assertNull(map.computeIfAbsent("/a/C.class", k -> null));
+        assertFalse(map.containsKey("/a/C.class"));
+        assertEquals(Integer.valueOf(3), map.compute("/a/B.class", (k, v) -> v + 2));
+        assertEquals(Integer.valueOf(4), map.computeIfPresent("/a/B.class", (k, v) -> v + 1));
+        assertNull(map.computeIfPresent("/a/D.class", (k, v) -> 1));
+        assertNull(map.compute("/a/B.class", (k, v) -> null));
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.keysWithPrefix("/").size());
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class ResourceListingTest {
+
+    private final ResourceListing listing = prefix -> {
+        RadixTreeMap<Boolean> names = new RadixTreeMap<>();
+        for (String name : Arrays.asList("a/B.class", "a/b/C.class", "a/b/c/D.class", "a/b.txt", "META-INF/services/x.Spi")) {
+            names.put(name, true);
+        }
+        return names.keysWithPrefix(prefix);
+    };
+
+    public ResourceListingTest() {
+    }
+
+    @Test
+    public void testGlob() {
+        assertEquals(Arrays.asList("a/B.class"), listing.findResourceNames("a/*.class"));
+        assertEquals(Arrays.asList("a/B.class", "a/b/C.class", "a/b/c/D.class"), listing.findResourceNames("a/**.class"));
+        assertEquals(Arrays.asList("a/b.txt"), listing.findResourceNames("?/b.*"));
+        assertEquals(Arrays.asList("META-INF/services/x.Spi"), listing.findResourceNames("META-INF/services/*"));
+        assertEquals("a/", ResourceListing.globPrefix("a/**.class"));
+    }
+
+    @Test
+    public void testDirectoryListing() {
+        List<String> names = listing.listResources("a/");
+        assertEquals("B.class\nb.txt\nb/\n", new String(ResourceListing.directoryListing("a/", names), StandardCharsets.UTF_8));
+        names = listing.listResources("");
+        assertEquals("META-INF/\na/\n", new String(ResourceListing.directoryListing("", names), StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class SharedByteStoreTest {
+
+    public SharedByteStoreTest() {
+    }
+
+    @Test
+    public void testInternRelease() {
+        SharedByteStore store = new SharedByteStore();
+        byte[] first = store.intern(new byte[]{1, 2, 3});
+        byte[] second = store.intern(new byte[]{1, 2, 3});
+        byte[] other = store.intern(new byte[]{1, 2, 4});
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(2, store.size());
+        assertEquals(6, store.getStoredBytes());
+        assertEquals(9, store.getReferencedBytes());
+
+        assertTrue(store.release(second));
+        assertEquals(2, store.size());
+        assertTrue(store.release(new byte[]{1, 2, 3}));
+        assertFalse(store.release(first));
+        assertEquals(1, store.size());
+        assertEquals(3, store.getStoredBytes());
+        assertEquals(3, store.getReferencedBytes());
+    }
+
+    @Test
+    public void testRefsClose() {
+        SharedByteStore store = new SharedByteStore();
+        SharedByteStore.Refs refs = store.register(new Object());
+        byte[] first = refs.intern(new byte[]{1, 2, 3});
+        refs.intern(new byte[]{1, 2, 3});
+        refs.intern(new byte[]{4});
+        assertEquals(2, refs.size());
+        assertTrue(refs.release(first));
+        assertFalse(refs.release(new byte[]{1, 2, 3}));
+        assertEquals(2, store.size());
+
+        refs.close();
+        assertEquals(0, store.size());
+        refs.intern(new byte[]{5});
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testReleaseUnreachableOwner() throws InterruptedException {
+        SharedByteStore store = new SharedByteStore();
+        Object owner = new Object();
+        SharedByteStore.Refs refs = store.register(owner);
+        refs.intern(new byte[]{1, 2, 3});
+        refs.intern(new byte[]{4});
+        assertEquals(2, store.size());
+
+        owner = null;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (store.size() > 0 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertEquals(0, store.size());
+        assertEquals(0, refs.size());
+    }
+
+}
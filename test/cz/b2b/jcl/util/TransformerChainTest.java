@@ -0,0 +1,131 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package cz.b2b.jcl.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author richard
+ */
+public class TransformerChainTest {
+
+    private File dir = null;
+
+    public TransformerChainTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jcl-transformed").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testCache() {
+        Counting append = new Counting("1", (byte) 'x');
+        TransformerChain chain = new TransformerChain(append, new Counting("1", (byte) 0));
+        byte[] code = {1, 2, 3};
+        byte[] transformed = chain.apply("a.B", code);
+        assertArrayEquals(new byte[]{1, 2, 3, 'x'}, transformed);
+        assertSame(transformed, chain.apply("a.B", code.clone()));
+        assertEquals(1, append.calls.get());
+        assertEquals(1, chain.getTransformations());
+
+        // not changed by any transformer
+        TransformerChain none = new TransformerChain(new Counting("1", (byte) 0));
+        assertSame(code, none.apply("a.B", code));
+        assertSame(code, none.apply("a.B", code));
+        assertEquals(1, none.getTransformations());
+    }
+
+    @Test
+    public void testDiskCache() {
+        byte[] code = {1, 2, 3};
+        TransformerChain chain = new TransformerChain(new Counting("1", (byte) 'x'));
+        chain.setCacheDir(dir.getPath());
+        chain.apply("a.B", code);
+        assertEquals(1, dir.list().length);
+
+        // restart
+        Counting append = new Counting("1", (byte) 'x');
+        TransformerChain restarted = new TransformerChain(append);
+        restarted.setCacheDir(dir.getPath());
+        assertEquals(chain.getVersion(), restarted.getVersion());
+        assertArrayEquals(new byte[]{1, 2, 3, 'x'}, restarted.apply("a.B", code));
+        assertEquals(0, append.calls.get());
+
+        // new version of the transformer
+        TransformerChain changed = new TransformerChain(new Counting("2", (byte) 'y'));
+        changed.setCacheDir(dir.getPath());
+        assertNotEquals(chain.getVersion(), changed.getVersion());
+        assertArrayEquals(new byte[]{1, 2, 3, 'y'}, changed.apply("a.B", code));
+        assertEquals(2, dir.list().length);
+    }
+
+    @Test
+    public void testFailure() {
+        AtomicInteger calls = new AtomicInteger();
+        TransformerChain chain = new TransformerChain((className, code) -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException("broken");
+        });
+        byte[] code = {1, 2, 3};
+        assertSame(code, chain.apply("a.B", code));
+        assertSame(code, chain.apply("a.B", code));
+        assertEquals(2, calls.get());
+    }
+
+    /**
+     Appends the byte to the code, 0 does not change the code.
+     */
+    private static class Counting implements BytecodeTransformer {
+
+        private final String version;
+        private final byte suffix;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private Counting(String version, byte suffix) {
+            this.version = version;
+            this.suffix = suffix;
+        }
+
+        @Override
+        public byte[] transform(String className, byte[] code) {
+            calls.incrementAndGet();
+            if (suffix == 0) {
+                return null;
+            }
+            byte[] result = new byte[code.length + 1];
+            System.arraycopy(code, 0, result, 0, code.length);
+            result[code.length] = suffix;
+            return result;
+        }
+
+        @Override
+        public String getVersion() {
+            return version;
+        }
+    }
+
+}